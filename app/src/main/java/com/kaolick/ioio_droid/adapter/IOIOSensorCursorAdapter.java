@@ -1,8 +1,6 @@
 package com.kaolick.ioio_droid.adapter;
 
 import android.content.Context;
-import android.content.ContextWrapper;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,14 +10,11 @@ import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.database.SensorSchema;
 import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
-import com.kaolick.ioio_droid.store.Store;
-import com.kaolick.ioio_droid.ui.SettingsActivity;
 
 /**
  * A custom {@link SimpleCursorAdapter} for displaying a {@link IodIOIOSensor}
@@ -40,7 +35,6 @@ public class IOIOSensorCursorAdapter extends SimpleCursorAdapter
     private Context mContext;
     private Cursor mCursor;
     private IodDatabaseManager mDatabaseManager;
-    private SharedPreferences mPrefs;
 
     /**
      * Class constructor.
@@ -68,7 +62,6 @@ public class IOIOSensorCursorAdapter extends SimpleCursorAdapter
 	this.mContext = _context;
 	this.mCursor = _cursor;
 	this.mDatabaseManager = new IodDatabaseManager(_context);
-	this.mPrefs = SettingsActivity.getPrefs((ContextWrapper) _context);
     }
 
     @Override
@@ -120,42 +113,34 @@ public class IOIOSensorCursorAdapter extends SimpleCursorAdapter
 	    @Override
 	    public void onClick(View _view)
 	    {
-		// If the measuring process is running...
-		if (mPrefs.getBoolean(Store.MEASUREMENT_STATUS, false))
+		// Move the Cursor to the according ListView item
+		mCursor.moveToPosition(_position);
+
+		// Get the sensor's sensorID and state
+		int sensorID = mCursor.getInt(mCursor
+			.getColumnIndex(SensorSchema.SENSOR_ID));
+		int state = mCursor.getInt(mCursor
+			.getColumnIndex(SensorSchema.STATE));
+
+		// State == inactive; a running measuring process starts the
+		// sensor
+		if (state == IodIOIOSensor.STATE_INACTIVE)
 		{
-		    // Do nothing; inform the user
-		    Toast.makeText(mContext, R.string.toast_is_measuring,
-			    Toast.LENGTH_SHORT).show();
+		    mDatabaseManager.updateSensorState(sensorID,
+			    IodIOIOSensor.STATE_ACTIVE);
 		}
+		// State == active; a running measuring process stops the
+		// sensor
 		else
 		{
-		    // Move the Cursor to the according ListView item
-		    mCursor.moveToPosition(_position);
-
-		    // Get the sensor's sensorID and state
-		    int sensorID = mCursor.getInt(mCursor
-			    .getColumnIndex(SensorSchema.SENSOR_ID));
-		    int state = mCursor.getInt(mCursor
-			    .getColumnIndex(SensorSchema.STATE));
-
-		    // State == inactive
-		    if (state == IodIOIOSensor.STATE_INACTIVE)
-		    {
-			mDatabaseManager.updateSensorState(sensorID,
-				IodIOIOSensor.STATE_ACTIVE);
-		    }
-		    // State == active
-		    else
-		    {
-			mDatabaseManager.updateSensorState(sensorID,
-				IodIOIOSensor.STATE_INACTIVE);
-		    }
-
-		    // Refresh the ListView
-		    mCursor = mDatabaseManager.getIOIOSensorsCursor();
-		    swapCursor(mCursor);
-		    notifyDataSetChanged();
+		    mDatabaseManager.updateSensorState(sensorID,
+			    IodIOIOSensor.STATE_INACTIVE);
 		}
+
+		// Refresh the ListView
+		mCursor = mDatabaseManager.getIOIOSensorsCursor();
+		swapCursor(mCursor);
+		notifyDataSetChanged();
 	    }
 	});
 
@@ -17,6 +17,7 @@ import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.database.MeasurementSchema;
 import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.store.Store;
 
 /**
  * A custom {@link SimpleCursorAdapter} for displaying measured sensor values in
@@ -159,8 +160,8 @@ public class MeasurementsCursorActionModeAdapter extends SimpleCursorAdapter
 	}
 
 	// Set the timestamp to the according TextView
-	holder.mTimestampTV.setText(mCursor.getString(mCursor
-		.getColumnIndex(MeasurementSchema.TIMESTAMP)));
+	holder.mTimestampTV.setText(Store.formatTimestamp(mCursor
+		.getLong(mCursor.getColumnIndex(MeasurementSchema.TIMESTAMP))));
 
 	// Set the value to the according TextView
 	holder.mMeasuredValueTV.setText(String.valueOf(mCursor
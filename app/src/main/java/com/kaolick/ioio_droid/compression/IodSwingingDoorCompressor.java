@@ -0,0 +1,203 @@
+package com.kaolick.ioio_droid.compression;
+
+/**
+ * Lossy compression of a sensor's value series with the <i>swinging door</i>
+ * algorithm. Only the points needed to rebuild the series by linear
+ * interpolation within a maximum deviation are kept.
+ * <p>
+ * Starting at the last kept point, the compressor keeps two "doors": the
+ * steepest slope and the flattest slope that still lie within the deviation
+ * of all points seen since. As long as the line from the last kept point to
+ * a new point passes between the doors, the points in between can be
+ * dropped. When it does not, the point before the new one is kept and
+ * becomes the new starting point. Each kept line was checked against the
+ * points it replaces, so the rebuilt series never deviates by more than the
+ * deviation.
+ * <p>
+ * A point is released one step late, because whether it is needed is only
+ * known once the next point arrived. The state is a fixed number of fields
+ * per sensor; call {@link #flush()} when measuring stops to release the last
+ * pending point.
+ * 
+ * @author kaolick
+ */
+public class IodSwingingDoorCompressor
+{
+    // The maximum deviation of the rebuilt series
+    private final double mDeviation;
+
+    // The last kept point
+    private long mArchivedMillis;
+    private float mArchivedValue;
+    private boolean hasArchived;
+
+    // The last seen point; not kept yet
+    private long mLastMillis;
+    private float mLastValue;
+    private boolean hasLast;
+
+    // The doors (slopes in value per millisecond)
+    private double mMaxLowerSlope;
+    private double mMinUpperSlope;
+
+    // The point released by the last call of offer() or flush()
+    private long mReleasedMillis;
+    private float mReleasedValue;
+
+    // Statistics
+    private long mOfferedCount;
+    private long mReleasedCount;
+
+    /**
+     * Class constructor.
+     * 
+     * @param _deviation
+     *            The maximum deviation of the rebuilt series from the measured
+     *            values
+     */
+    public IodSwingingDoorCompressor(double _deviation)
+    {
+	this.mDeviation = _deviation;
+    }
+
+    /**
+     * Offers a new point to the compressor.
+     * 
+     * @param _millis
+     *            The time of the measurement (in milliseconds)
+     * @param _value
+     *            The measured value
+     * @return <code>true</code> if a point was released and has to be saved;
+     *         see {@link #getReleasedValue()} and
+     *         {@link #getReleasedMillis()}.
+     */
+    public synchronized boolean offer(long _millis, float _value)
+    {
+	mOfferedCount++;
+
+	// The first point is always kept
+	if (!hasArchived)
+	{
+	    archive(_millis, _value);
+	    return release(_millis, _value);
+	}
+
+	boolean released = false;
+
+	// Points at the same time as the archived point cannot swing the doors
+	long dt = _millis - mArchivedMillis;
+	if (dt > 0)
+	{
+	    double slope = (_value - mArchivedValue) / dt;
+
+	    // The line to the new point misses a point in between: keep the
+	    // last point and start from there
+	    if (hasLast && (slope > mMinUpperSlope || slope < mMaxLowerSlope))
+	    {
+		archive(mLastMillis, mLastValue);
+		released = release(mLastMillis, mLastValue);
+
+		dt = _millis - mArchivedMillis;
+	    }
+	}
+
+	// Narrow the doors by the new point
+	if (dt > 0)
+	{
+	    double upper = (_value + mDeviation - mArchivedValue) / dt;
+	    double lower = (_value - mDeviation - mArchivedValue) / dt;
+
+	    mMinUpperSlope = Math.min(mMinUpperSlope, upper);
+	    mMaxLowerSlope = Math.max(mMaxLowerSlope, lower);
+	}
+
+	mLastMillis = _millis;
+	mLastValue = _value;
+	hasLast = true;
+
+	return released;
+    }
+
+    /**
+     * Releases the last pending point. Call this when measuring stops.
+     * 
+     * @return <code>true</code> if a point was released and has to be saved;
+     *         see {@link #getReleasedValue()} and
+     *         {@link #getReleasedMillis()}.
+     */
+    public synchronized boolean flush()
+    {
+	if (!hasLast)
+	{
+	    return false;
+	}
+
+	archive(mLastMillis, mLastValue);
+
+	return release(mLastMillis, mLastValue);
+    }
+
+    /**
+     * Makes the given point the new starting point of the doors.
+     */
+    private void archive(long _millis, float _value)
+    {
+	mArchivedMillis = _millis;
+	mArchivedValue = _value;
+	hasArchived = true;
+	hasLast = false;
+
+	mMaxLowerSlope = Double.NEGATIVE_INFINITY;
+	mMinUpperSlope = Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Remembers a released point.
+     * 
+     * @return always <code>true</code>.
+     */
+    private boolean release(long _millis, float _value)
+    {
+	mReleasedMillis = _millis;
+	mReleasedValue = _value;
+	mReleasedCount++;
+
+	return true;
+    }
+
+    public synchronized float getReleasedValue()
+    {
+	return mReleasedValue;
+    }
+
+    public synchronized long getReleasedMillis()
+    {
+	return mReleasedMillis;
+    }
+
+    /**
+     * Gets the achieved compression ratio.
+     * 
+     * @return The number of offered points per saved point; 1 if no point has
+     *         been saved yet.
+     */
+    public synchronized double getCompressionRatio()
+    {
+	if (mReleasedCount == 0)
+	{
+	    return 1;
+	}
+
+	return (double) mOfferedCount / mReleasedCount;
+    }
+
+    public synchronized long getOfferedCount()
+    {
+	return mOfferedCount;
+    }
+
+    public synchronized long getReleasedCount()
+    {
+	return mReleasedCount;
+    }
+}
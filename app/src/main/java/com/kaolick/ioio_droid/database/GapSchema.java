@@ -0,0 +1,14 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database schema for a gap table.
+ * 
+ * @author kaolick
+ */
+public interface GapSchema
+{
+    String ID = "_id";
+    String SENSOR_ID = "sensor_id";
+    String START = "start_time";
+    String END = "end_time";
+}
\ No newline at end of file
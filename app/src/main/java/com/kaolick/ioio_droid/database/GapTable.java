@@ -0,0 +1,20 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database table for gaps, i.e. time windows in which a sensor could not be
+ * measured because its <code>IOIO</code> was disconnected. Implements
+ * {@link GapSchema}. The times are saved as epoch milliseconds.
+ * 
+ * @author kaolick
+ */
+public class GapTable implements GapSchema
+{
+    public static final String TABLE_NAME = "gaps";
+
+    public static final String SQL_CREATE = "CREATE TABLE " + TABLE_NAME + " ("
+	    + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + SENSOR_ID
+	    + " INTEGER NOT NULL, " + START + " INTEGER NOT NULL, " + END
+	    + " INTEGER NOT NULL" + ");";
+
+    public static final String SQL_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
+}
\ No newline at end of file
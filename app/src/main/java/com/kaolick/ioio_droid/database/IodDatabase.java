@@ -1,5 +1,6 @@
 package com.kaolick.ioio_droid.database;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,6 +11,13 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 /**
  * The application's database.
+ * <p>
+ * The database is opened in write-ahead logging (WAL) mode, so the UI reads
+ * while the service saves measured values without either waiting for the
+ * other. With WAL, <code>synchronous = NORMAL</code> syncs on checkpoints
+ * only; a power loss may lose the latest transactions but never corrupts the
+ * database. The automatic checkpoints are rare; the storage writer runs one
+ * when it is idle instead, see {@link #checkpoint(SQLiteDatabase)}.
  * 
  * @author kaolick
  */
@@ -17,7 +25,16 @@ public class IodDatabase extends SQLiteOpenHelper
 {
     // Database name & version
     public static final String DB_NAME = "iod.db";
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 15;
+
+    // Page size of a new database (in bytes)
+    public static final int PAGE_SIZE = 4096;
+
+    // Page cache of a connection (in pages)
+    public static final int CACHE_SIZE = 1024;
+
+    // WAL size that triggers an automatic checkpoint (in pages)
+    public static final int WAL_AUTOCHECKPOINT = 4096;
 
     /**
      * Class constructor.
@@ -32,52 +49,500 @@ public class IodDatabase extends SQLiteOpenHelper
     @Override
     public void onCreate(SQLiteDatabase _db)
     {
+	// Only takes effect while the database is empty
+	_db.setPageSize(PAGE_SIZE);
+
 	// Create table for sensors
 	_db.execSQL(SensorTable.SQL_CREATE);
 
 	// Create table for locations
 	_db.execSQL(LocationTable.SQL_CREATE);
 
-	// Create a table for measurements for each sensor
-	List<Integer> sensorIDs = getIOIOSensorIDs(_db);
-	if (!sensorIDs.isEmpty())
+	// Create table for measuring gaps
+	_db.execSQL(GapTable.SQL_CREATE);
+
+	// Create the table for the measurements of all sensors
+	_db.execSQL(MeasurementTable.SQL_CREATE);
+	_db.execSQL(MeasurementTable.SQL_CREATE_INDEX);
+	_db.execSQL(MeasurementTable.SQL_CREATE_ID_INDEX);
+
+	// Create the table for the upload watermarks
+	_db.execSQL(WatermarkTable.SQL_CREATE);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase _db)
+    {
+	super.onOpen(_db);
+
+	if (_db.isReadOnly())
 	{
-	    for (int i = 0; i < sensorIDs.size(); i++)
-	    {
-		// The current sensorID
-		int sensorID = sensorIDs.get(i);
+	    return;
+	}
 
-		// Create the database table for the current sensorID
-		_db.execSQL(MeasurementTable.getSQLCreate(sensorID));
-	    }
+	_db.enableWriteAheadLogging();
+
+	pragma(_db, "synchronous = NORMAL");
+	pragma(_db, "cache_size = " + CACHE_SIZE);
+	pragma(_db, "wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
+    }
+
+    /**
+     * Copies the pages written to the WAL back into the database, as far as
+     * no reader still needs them. Meant for idle periods; does not wait for
+     * readers.
+     * 
+     * @param _db
+     *            The database
+     */
+    public static void checkpoint(SQLiteDatabase _db)
+    {
+	pragma(_db, "wal_checkpoint");
+    }
+
+    /**
+     * Runs a <code>PRAGMA</code>. Some pragmas return a row, which
+     * {@link SQLiteDatabase#execSQL(String)} does not accept, so the pragma is
+     * run as a query.
+     * 
+     * @param _db
+     *            The database
+     * @param _pragma
+     *            The pragma without the <code>PRAGMA</code> keyword
+     */
+    private static void pragma(SQLiteDatabase _db, String _pragma)
+    {
+	Cursor result = _db.rawQuery("PRAGMA " + _pragma, null);
+	try
+	{
+	    result.moveToFirst();
+	}
+	finally
+	{
+	    result.close();
 	}
     }
 
+    /**
+     * Deletes the database with its WAL files. Android 4.0 does not delete
+     * the WAL files itself, and a stale WAL would be applied to a new
+     * database of the same name.
+     * 
+     * @param _context
+     *            The context
+     */
+    public static void delete(Context _context)
+    {
+	File file = _context.getDatabasePath(DB_NAME);
+
+	_context.deleteDatabase(DB_NAME);
+	new File(file.getPath() + "-wal").delete();
+	new File(file.getPath() + "-shm").delete();
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase _db, int _oldVersion, int _newVersion)
     {
-	// Drop table for sensors
-	_db.execSQL(SensorTable.SQL_DROP);
+	// Migrate step by step; the sensors and measurements are kept
+	if (_oldVersion < 2)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_OVERSAMPLING_COUNT);
+	    _db.execSQL(SensorTable.SQL_ADD_OVERSAMPLING_REDUCER);
+	}
+
+	if (_oldVersion < 3)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_DEADBAND_TYPE);
+	    _db.execSQL(SensorTable.SQL_ADD_DEADBAND);
+	    _db.execSQL(SensorTable.SQL_ADD_HEARTBEAT);
+	}
 
-	// Drop table for locations
-	_db.execSQL(LocationTable.SQL_DROP);
+	if (_oldVersion < 4)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_COMPRESSION_DEVIATION);
+	}
 
-	// Drop all measurement tables
-	List<Integer> sensorIDs = getIOIOSensorIDs(_db);
-	if (!sensorIDs.isEmpty())
+	if (_oldVersion < 5)
 	{
-	    for (int i = 0; i < sensorIDs.size(); i++)
+	    _db.execSQL(SensorTable.SQL_ADD_OVERRUN_POLICY);
+	}
+
+	if (_oldVersion < 6)
+	{
+	    migrateTimestamps(_db);
+	}
+
+	if (_oldVersion < 7)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_BOARD);
+	}
+
+	if (_oldVersion < 8)
+	{
+	    _db.execSQL(GapTable.SQL_CREATE);
+	}
+
+	if (_oldVersion < 9)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_EXPRESSION);
+	}
+
+	if (_oldVersion < 10)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_CALIBRATION_TYPE);
+	    _db.execSQL(SensorTable.SQL_ADD_CALIBRATION);
+	}
+
+	if (_oldVersion < 11)
+	{
+	    _db.execSQL(SensorTable.SQL_ADD_SNAPSHOT_GROUP);
+	}
+
+	if (_oldVersion < 12)
+	{
+	    migrateMeasurements(_db);
+	}
+
+	// Database version 13 added an outbox table, which version 14 replaced
+	if (_oldVersion < 14)
+	{
+	    migrateWatermarks(_db);
+	}
+
+	if (_oldVersion < 15)
+	{
+	    migrateSnapshots(_db);
+	}
+    }
+
+    /**
+     * Converts the formatted <code>TEXT</code> timestamps of all measurement
+     * tables and the location table to epoch milliseconds. Tables of sensors
+     * that were deleted are converted as well, since deleting a sensor did
+     * not drop its table. SQLite cannot change a column's type, so each table
+     * is rebuilt.
+     * 
+     * @param _db
+     *            The database
+     */
+    private static void migrateTimestamps(SQLiteDatabase _db)
+    {
+	for (int sensorID : getLegacyMeasurementTableIDs(_db))
+	{
+	    rebuildWithEpochTimestamps(_db,
+		    MeasurementTable.LEGACY_TABLE_NAME_PRE_TAG + sensorID,
+		    MeasurementTable.getLegacySQLCreate(sensorID),
+		    MeasurementTable.getLegacyColumns());
+	}
+
+	rebuildWithEpochTimestamps(_db, LocationTable.TABLE_NAME,
+		LocationTable.SQL_CREATE, LocationTable.COLUMNS);
+    }
+
+    /**
+     * Moves the measurements of the legacy per sensor tables into the
+     * {@link MeasurementTable} and drops the legacy tables. Tables of sensors
+     * that were deleted are moved as well, so no measurements are lost. Such
+     * tables may still have <code>TEXT</code> timestamps if an earlier
+     * upgrade skipped them; these are converted on the way. The index is
+     * created after the rows are copied, which is faster than maintaining it
+     * row by row.
+     * 
+     * @param _db
+     *            The database
+     */
+    private static void migrateMeasurements(SQLiteDatabase _db)
+    {
+	_db.execSQL(MeasurementTable.LEGACY_SQL_CREATE);
+
+	for (int sensorID : getLegacyMeasurementTableIDs(_db))
+	{
+	    String tableName = MeasurementTable.LEGACY_TABLE_NAME_PRE_TAG
+		    + sensorID;
+
+	    // Keep the order of the rows, so the IDs stay ascending in time
+	    _db.execSQL("INSERT INTO " + MeasurementTable.TABLE_NAME + " ("
+		    + MeasurementSchema.SENSOR_ID + ", "
+		    + MeasurementSchema.TIMESTAMP + ", "
+		    + MeasurementSchema.VALUE + ", "
+		    + MeasurementSchema.UPLOADED + ") SELECT " + sensorID
+		    + ", CASE WHEN typeof(" + MeasurementSchema.TIMESTAMP
+		    + ") = 'text' THEN " + getEpochMillisSQL() + " ELSE "
+		    + MeasurementSchema.TIMESTAMP + " END, "
+		    + MeasurementSchema.VALUE + ", "
+		    + MeasurementSchema.UPLOADED + " FROM " + tableName
+		    + " ORDER BY " + MeasurementSchema.ID);
+	    _db.execSQL("DROP TABLE " + tableName);
+	}
+
+	_db.execSQL(MeasurementTable.LEGACY_SQL_CREATE_INDEX);
+    }
+
+    /**
+     * Replaces the uploaded flags of the measurements by upload watermarks.
+     * A sensor's watermark is the row ID before its first value that was not
+     * uploaded, or its last row ID if all were uploaded. The
+     * {@link MeasurementTable} is rebuilt without the flag column.
+     * 
+     * @param _db
+     *            The database
+     */
+    private static void migrateWatermarks(SQLiteDatabase _db)
+    {
+	String id = MeasurementSchema.ID;
+	String oldTableName = MeasurementTable.TABLE_NAME + "_old";
+
+	_db.execSQL("DROP TABLE IF EXISTS outbox");
+
+	_db.execSQL(WatermarkTable.SQL_CREATE);
+	_db.execSQL("INSERT INTO " + WatermarkTable.TABLE_NAME + " ("
+		+ WatermarkSchema.SENSOR_ID + ", " + WatermarkSchema.SINK + ", "
+		+ WatermarkSchema.LAST_ID + ") SELECT "
+		+ MeasurementSchema.SENSOR_ID + ", '"
+		+ WatermarkTable.SINK_XIVELY + "', IFNULL(MIN(CASE WHEN "
+		+ MeasurementSchema.UPLOADED + " = 0 THEN " + id + " END) - 1, MAX("
+		+ id + ")) FROM " + MeasurementTable.TABLE_NAME + " GROUP BY "
+		+ MeasurementSchema.SENSOR_ID);
+
+	// The index names are global, so the old index is dropped first
+	_db.execSQL("DROP INDEX IF EXISTS " + MeasurementTable.INDEX_NAME);
+	_db.execSQL("ALTER TABLE " + MeasurementTable.TABLE_NAME
+		+ " RENAME TO " + oldTableName);
+	_db.execSQL(MeasurementTable.SQL_CREATE);
+
+	String columns = id + ", " + MeasurementSchema.SENSOR_ID + ", "
+		+ MeasurementSchema.TIMESTAMP + ", " + MeasurementSchema.VALUE;
+	_db.execSQL("INSERT INTO " + MeasurementTable.TABLE_NAME + " ("
+		+ columns + ") SELECT " + columns + " FROM " + oldTableName);
+
+	// Keep the row ID sequence, so deleted row IDs below a watermark are
+	// not handed out again
+	_db.execSQL("DELETE FROM sqlite_sequence WHERE name = '"
+		+ MeasurementTable.TABLE_NAME + "'");
+	_db.execSQL("UPDATE sqlite_sequence SET name = '"
+		+ MeasurementTable.TABLE_NAME + "' WHERE name = '" + oldTableName
+		+ "'");
+	_db.execSQL("DROP TABLE " + oldTableName);
+
+	_db.execSQL(MeasurementTable.SQL_CREATE_INDEX);
+	_db.execSQL(MeasurementTable.SQL_CREATE_ID_INDEX);
+    }
+
+    /**
+     * Rebuilds the snapshot tables without their skew column. The skew was
+     * the time between queuing the group's first and last read, not between
+     * the samples, so it is dropped. The rows keep their IDs.
+     * 
+     * @param _db
+     *            The database
+     */
+    private static void migrateSnapshots(SQLiteDatabase _db)
+    {
+	for (int group : getSnapshotTableGroups(_db))
+	{
+	    String tableName = SnapshotTable.getTableName(group);
+	    String oldTableName = tableName + "_old";
+
+	    // The sensor columns of the group
+	    List<Integer> sensorIDs = new ArrayList<Integer>();
+	    StringBuilder columns = new StringBuilder(SnapshotSchema.ID + ", "
+		    + SnapshotSchema.TIMESTAMP);
+	    Cursor result = _db.rawQuery("PRAGMA table_info(" + tableName
+		    + ")", null);
+
+	    try
+	    {
+		while (result.moveToNext())
+		{
+		    String column = result.getString(result
+			    .getColumnIndex("name"));
+
+		    if (column.startsWith(SnapshotTable.COLUMN_NAME_PRE_TAG))
+		    {
+			sensorIDs.add(Integer.parseInt(column
+				.substring(SnapshotTable.COLUMN_NAME_PRE_TAG
+					.length())));
+			columns.append(", ").append(column);
+		    }
+		}
+	    }
+	    finally
+	    {
+		result.close();
+	    }
+
+	    _db.execSQL("ALTER TABLE " + tableName + " RENAME TO "
+		    + oldTableName);
+	    _db.execSQL(SnapshotTable.getSQLCreate(group));
+
+	    for (int sensorID : sensorIDs)
+	    {
+		_db.execSQL(SnapshotTable.getSQLAddColumn(group, sensorID));
+	    }
+
+	    _db.execSQL("INSERT INTO " + tableName + " (" + columns
+		    + ") SELECT " + columns + " FROM " + oldTableName);
+
+	    // Keep the row ID sequence, as for the measurements
+	    _db.execSQL("DELETE FROM sqlite_sequence WHERE name = '"
+		    + tableName + "'");
+	    _db.execSQL("UPDATE sqlite_sequence SET name = '" + tableName
+		    + "' WHERE name = '" + oldTableName + "'");
+	    _db.execSQL("DROP TABLE " + oldTableName);
+	}
+    }
+
+    /**
+     * Rebuilds a table and converts its timestamps, f.e.
+     * 2013-07-24T13:11:25+0200, to epoch milliseconds on the way.
+     * 
+     * @param _db
+     *            The database
+     * @param _tableName
+     *            The table's name
+     * @param _sqlCreate
+     *            The SQL statement creating the new table
+     * @param _columns
+     *            The table's columns, separated by commas
+     */
+    private static void rebuildWithEpochTimestamps(SQLiteDatabase _db,
+						   String _tableName,
+						   String _sqlCreate,
+						   String _columns)
+    {
+	// Nothing to convert
+	Cursor result = _db.rawQuery("SELECT name FROM sqlite_master"
+		+ " WHERE type = 'table' AND name = ?",
+		new String[] { _tableName });
+	boolean exists = result.getCount() > 0;
+	result.close();
+
+	if (!exists)
+	{
+	    return;
+	}
+
+	String oldTableName = _tableName + "_old";
+
+	_db.execSQL("ALTER TABLE " + _tableName + " RENAME TO " + oldTableName);
+	_db.execSQL(_sqlCreate);
+	_db.execSQL("INSERT INTO " + _tableName + " (" + _columns + ") SELECT "
+		+ _columns.replace(MeasurementSchema.TIMESTAMP,
+			getEpochMillisSQL()) + " FROM " + oldTableName);
+	_db.execSQL("DROP TABLE " + oldTableName);
+    }
+
+    /**
+     * Gets an SQL expression converting a formatted timestamp, f.e.
+     * 2013-07-24T13:11:25+0200, to epoch milliseconds.
+     * 
+     * @return the SQL expression.
+     */
+    private static String getEpochMillisSQL()
+    {
+	// The former timestamp's date and time part with the zone offset
+	// changed from +hhmm to +hh:mm, which is understood by julianday()
+	String ts = MeasurementSchema.TIMESTAMP;
+
+	return "CAST(ROUND((julianday(substr(" + ts + ", 1, length(" + ts
+		+ ") - 5) || substr(" + ts + ", -5, 3) || ':' || substr(" + ts
+		+ ", -2)) - 2440587.5) * 86400000) AS INTEGER)";
+    }
+
+    /**
+     * Gets the sensor IDs of all legacy per sensor measurement tables,
+     * including the tables of sensors that were deleted.
+     * 
+     * @param _db
+     *            The database
+     * @return The list of sensor IDs
+     */
+    private static List<Integer> getLegacyMeasurementTableIDs(
+	    SQLiteDatabase _db)
+    {
+	List<Integer> sensorIDs = new ArrayList<Integer>();
+
+	// The snapshot tables have a different prefix
+	String preTag = MeasurementTable.LEGACY_TABLE_NAME_PRE_TAG;
+	Cursor result = _db.rawQuery("SELECT name FROM sqlite_master"
+		+ " WHERE type = 'table' AND name LIKE ?",
+		new String[] { preTag + "%" });
+
+	try
+	{
+	    while (result.moveToNext())
 	    {
-		// The current sensorID
-		int sensorID = sensorIDs.get(i);
+		String tableName = result.getString(0);
+
+		try
+		{
+		    int sensorID = Integer.parseInt(tableName.substring(preTag
+			    .length()));
 
-		// Drop the database table for the current sensorID
-		_db.execSQL(MeasurementTable.getSQLDrop(sensorID));
+		    // Skip names like sensor_07, which are not this table
+		    if (tableName.equals(preTag + sensorID))
+		    {
+			sensorIDs.add(sensorID);
+		    }
+		}
+		catch (NumberFormatException _exception)
+		{
+		    // Not a measurement table
+		}
 	    }
 	}
+	finally
+	{
+	    result.close();
+	}
+
+	return sensorIDs;
+    }
+
+    /**
+     * Gets the groups of all snapshot tables.
+     * 
+     * @param _db
+     *            The database
+     * @return The list of snapshot groups
+     */
+    private static List<Integer> getSnapshotTableGroups(SQLiteDatabase _db)
+    {
+	List<Integer> groups = new ArrayList<Integer>();
+
+	String preTag = SnapshotTable.TABLE_NAME_PRE_TAG;
+	Cursor result = _db.rawQuery("SELECT name FROM sqlite_master"
+		+ " WHERE type = 'table' AND name LIKE ?",
+		new String[] { preTag + "%" });
+
+	try
+	{
+	    while (result.moveToNext())
+	    {
+		String tableName = result.getString(0);
+
+		try
+		{
+		    int group = Integer.parseInt(tableName.substring(preTag
+			    .length()));
+
+		    if (tableName.equals(preTag + group))
+		    {
+			groups.add(group);
+		    }
+		}
+		catch (NumberFormatException _exception)
+		{
+		    // Not a snapshot table
+		}
+	    }
+	}
+	finally
+	{
+	    result.close();
+	}
 
-	// Re-create tables
-	onCreate(_db);
+	return groups;
     }
 
     /**
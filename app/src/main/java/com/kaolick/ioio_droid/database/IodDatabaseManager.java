@@ -3,7 +3,11 @@ package com.kaolick.ioio_droid.database;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -12,9 +16,14 @@ import org.json.JSONObject;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.kaolick.ioio_droid.R;
@@ -30,6 +39,9 @@ import com.kaolick.ioio_droid.ui.SettingsActivity;
  */
 public class IodDatabaseManager
 {
+    // Log tag
+    private static final String TAG = "IodDatabaseManager";
+
     // General attributes
     private Context mContext;
     private CSVManager mCSVManager;
@@ -39,6 +51,13 @@ public class IodDatabaseManager
     private IodDatabase mIodDatabase;
     private SQLiteDatabase mSQLiteDatabase;
 
+    // Compiled statements of the hot paths by their SQL; snapshot inserts by
+    // their table's name
+    private Map<String, SQLiteStatement> mStatements;
+
+    // Number of decimals for the measured values as set in the settings
+    private int mDecimals;
+
     /**
      * Get a writable {@link SQLiteDatabase}.
      * 
@@ -63,6 +82,69 @@ public class IodDatabaseManager
 	this.mPrefs = SettingsActivity.getPrefs((ContextWrapper) _context);
 	this.mIodDatabase = new IodDatabase(_context);
 	this.mSQLiteDatabase = mIodDatabase.getWritableDatabase();
+	this.mStatements = new HashMap<String, SQLiteStatement>();
+	this.mDecimals = readDecimals();
+    }
+
+    /**
+     * Reads the number of decimals for the measured values from the settings.
+     * 
+     * @return the number of decimals.
+     */
+    private int readDecimals()
+    {
+	return Integer.valueOf(mPrefs.getString(mContext.getResources()
+		.getString(R.string.pref_general_decimals_key), "4"));
+    }
+
+    // *************** Transactions ***************
+
+    /**
+     * Begins a transaction. Values saved until
+     * {@link #endTransaction(boolean)} are committed together, so saving a
+     * batch of values costs one journal sync instead of one per value.
+     */
+    public void beginTransaction()
+    {
+	// Pick up changes of the settings once per batch
+	mDecimals = readDecimals();
+
+	mSQLiteDatabase.beginTransaction();
+    }
+
+    /**
+     * Ends a transaction begun with {@link #beginTransaction()}.
+     * 
+     * @param _successful
+     *            <code>true</code> to commit the transaction,
+     *            <code>false</code> to roll it back
+     */
+    public void endTransaction(boolean _successful)
+    {
+	if (_successful)
+	{
+	    mSQLiteDatabase.setTransactionSuccessful();
+	}
+
+	mSQLiteDatabase.endTransaction();
+    }
+
+    /**
+     * Runs a passive checkpoint of the database's WAL. Call this while no
+     * values are being saved.
+     * 
+     * @see IodDatabase#checkpoint(SQLiteDatabase)
+     */
+    public void checkpoint()
+    {
+	try
+	{
+	    IodDatabase.checkpoint(mSQLiteDatabase);
+	}
+	catch (SQLiteException _exception)
+	{
+	    Log.w(TAG, "Checkpoint failed", _exception);
+	}
     }
 
     // *************** Read database ***************
@@ -183,8 +265,9 @@ public class IodDatabaseManager
 						.getColumnIndex(MeasurementSchema.VALUE))));
 
 			// Add the timestamp
-			datapoint.put("at", result.getString(result
-				.getColumnIndex(MeasurementSchema.TIMESTAMP)));
+			datapoint.put("at", Store.formatTimestamp(result
+				.getLong(result
+					.getColumnIndex(MeasurementSchema.TIMESTAMP))));
 		    }
 		    catch (JSONException _exception)
 		    {
@@ -338,22 +421,24 @@ public class IodDatabaseManager
 	    return;
 	}
 
-	// Export the measurements tables
-	List<Integer> sensorIDs = IodDatabase.getIOIOSensorIDs(getDb());
-	if (!sensorIDs.isEmpty())
+	// Export the measuring gaps table
+	if (!mCSVManager.exportDatabaseTable(GapTable.TABLE_NAME,
+		Store.FOLDER_FILE_PATH))
 	{
-	    for (int i = 0; i < sensorIDs.size(); i++)
-	    {
-		// If file export failed, inform the user and break
-		if (!mCSVManager.exportDatabaseTable(
-			MeasurementTable.TABLE_NAME_PRE_TAG + sensorIDs.get(i),
-			Store.FOLDER_FILE_PATH))
-		{
-		    exportFailedToast.show();
+	    // If file export failed, inform the user and break
+	    exportFailedToast.show();
 
-		    return;
-		}
-	    }
+	    return;
+	}
+
+	// Export the measurements table
+	if (!mCSVManager.exportDatabaseTable(MeasurementTable.TABLE_NAME,
+		Store.FOLDER_FILE_PATH))
+	{
+	    // If file export failed, inform the user and break
+	    exportFailedToast.show();
+
+	    return;
 	}
 
 	// Export was successful, inform the user
@@ -386,17 +471,88 @@ public class IodDatabaseManager
     }
 
     /**
-     * Exports the measurements table for the sensor with the given sensor ID to
-     * the external storage.
+     * Exports the measurements of the sensor with the given sensor ID to the
+     * external storage.
      * 
      * @return <code>true</code> if the file export was successful,
      *         <code>false</code> otherwise.
      */
     public boolean exportMeasurements(int _sensorID)
     {
-	return mCSVManager.exportDatabaseTable(
-		MeasurementTable.TABLE_NAME_PRE_TAG + _sensorID,
-		Store.FOLDER_FILE_PATH);
+	// Same file name as the former per sensor table's export
+	return mCSVManager.exportQuery("sensor_" + _sensorID,
+		"SELECT " + MeasurementSchema.ID + ", "
+			+ MeasurementSchema.TIMESTAMP + ", "
+			+ MeasurementSchema.VALUE + " FROM "
+			+ MeasurementTable.TABLE_NAME + " WHERE "
+			+ MeasurementSchema.SENSOR_ID + "=? ORDER BY "
+			+ MeasurementSchema.TIMESTAMP,
+		new String[] { "" + _sensorID }, Store.FOLDER_FILE_PATH);
+    }
+
+    /**
+     * Creates a {@link IodIOIOSensor} from the current row of a {@link Cursor}
+     * on the sensor table.
+     * 
+     * @param _cursor
+     *            The <code>Cursor</code>, moved to the sensor's row
+     * @return the <code>IodIOIOSensor</code>.
+     */
+    private IodIOIOSensor getSensorFromCursor(Cursor _cursor)
+    {
+	IodIOIOSensor sensor = new IodIOIOSensor();
+
+	// Set the sensor's attributes
+	sensor.setSensorID(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.SENSOR_ID)));
+	sensor.setName(_cursor.getString(_cursor
+		.getColumnIndex(SensorSchema.NAME)));
+	sensor.setPinNumber(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.PIN_NUMBER)));
+	sensor.setFrequency(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.FREQUENCY)));
+	sensor.setTimeUnit(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.TIME_UNIT)));
+	sensor.setInputType(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.INPUT_TYPE)));
+	sensor.setMeasurementType(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.MEASUREMENT_TYPE)));
+	sensor.setThreshold(_cursor.getDouble(_cursor
+		.getColumnIndex(SensorSchema.THRESHOLD)));
+	sensor.setThresholdType(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.THRESHOLD_TYPE)));
+	sensor.setState(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.STATE)));
+	sensor.setUseXively(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.USE_XIVELY)));
+	sensor.setDatastream(_cursor.getString(_cursor
+		.getColumnIndex(SensorSchema.DATASTREAM)));
+	sensor.setOversamplingCount(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.OVERSAMPLING_COUNT)));
+	sensor.setOversamplingReducer(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.OVERSAMPLING_REDUCER)));
+	sensor.setDeadbandType(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.DEADBAND_TYPE)));
+	sensor.setDeadband(_cursor.getDouble(_cursor
+		.getColumnIndex(SensorSchema.DEADBAND)));
+	sensor.setHeartbeat(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.HEARTBEAT)));
+	sensor.setCompressionDeviation(_cursor.getDouble(_cursor
+		.getColumnIndex(SensorSchema.COMPRESSION_DEVIATION)));
+	sensor.setOverrunPolicy(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.OVERRUN_POLICY)));
+	sensor.setBoard(_cursor.getString(_cursor
+		.getColumnIndex(SensorSchema.BOARD)));
+	sensor.setExpression(_cursor.getString(_cursor
+		.getColumnIndex(SensorSchema.EXPRESSION)));
+	sensor.setCalibrationType(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.CALIBRATION_TYPE)));
+	sensor.setCalibration(_cursor.getString(_cursor
+		.getColumnIndex(SensorSchema.CALIBRATION)));
+	sensor.setSnapshotGroup(_cursor.getInt(_cursor
+		.getColumnIndex(SensorSchema.SNAPSHOT_GROUP)));
+
+	return sensor;
     }
 
     /**
@@ -428,48 +584,8 @@ public class IodDatabaseManager
 		// Get the sensor and add it to the list
 		while (result.moveToNext())
 		{
-		    // Get sensor attributes from the database
-		    int sensorID = result.getInt(result
-			    .getColumnIndex(SensorSchema.SENSOR_ID));
-		    String name = result.getString(result
-			    .getColumnIndex(SensorSchema.NAME));
-		    int pinNumber = result.getInt(result
-			    .getColumnIndex(SensorSchema.PIN_NUMBER));
-		    int frequency = result.getInt(result
-			    .getColumnIndex(SensorSchema.FREQUENCY));
-		    int timeUnit = result.getInt(result
-			    .getColumnIndex(SensorSchema.TIME_UNIT));
-		    int inputType = result.getInt(result
-			    .getColumnIndex(SensorSchema.INPUT_TYPE));
-		    int measurementType = result.getInt(result
-			    .getColumnIndex(SensorSchema.MEASUREMENT_TYPE));
-		    double threshold = result.getDouble(result
-			    .getColumnIndex(SensorSchema.THRESHOLD));
-		    int thresholdType = result.getInt(result
-			    .getColumnIndex(SensorSchema.THRESHOLD_TYPE));
-		    int state = result.getInt(result
-			    .getColumnIndex(SensorSchema.STATE));
-		    int useXively = result.getInt(result
-			    .getColumnIndex(SensorSchema.USE_XIVELY));
-		    String datastream = result.getString(result
-			    .getColumnIndex(SensorSchema.DATASTREAM));
-
-		    // Create sensor
-		    IodIOIOSensor sensor = new IodIOIOSensor();
-
-		    // Set the sensor's attributes
-		    sensor.setSensorID(sensorID);
-		    sensor.setName(name);
-		    sensor.setPinNumber(pinNumber);
-		    sensor.setFrequency(frequency);
-		    sensor.setTimeUnit(timeUnit);
-		    sensor.setInputType(inputType);
-		    sensor.setMeasurementType(measurementType);
-		    sensor.setThreshold(threshold);
-		    sensor.setThresholdType(thresholdType);
-		    sensor.setState(state);
-		    sensor.setUseXively(useXively);
-		    sensor.setDatastream(datastream);
+		    // Get the sensor from the current row
+		    IodIOIOSensor sensor = getSensorFromCursor(result);
 
 		    // Add the sensor to the list
 		    activeSensors.add(sensor);
@@ -573,48 +689,8 @@ public class IodDatabaseManager
 	    {
 		result.moveToFirst();
 
-		// Get sensor attributes from the database
-		int sensorID = result.getInt(result
-			.getColumnIndex(SensorSchema.SENSOR_ID));
-		String name = result.getString(result
-			.getColumnIndex(SensorSchema.NAME));
-		int pinNumber = result.getInt(result
-			.getColumnIndex(SensorSchema.PIN_NUMBER));
-		int frequency = result.getInt(result
-			.getColumnIndex(SensorSchema.FREQUENCY));
-		int timeUnit = result.getInt(result
-			.getColumnIndex(SensorSchema.TIME_UNIT));
-		int inputType = result.getInt(result
-			.getColumnIndex(SensorSchema.INPUT_TYPE));
-		int measurementType = result.getInt(result
-			.getColumnIndex(SensorSchema.MEASUREMENT_TYPE));
-		double threshold = result.getDouble(result
-			.getColumnIndex(SensorSchema.THRESHOLD));
-		int thresholdType = result.getInt(result
-			.getColumnIndex(SensorSchema.THRESHOLD_TYPE));
-		int state = result.getInt(result
-			.getColumnIndex(SensorSchema.STATE));
-		int useXively = result.getInt(result
-			.getColumnIndex(SensorSchema.USE_XIVELY));
-		String datastream = result.getString(result
-			.getColumnIndex(SensorSchema.DATASTREAM));
-
-		// Create sensor
-		sensor = new IodIOIOSensor();
-
-		// Set the sensor's attributes
-		sensor.setSensorID(sensorID);
-		sensor.setName(name);
-		sensor.setPinNumber(pinNumber);
-		sensor.setFrequency(frequency);
-		sensor.setTimeUnit(timeUnit);
-		sensor.setInputType(inputType);
-		sensor.setMeasurementType(measurementType);
-		sensor.setThreshold(threshold);
-		sensor.setThresholdType(thresholdType);
-		sensor.setState(state);
-		sensor.setUseXively(useXively);
-		sensor.setDatastream(datastream);
+		// Get the sensor from the current row
+		sensor = getSensorFromCursor(result);
 	    }
 
 	    // Close the cursor
@@ -663,50 +739,8 @@ public class IodDatabaseManager
 	    {
 		result.moveToFirst();
 
-		// Get sensor attributes from the database
-		String name = result.getString(result
-			.getColumnIndex(SensorSchema.NAME));
-		int pinNumber = result.getInt(result
-			.getColumnIndex(SensorSchema.PIN_NUMBER));
-		int frequency = result.getInt(result
-			.getColumnIndex(SensorSchema.FREQUENCY));
-		int timeUnit = result.getInt(result
-			.getColumnIndex(SensorSchema.TIME_UNIT));
-		int inputType = result.getInt(result
-			.getColumnIndex(SensorSchema.INPUT_TYPE));
-		int measurementType = result.getInt(result
-			.getColumnIndex(SensorSchema.MEASUREMENT_TYPE));
-		double threshold = result.getDouble(result
-			.getColumnIndex(SensorSchema.THRESHOLD));
-		int thresholdType = result.getInt(result
-			.getColumnIndex(SensorSchema.THRESHOLD_TYPE));
-		int state = result.getInt(result
-			.getColumnIndex(SensorSchema.STATE));
-		int useXively = result.getInt(result
-			.getColumnIndex(SensorSchema.USE_XIVELY));
-		String datastream = result.getString(result
-			.getColumnIndex(SensorSchema.DATASTREAM));
-
-		// Create the sensor
-		// sensor = new IodIOIOSensor(name, pinNumber, frequency,
-		// timeUnit, inputType, measurementType, threshold,
-		// thresholdType, state, useXively, datastream);
-
-		sensor = new IodIOIOSensor();
-
-		// Set the sensor's attributes
-		sensor.setSensorID(_sensorID);
-		sensor.setName(name);
-		sensor.setPinNumber(pinNumber);
-		sensor.setFrequency(frequency);
-		sensor.setTimeUnit(timeUnit);
-		sensor.setInputType(inputType);
-		sensor.setMeasurementType(measurementType);
-		sensor.setThreshold(threshold);
-		sensor.setThresholdType(thresholdType);
-		sensor.setState(state);
-		sensor.setUseXively(useXively);
-		sensor.setDatastream(datastream);
+		// Get the sensor from the current row
+		sensor = getSensorFromCursor(result);
 	    }
 
 	    // Close the cursor
@@ -727,7 +761,9 @@ public class IodDatabaseManager
 
     /**
      * Gets a database table with the measured values of the
-     * {@link IodIOIOSensor} with the given sensor ID.
+     * {@link IodIOIOSensor} with the given sensor ID. The column
+     * {@link MeasurementSchema#UPLOADED} tells whether a value was uploaded
+     * to Xively.
      * 
      * @param _sensorID
      *            The sensor ID
@@ -738,13 +774,22 @@ public class IodDatabaseManager
 	// The query's result cursor
 	Cursor result = null;
 
-	// The SQL query: Select * from the measured values table
-	String sqlQuery = "SELECT * FROM "
-		+ MeasurementTable.TABLE_NAME_PRE_TAG + _sensorID
-		+ " ORDER BY " + MeasurementTable.ID + " DESC";
+	long watermark = getUploadWatermark(_sensorID,
+		WatermarkTable.SINK_XIVELY);
+
+	// The SQL query: Select the sensor's values, newest first; answered
+	// from the index alone
+	String sqlQuery = "SELECT " + MeasurementSchema.ID + ", "
+		+ MeasurementSchema.TIMESTAMP + ", " + MeasurementSchema.VALUE
+		+ ", " + MeasurementSchema.ID + " <= ? AS "
+		+ MeasurementSchema.UPLOADED + " FROM "
+		+ MeasurementTable.TABLE_NAME + " WHERE "
+		+ MeasurementSchema.SENSOR_ID + "=? ORDER BY "
+		+ MeasurementSchema.TIMESTAMP + " DESC";
 
 	// Make the SQL query
-	result = mSQLiteDatabase.rawQuery(sqlQuery, null);
+	result = mSQLiteDatabase.rawQuery(sqlQuery, new String[] {
+		"" + watermark, "" + _sensorID });
 
 	return result;
     }
@@ -752,31 +797,47 @@ public class IodDatabaseManager
     /**
      * Gets a database table for all measured values for the
      * {@link IodIOIOSensor} with the given sensor ID that have not been
-     * uploaded yet.
+     * uploaded to a sink yet, i.e. the values after the sensor's watermark.
      * 
      * @param _sensorID
      *            The sensor ID
+     * @param _sink
+     *            The sink, f.e. {@link WatermarkTable#SINK_XIVELY}
      * @return the {@link Cursor} with the database table.
      */
-    public Cursor getMeasurementsForUpload(int _sensorID)
+    public Cursor getMeasurementsForUpload(int _sensorID, String _sink)
     {
-	// Table name of the measurements table for the given sensor
-	String tableName = MeasurementTable.TABLE_NAME_PRE_TAG + _sensorID;
-
-	// The SQL query: Select all measurement rows that have not been
-	// uploaded yet
-	String sqlQuery = "SELECT * FROM " + tableName + " WHERE "
-		+ MeasurementSchema.UPLOADED + "= 0";
-
 	// The query's result cursor
 	Cursor result = null;
 
-	// Make the SQL query
-	result = mSQLiteDatabase.rawQuery(sqlQuery, null);
+	long watermark = getUploadWatermark(_sensorID, _sink);
+
+	// Make the SQL query: Select the sensor's rows after the watermark; a
+	// range search, so the cost does not depend on the uploaded history
+	result = mSQLiteDatabase.rawQuery(MeasurementTable.SQL_SELECT_PENDING,
+		new String[] { "" + _sensorID, "" + watermark });
 
 	return result;
     }
 
+    /**
+     * Gets the upload watermark of a sensor for a sink.
+     * 
+     * @param _sensorID
+     *            The sensor ID
+     * @param _sink
+     *            The sink, f.e. {@link WatermarkTable#SINK_XIVELY}
+     * @return the highest uploaded row ID; 0 if nothing was uploaded yet.
+     */
+    public long getUploadWatermark(int _sensorID, String _sink)
+    {
+	SQLiteStatement statement = getStatement(WatermarkTable.SQL_SELECT);
+	statement.bindLong(1, _sensorID);
+	statement.bindString(2, _sink);
+
+	return statement.simpleQueryForLong();
+    }
+
     /**
      * Gets a {@link List} of the IDs of the given not yet uploaded coordinates
      * from the database.
@@ -803,29 +864,24 @@ public class IodDatabaseManager
     }
 
     /**
-     * Gets a {@link List} of the IDs for the given {@link Cursor} of all not
-     * yet uploaded values from the database.
+     * Gets the high-water mark of the values to upload, i.e. the highest row
+     * ID in a {@link Cursor} from
+     * {@link #getMeasurementsForUpload(int, String)}. The rows are ordered by
+     * their ID, so only the last row is read.
      * 
      * @param _measurements
      *            The measurements <code>Cursor</code>
-     * @return the <code>List</code> of IDs.
+     * @return the highest row ID; -1 if the <code>Cursor</code> is empty.
      */
-    public List<Integer>
-	    getIDsOfNotYetUploadedMeasurements(Cursor _measurements)
+    public long getUploadHighWaterMark(Cursor _measurements)
     {
-	// Create new empty list for the IDs
-	List<Integer> ids = new ArrayList<Integer>();
-
-	// Add the IDs to the list
-	while (_measurements.moveToNext())
+	if (!_measurements.moveToLast())
 	{
-	    int id = _measurements.getInt(_measurements
-		    .getColumnIndex(MeasurementTable.ID));
-
-	    ids.add(id);
+	    return -1;
 	}
 
-	return ids;
+	return _measurements.getLong(_measurements
+		.getColumnIndex(MeasurementTable.ID));
     }
 
     /**
@@ -961,23 +1017,27 @@ public class IodDatabaseManager
 
     /**
      * Checks whether the given pin number is used by another
-     * {@link IodIOIOSensor}.
+     * {@link IodIOIOSensor} on the same board.
      * 
      * @param _pinNumber
      *            The pin number
+     * @param _board
+     *            The board the sensor is bound to
      * @return <code>true</code> if the given pin number is already used by
-     *         another <code>IodIOIOSensor</code> that is saved in the database
-     *         than the one with the given sensor ID, <code>false</code>
-     *         otherwise.
+     *         another <code>IodIOIOSensor</code> on the same board that is
+     *         saved in the database than the one with the given sensor ID,
+     *         <code>false</code> otherwise.
      */
-    public boolean isPinNumberInUse(int _pinNumber, int _sensorID)
+    public boolean isPinNumberInUse(int _pinNumber,
+				    String _board,
+				    int _sensorID)
     {
 	boolean inUse = false;
 
-	// The SQL query: SELECT sensor ID for the given pin number
+	// The SQL query: SELECT sensor IDs for the given pin number and board
 	String sqlQuery = "SELECT " + SensorSchema.SENSOR_ID + " FROM "
 		+ SensorTable.TABLE_NAME + " WHERE " + SensorSchema.PIN_NUMBER
-		+ "=" + _pinNumber;
+		+ "=" + _pinNumber + " AND " + SensorSchema.BOARD + "=?";
 
 	// The query's result cursor
 	Cursor result = null;
@@ -985,13 +1045,12 @@ public class IodDatabaseManager
 	try
 	{
 	    // Make the SQL query
-	    result = mSQLiteDatabase.rawQuery(sqlQuery, null);
+	    result = mSQLiteDatabase.rawQuery(sqlQuery,
+		    new String[] { _board });
 
-	    // If the Cursor is not empty...
-	    if (result.getCount() > 0)
+	    // Check each sensor using the pin number on this board
+	    while (!inUse && result.moveToNext())
 	    {
-		result.moveToFirst();
-
 		int selectedSensorID = result.getInt(result
 			.getColumnIndex(SensorSchema.SENSOR_ID));
 
@@ -1025,6 +1084,91 @@ public class IodDatabaseManager
 	return inUse;
     }
 
+    /**
+     * Checks whether another {@link IodIOIOSensor} of the given snapshot
+     * group is bound to a different board or measured at a different
+     * frequency.
+     * 
+     * @param _group
+     *            The snapshot group
+     * @param _board
+     *            The board the sensor is bound to
+     * @param _frequency
+     *            The sensor's frequency
+     * @param _timeUnit
+     *            The sensor's time unit
+     * @param _sensorID
+     *            The sensor's ID
+     * @return <code>true</code> if another <code>IodIOIOSensor</code> of the
+     *         group saved in the database does not match, <code>false</code>
+     *         otherwise.
+     */
+    public boolean isSnapshotGroupMismatch(int _group,
+					   String _board,
+					   int _frequency,
+					   int _timeUnit,
+					   int _sensorID)
+    {
+	boolean mismatch = false;
+
+	// The SQL query: SELECT the other sensors of the group
+	String sqlQuery = "SELECT " + SensorSchema.SENSOR_ID + ", "
+		+ SensorSchema.BOARD + ", " + SensorSchema.FREQUENCY + ", "
+		+ SensorSchema.TIME_UNIT + " FROM " + SensorTable.TABLE_NAME
+		+ " WHERE " + SensorSchema.SNAPSHOT_GROUP + "=" + _group
+		+ " AND " + SensorSchema.SENSOR_ID + "!=" + _sensorID;
+
+	// The query's result cursor
+	Cursor result = null;
+
+	try
+	{
+	    // Make the SQL query
+	    result = mSQLiteDatabase.rawQuery(sqlQuery, null);
+
+	    // Compare each other sensor of the group
+	    while (!mismatch && result.moveToNext())
+	    {
+		String board = result.getString(result
+			.getColumnIndex(SensorSchema.BOARD));
+		long period = (long) result.getInt(result
+			.getColumnIndex(SensorSchema.FREQUENCY))
+			* result.getInt(result
+				.getColumnIndex(SensorSchema.TIME_UNIT));
+
+		if (!board.equals(_board)
+			|| period != (long) _frequency * _timeUnit)
+		{
+		    // Inform the user which sensor does not match
+		    Toast.makeText(
+			    mContext,
+			    mContext.getResources().getString(
+				    R.string.toast_snapshot_group_mismatch)
+				    + " "
+				    + result.getInt(result
+					    .getColumnIndex(SensorSchema.SENSOR_ID))
+				    + "!", Toast.LENGTH_LONG).show();
+
+		    mismatch = true;
+		}
+	    }
+
+	    // Close the cursor
+	    result.close();
+	}
+	finally
+	{
+	    // If the cursor is not closed yet...
+	    if (result != null && !result.isClosed())
+	    {
+		// Close the cursor
+		result.close();
+	    }
+	}
+
+	return mismatch;
+    }
+
     // *************** Write database ***************
 
     /**
@@ -1048,24 +1192,25 @@ public class IodDatabaseManager
 	cv.put(SensorSchema.STATE, _sensor.getState());
 	cv.put(SensorSchema.USE_XIVELY, _sensor.getUseXively());
 	cv.put(SensorSchema.DATASTREAM, _sensor.getDatastream());
+	cv.put(SensorSchema.OVERSAMPLING_COUNT,
+		_sensor.getOversamplingCount());
+	cv.put(SensorSchema.OVERSAMPLING_REDUCER,
+		_sensor.getOversamplingReducer());
+	cv.put(SensorSchema.DEADBAND_TYPE, _sensor.getDeadbandType());
+	cv.put(SensorSchema.DEADBAND, _sensor.getDeadband());
+	cv.put(SensorSchema.HEARTBEAT, _sensor.getHeartbeat());
+	cv.put(SensorSchema.COMPRESSION_DEVIATION,
+		_sensor.getCompressionDeviation());
+	cv.put(SensorSchema.OVERRUN_POLICY, _sensor.getOverrunPolicy());
+	cv.put(SensorSchema.BOARD, _sensor.getBoard());
+	cv.put(SensorSchema.EXPRESSION, _sensor.getExpression());
+	cv.put(SensorSchema.CALIBRATION_TYPE, _sensor.getCalibrationType());
+	cv.put(SensorSchema.CALIBRATION, _sensor.getCalibration());
+	cv.put(SensorSchema.SNAPSHOT_GROUP, _sensor.getSnapshotGroup());
 
 	mSQLiteDatabase.insert(SensorTable.TABLE_NAME, null, cv);
 
-	createIOIOMeasurementTable(_sensor.getSensorID());
-    }
-
-    /**
-     * Creates a new database table for the measurements of the
-     * {@link IodIOIOSensor} with the given sensor ID. The table name is the
-     * sensor ID.
-     * 
-     * @param _sensorID
-     *            The sensor ID
-     */
-    public void createIOIOMeasurementTable(int _sensorID)
-    {
-	// Create the database table
-	mSQLiteDatabase.execSQL(MeasurementTable.getSQLCreate(_sensorID));
+	notifySensorChanged(_sensor.getSensorID());
     }
 
     /**
@@ -1081,6 +1226,8 @@ public class IodDatabaseManager
 
 	mSQLiteDatabase.delete(SensorTable.TABLE_NAME, SensorSchema.SENSOR_ID
 		+ "=?", new String[] { "" + _sensorID });
+
+	notifySensorChanged(_sensorID);
     }
 
     /**
@@ -1115,8 +1262,8 @@ public class IodDatabaseManager
     }
 
     /**
-     * Deletes a measurement with the given row ID from the according database
-     * table for the given sensor ID.
+     * Deletes a measurement with the given row ID of the sensor with the given
+     * sensor ID.
      * 
      * @param _rowID
      *            The row ID
@@ -1125,8 +1272,22 @@ public class IodDatabaseManager
      */
     public void deleteMeasurement(int _rowID, int _sensorID)
     {
-	mSQLiteDatabase.delete(MeasurementTable.TABLE_NAME_PRE_TAG + _sensorID,
-		MeasurementSchema.ID + "=?", new String[] { "" + _rowID });
+	mSQLiteDatabase.delete(MeasurementTable.TABLE_NAME, MeasurementSchema.ID
+		+ "=? AND " + MeasurementSchema.SENSOR_ID + "=?", new String[] {
+		"" + _rowID, "" + _sensorID });
+    }
+
+    /**
+     * Deletes all measurements of the sensor with the given sensor ID.
+     * 
+     * @param _sensorID
+     *            The sensor ID
+     */
+    public void deleteMeasurements(int _sensorID)
+    {
+	mSQLiteDatabase.delete(MeasurementTable.TABLE_NAME,
+		MeasurementSchema.SENSOR_ID + "=?", new String[] { ""
+			+ _sensorID });
     }
 
     /**
@@ -1145,41 +1306,43 @@ public class IodDatabaseManager
     }
 
     /**
-     * Marks all values for the {@link IodIOIOSensor} with the given sensor ID
-     * as uploaded.
+     * Marks the values of the {@link IodIOIOSensor} with the given sensor ID
+     * up to a high-water mark as uploaded to a sink by moving the sensor's
+     * watermark. Values saved after the upload's query have higher row IDs,
+     * so they stay pending. Writes one row, however many values were
+     * uploaded.
      * 
-     * @param _values
-     *            The values
      * @param _sensorID
      *            The sensor ID
+     * @param _sink
+     *            The sink, f.e. {@link WatermarkTable#SINK_XIVELY}
+     * @param _highWaterMark
+     *            The highest uploaded row ID, see
+     *            {@link #getUploadHighWaterMark(Cursor)}
      */
-    public void markMeasurementsAsUploaded(List<Integer> _ids, int _sensorID)
+    public void markMeasurementsAsUploaded(int _sensorID,
+					   String _sink,
+					   long _highWaterMark)
     {
-	// Create the table name
-	String tableName = MeasurementTable.TABLE_NAME_PRE_TAG + _sensorID;
-
-	for (int i = 0; i < _ids.size(); i++)
-	{
-	    int id = _ids.get(i);
-
-	    ContentValues cv = new ContentValues();
-	    cv.put(MeasurementSchema.UPLOADED, 1);
-	    mSQLiteDatabase.update(tableName, cv, MeasurementSchema.ID + "=?",
-		    new String[] { "" + id });
-	}
+	SQLiteStatement statement = getStatement(WatermarkTable.SQL_REPLACE);
+	statement.bindLong(1, _sensorID);
+	statement.bindString(2, _sink);
+	statement.bindLong(3, _highWaterMark);
+	statement.executeInsert();
     }
 
     /**
      * Saves a location and the according timestamp in the database.
      * 
      * @param _timestamp
-     *            The timestamp
+     *            The time of the location (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
      * @param _latitude
      *            The location's latitude
      * @param _longitude
      *            The location's longitude
      */
-    public void saveLocation(String _timestamp,
+    public void saveLocation(long _timestamp,
 			     double _altitude,
 			     double _latitude,
 			     double _longitude)
@@ -1195,35 +1358,226 @@ public class IodDatabaseManager
     }
 
     /**
-     * Saves a measured sensor value and the according timestamp in the database
-     * table with the given name.
+     * Saves a gap, i.e. a time window in which a sensor could not be measured.
      * 
-     * @param _tableName
-     *            The table name
+     * @param _sensorID
+     *            The sensor ID
+     * @param _start
+     *            The start of the gap (in milliseconds since January 1, 1970
+     *            00:00:00 UTC)
+     * @param _end
+     *            The end of the gap (in milliseconds since January 1, 1970
+     *            00:00:00 UTC)
+     */
+    public void saveGap(int _sensorID, long _start, long _end)
+    {
+	ContentValues cv = new ContentValues();
+	cv.put(GapSchema.SENSOR_ID, _sensorID);
+	cv.put(GapSchema.START, _start);
+	cv.put(GapSchema.END, _end);
+
+	mSQLiteDatabase.insert(GapTable.TABLE_NAME, null, cv);
+    }
+
+    /**
+     * Saves a measured sensor value and the according timestamp in the
+     * {@link MeasurementTable}.
+     * 
+     * @param _sensorID
+     *            The sensor ID
      * @param _value
      *            The measured sensor value
      * @param _timestamp
-     *            The according timestamp
+     *            The time of the measurement (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
      */
-    public void saveMeasuredSensorValue(String _tableName,
+    public void saveMeasuredSensorValue(int _sensorID,
 					float _value,
-					String _timestamp)
+					long _timestamp)
     {
-	// Number of decimals for the measured values as set in the settings
-	int decimals = Integer.valueOf(mPrefs.getString(mContext.getResources()
-		.getString(R.string.pref_general_decimals_key), "4"));
+	try
+	{
+	    SQLiteStatement statement = getStatement(MeasurementTable.SQL_INSERT);
+	    statement.bindLong(1, _sensorID);
+	    statement.bindLong(2, _timestamp);
+	    statement.bindDouble(3, round(_value));
+	    statement.executeInsert();
+	}
+	catch (SQLiteException _exception)
+	{
+	    // Compile the statement again next time
+	    discardStatement(MeasurementTable.SQL_INSERT);
 
-	// Round the measured value to the specified number of decimals
-	BigDecimal bd = new BigDecimal(_value).setScale(decimals,
-		RoundingMode.HALF_UP);
-	double roundedValue = bd.doubleValue();
+	    Log.e(TAG, "Saving a value of sensor " + _sensorID + " failed",
+		    _exception);
+	}
+    }
 
-	ContentValues cv = new ContentValues();
-	cv.put(MeasurementSchema.TIMESTAMP, _timestamp);
-	cv.put(MeasurementSchema.VALUE, roundedValue);
-	cv.put(MeasurementSchema.UPLOADED, 0);
+    /**
+     * Rounds a measured value to the number of decimals set in the settings.
+     * 
+     * @param _value
+     *            The measured value
+     * @return the rounded value.
+     */
+    private double round(float _value)
+    {
+	return new BigDecimal(_value).setScale(mDecimals, RoundingMode.HALF_UP)
+		.doubleValue();
+    }
+
+    /**
+     * Creates the table of a snapshot group if it does not exist yet and adds
+     * the columns of sensors that joined the group since.
+     * 
+     * @param _group
+     *            The snapshot group
+     * @param _sensorIDs
+     *            The IDs of the group's sensors
+     */
+    public void createSnapshotTable(int _group, int[] _sensorIDs)
+    {
+	String tableName = SnapshotTable.getTableName(_group);
+
+	mSQLiteDatabase.execSQL(SnapshotTable.getSQLCreate(_group));
+
+	// The table's existing columns
+	Set<String> columns = new HashSet<String>();
+	Cursor result = mSQLiteDatabase.rawQuery("PRAGMA table_info("
+		+ tableName + ")", null);
+
+	try
+	{
+	    while (result.moveToNext())
+	    {
+		columns.add(result.getString(result.getColumnIndex("name")));
+	    }
+	}
+	finally
+	{
+	    result.close();
+	}
 
-	mSQLiteDatabase.insert(_tableName, null, cv);
+	for (int sensorID : _sensorIDs)
+	{
+	    if (!columns.contains(SnapshotTable.getColumnName(sensorID)))
+	    {
+		mSQLiteDatabase.execSQL(SnapshotTable.getSQLAddColumn(_group,
+			sensorID));
+	    }
+	}
+
+	// The group's sensors changed; compile the insert statement again
+	discardStatement(tableName);
+    }
+
+    /**
+     * Saves the values the sensors of a snapshot group measured on one tick
+     * as one row of the group's table.
+     * 
+     * @param _group
+     *            The snapshot group
+     * @param _timestamp
+     *            The time of the tick (in milliseconds since January 1, 1970
+     *            00:00:00 UTC)
+     * @param _sensorIDs
+     *            The IDs of the group's sensors, as passed to
+     *            {@link #createSnapshotTable(int, int[])}
+     * @param _values
+     *            The measured values by sensor; <code>NaN</code> if a sensor
+     *            has no value
+     */
+    public void saveSnapshot(int _group,
+			     long _timestamp,
+			     int[] _sensorIDs,
+			     float[] _values)
+    {
+	String tableName = SnapshotTable.getTableName(_group);
+
+	try
+	{
+	    SQLiteStatement statement = mStatements.get(tableName);
+
+	    if (statement == null)
+	    {
+		StringBuilder columns = new StringBuilder();
+		StringBuilder parameters = new StringBuilder();
+
+		for (int sensorID : _sensorIDs)
+		{
+		    columns.append(", ").append(
+			    SnapshotTable.getColumnName(sensorID));
+		    parameters.append(", ?");
+		}
+
+		statement = mSQLiteDatabase.compileStatement("INSERT INTO "
+			+ tableName + " (" + SnapshotSchema.TIMESTAMP + columns
+			+ ") VALUES (?" + parameters + ")");
+		mStatements.put(tableName, statement);
+	    }
+
+	    statement.bindLong(1, _timestamp);
+
+	    for (int i = 0; i < _values.length; i++)
+	    {
+		if (Float.isNaN(_values[i]))
+		{
+		    statement.bindNull(i + 2);
+		}
+		else
+		{
+		    statement.bindDouble(i + 2, round(_values[i]));
+		}
+	    }
+
+	    statement.executeInsert();
+	}
+	catch (SQLiteException _exception)
+	{
+	    discardStatement(tableName);
+
+	    Log.e(TAG, "Saving a snapshot in " + tableName + " failed",
+		    _exception);
+	}
+    }
+
+    /**
+     * Gets the compiled statement for an SQL statement; compiles it on first
+     * use. Binding the values to a reused statement avoids parsing the SQL and
+     * creating a {@link ContentValues} per value.
+     * 
+     * @param _sql
+     *            The SQL statement
+     * @return the {@link SQLiteStatement}.
+     */
+    private SQLiteStatement getStatement(String _sql)
+    {
+	SQLiteStatement statement = mStatements.get(_sql);
+
+	if (statement == null)
+	{
+	    statement = mSQLiteDatabase.compileStatement(_sql);
+	    mStatements.put(_sql, statement);
+	}
+
+	return statement;
+    }
+
+    /**
+     * Closes a cached statement, so it is compiled again on its next use.
+     * 
+     * @param _key
+     *            The statement's SQL or, for a snapshot insert, its table's
+     *            name
+     */
+    private void discardStatement(String _key)
+    {
+	SQLiteStatement statement = mStatements.remove(_key);
+
+	if (statement != null)
+	{
+	    statement.close();
+	}
     }
 
     /**
@@ -1246,10 +1600,27 @@ public class IodDatabaseManager
 	cv.put(SensorSchema.STATE, _sensor.getState());
 	cv.put(SensorSchema.USE_XIVELY, _sensor.getUseXively());
 	cv.put(SensorSchema.DATASTREAM, _sensor.getDatastream());
+	cv.put(SensorSchema.OVERSAMPLING_COUNT,
+		_sensor.getOversamplingCount());
+	cv.put(SensorSchema.OVERSAMPLING_REDUCER,
+		_sensor.getOversamplingReducer());
+	cv.put(SensorSchema.DEADBAND_TYPE, _sensor.getDeadbandType());
+	cv.put(SensorSchema.DEADBAND, _sensor.getDeadband());
+	cv.put(SensorSchema.HEARTBEAT, _sensor.getHeartbeat());
+	cv.put(SensorSchema.COMPRESSION_DEVIATION,
+		_sensor.getCompressionDeviation());
+	cv.put(SensorSchema.OVERRUN_POLICY, _sensor.getOverrunPolicy());
+	cv.put(SensorSchema.BOARD, _sensor.getBoard());
+	cv.put(SensorSchema.EXPRESSION, _sensor.getExpression());
+	cv.put(SensorSchema.CALIBRATION_TYPE, _sensor.getCalibrationType());
+	cv.put(SensorSchema.CALIBRATION, _sensor.getCalibration());
+	cv.put(SensorSchema.SNAPSHOT_GROUP, _sensor.getSnapshotGroup());
 
 	mSQLiteDatabase.update(SensorTable.TABLE_NAME, cv,
 		SensorSchema.SENSOR_ID + "=?",
 		new String[] { "" + _sensor.getSensorID() });
+
+	notifySensorChanged(_sensor.getSensorID());
     }
 
     /**
@@ -1268,5 +1639,22 @@ public class IodDatabaseManager
 
 	mSQLiteDatabase.update(SensorTable.TABLE_NAME, cv,
 		SensorSchema.SENSOR_ID + "=?", new String[] { "" + _sensorID });
+
+	notifySensorChanged(_sensorID);
+    }
+
+    /**
+     * Tells a running measuring process that the configuration of the
+     * {@link IodIOIOSensor} with the given sensor ID changed, so it can apply
+     * the change without restarting.
+     * 
+     * @param _sensorID
+     *            The sensor ID
+     */
+    private void notifySensorChanged(int _sensorID)
+    {
+	LocalBroadcastManager.getInstance(mContext).sendBroadcast(
+		new Intent(Store.ACTION_SENSOR_CHANGED).putExtra(
+			Store.SENSOR_ID, _sensorID));
     }
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.kaolick.ioio_droid.database;
+
+import java.util.Locale;
+
+/**
+ * Measures how many measured values per second the database can save with
+ * different numbers of values per transaction. The values are saved the same
+ * way the measuring process saves them, including the index maintenance, for
+ * a sensor ID no real sensor has; they are deleted afterwards.
+ *
+ * @author kaolick
+ */
+public class IodInsertBenchmark
+{
+    // Sensor ID of the saved values; real sensor IDs are positive
+    public static final int SENSOR_ID = -1;
+
+    // Values per transaction
+    public static final int[] BATCH_SIZES = { 1, 100, 1000 };
+
+    // Values saved per run
+    public static final int ROWS = 1000;
+
+    // General attributes
+    private IodDatabaseManager mDatabaseManager;
+
+    /**
+     * Class constructor.
+     *
+     * @param _databaseManager
+     *            A {@link IodDatabaseManager} to access the application's
+     *            database
+     */
+    public IodInsertBenchmark(IodDatabaseManager _databaseManager)
+    {
+	this.mDatabaseManager = _databaseManager;
+    }
+
+    /**
+     * Runs the benchmark for each of the {@link #BATCH_SIZES}. Takes several
+     * seconds; must not be called on the UI thread.
+     *
+     * @return a human readable report with one line per batch size.
+     */
+    public String run()
+    {
+	StringBuilder report = new StringBuilder();
+
+	mDatabaseManager.deleteMeasurements(SENSOR_ID);
+
+	try
+	{
+	    for (int batchSize : BATCH_SIZES)
+	    {
+		double insertsPerSecond = runBatches(batchSize);
+
+		report.append(String.format(Locale.ENGLISH,
+			"%d per transaction: %.0f inserts/s\n", batchSize,
+			insertsPerSecond));
+	    }
+	}
+	finally
+	{
+	    mDatabaseManager.deleteMeasurements(SENSOR_ID);
+	}
+
+	return report.toString();
+    }
+
+    /**
+     * Saves {@link #ROWS} values in transactions of the given size.
+     *
+     * @param _batchSize
+     *            The number of values per transaction
+     * @return the number of saved values per second.
+     */
+    private double runBatches(int _batchSize)
+    {
+	long timestamp = System.currentTimeMillis();
+	long start = System.nanoTime();
+
+	for (int saved = 0; saved < ROWS; saved += _batchSize)
+	{
+	    mDatabaseManager.beginTransaction();
+
+	    try
+	    {
+		for (int i = 0; i < _batchSize && saved + i < ROWS; i++)
+		{
+		    mDatabaseManager.saveMeasuredSensorValue(SENSOR_ID,
+			    (float) Math.random(), timestamp++);
+		}
+	    }
+	    finally
+	    {
+		mDatabaseManager.endTransaction(true);
+	    }
+	}
+
+	long elapsed = Math.max(1, System.nanoTime() - start);
+
+	return ROWS * 1e9 / elapsed;
+    }
+}
\ No newline at end of file
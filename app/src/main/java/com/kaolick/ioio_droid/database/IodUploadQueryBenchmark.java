@@ -0,0 +1,241 @@
+package com.kaolick.ioio_droid.database;
+
+import java.util.Locale;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Measures how long finding a sensor's pending values after its upload
+ * watermark takes with a growing history of uploaded values. The history
+ * grows by a factor of ten per step up to {@link #ROWS} values, while the
+ * number of pending values stays the same; the duration should stay the same
+ * as well.
+ * <p>
+ * The benchmark runs on a database file of its own with the application's
+ * tables and indexes, which is deleted afterwards. With the full history it
+ * needs several minutes and several hundred megabytes; must not be called on
+ * the UI thread.
+ *
+ * @author kaolick
+ */
+public class IodUploadQueryBenchmark
+{
+    // Name of the temporary database
+    public static final String DB_NAME = "upload_query_benchmark.db";
+
+    // History at the first and the last step
+    public static final int FIRST_ROWS = 10000;
+    public static final int ROWS = 10000000;
+
+    // Pending values of the benchmarked sensor
+    public static final int PENDING = 100;
+
+    // Queries per step; the fastest one counts
+    public static final int QUERIES = 5;
+
+    // Sensor ID of the saved values
+    private static final int SENSOR_ID = 1;
+
+    // General attributes
+    private Context mContext;
+    private SQLiteDatabase mDb;
+
+    /**
+     * Class constructor.
+     * 
+     * @param _context
+     *            The context to create the temporary database in
+     */
+    public IodUploadQueryBenchmark(Context _context)
+    {
+	this.mContext = _context;
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @return a human readable report with one line per history size.
+     */
+    public String run()
+    {
+	StringBuilder report = new StringBuilder();
+
+	mContext.deleteDatabase(DB_NAME);
+	mDb = SQLiteDatabase.openOrCreateDatabase(
+		mContext.getDatabasePath(DB_NAME), null);
+
+	try
+	{
+	    mDb.execSQL(MeasurementTable.SQL_CREATE);
+	    mDb.execSQL(MeasurementTable.SQL_CREATE_INDEX);
+	    mDb.execSQL(MeasurementTable.SQL_CREATE_ID_INDEX);
+	    mDb.execSQL(WatermarkTable.SQL_CREATE);
+
+	    for (long rows = FIRST_ROWS; rows <= ROWS; rows *= 10)
+	    {
+		growHistory(rows);
+		long watermark = savePendingValues();
+
+		double millis = query(watermark);
+
+		report.append(String.format(Locale.ENGLISH,
+			"%,d uploaded: pending query %.2f ms\n", rows, millis));
+	    }
+	}
+	finally
+	{
+	    mDb.close();
+	    mContext.deleteDatabase(DB_NAME);
+	}
+
+	return report.toString();
+    }
+
+    /**
+     * Moves the watermark behind all saved values and saves the
+     * {@link #PENDING} values the way the measuring process does.
+     * 
+     * @return the watermark.
+     */
+    private long savePendingValues()
+    {
+	SQLiteStatement measurement = mDb
+		.compileStatement(MeasurementTable.SQL_INSERT);
+	SQLiteStatement watermark = mDb
+		.compileStatement(WatermarkTable.SQL_REPLACE);
+
+	mDb.beginTransaction();
+	try
+	{
+	    long highWaterMark = countRows("SELECT IFNULL(MAX("
+		    + MeasurementSchema.ID + "), 0) FROM "
+		    + MeasurementTable.TABLE_NAME);
+
+	    watermark.bindLong(1, SENSOR_ID);
+	    watermark.bindString(2, WatermarkTable.SINK_XIVELY);
+	    watermark.bindLong(3, highWaterMark);
+	    watermark.executeInsert();
+
+	    for (int i = 0; i < PENDING; i++)
+	    {
+		measurement.bindLong(1, SENSOR_ID);
+		measurement.bindLong(2, Long.MAX_VALUE / 2 + i);
+		measurement.bindDouble(3, Math.random());
+		measurement.executeInsert();
+	    }
+
+	    mDb.setTransactionSuccessful();
+
+	    return highWaterMark;
+	}
+	finally
+	{
+	    mDb.endTransaction();
+	    measurement.close();
+	    watermark.close();
+	}
+    }
+
+    /**
+     * Adds values until the history has the given size. The history is
+     * doubled by copying itself, which is much faster than single inserts.
+     * The pending values of the previous step become part of the history.
+     * 
+     * @param _rows
+     *            The history's size
+     */
+    private void growHistory(long _rows)
+    {
+	long history = countRows("SELECT COUNT(*) FROM "
+		+ MeasurementTable.TABLE_NAME);
+
+	mDb.beginTransaction();
+	try
+	{
+	    if (history == 0)
+	    {
+		mDb.execSQL("INSERT INTO " + MeasurementTable.TABLE_NAME + " ("
+			+ MeasurementSchema.SENSOR_ID + ", "
+			+ MeasurementSchema.TIMESTAMP + ", "
+			+ MeasurementSchema.VALUE + ") VALUES (" + SENSOR_ID
+			+ ", 0, 0)");
+		history = 1;
+	    }
+
+	    while (history < _rows)
+	    {
+		long copied = Math.min(history, _rows - history);
+
+		mDb.execSQL("INSERT INTO " + MeasurementTable.TABLE_NAME + " ("
+			+ MeasurementSchema.SENSOR_ID + ", "
+			+ MeasurementSchema.TIMESTAMP + ", "
+			+ MeasurementSchema.VALUE + ") SELECT "
+			+ MeasurementSchema.SENSOR_ID + ", "
+			+ MeasurementSchema.TIMESTAMP + " + " + history + ", "
+			+ MeasurementSchema.VALUE + " FROM "
+			+ MeasurementTable.TABLE_NAME + " LIMIT " + copied);
+		history += copied;
+	    }
+
+	    mDb.setTransactionSuccessful();
+	}
+	finally
+	{
+	    mDb.endTransaction();
+	}
+    }
+
+    /**
+     * Runs a query with a single number as its result.
+     * 
+     * @param _sqlQuery
+     *            The SQL query
+     * @return the query's result.
+     */
+    private long countRows(String _sqlQuery)
+    {
+	SQLiteStatement statement = mDb.compileStatement(_sqlQuery);
+
+	try
+	{
+	    return statement.simpleQueryForLong();
+	}
+	finally
+	{
+	    statement.close();
+	}
+    }
+
+    /**
+     * Runs the query for the sensor's pending values {@link #QUERIES} times
+     * and reads all rows.
+     * 
+     * @param _watermark
+     *            The sensor's upload watermark
+     * @return the duration of the fastest run (in milliseconds).
+     */
+    private double query(long _watermark)
+    {
+	long fastest = Long.MAX_VALUE;
+
+	for (int i = 0; i < QUERIES; i++)
+	{
+	    long start = System.nanoTime();
+
+	    Cursor cursor = mDb.rawQuery(MeasurementTable.SQL_SELECT_PENDING,
+		    new String[] { "" + SENSOR_ID, "" + _watermark });
+	    while (cursor.moveToNext())
+	    {
+		cursor.getLong(0);
+	    }
+	    cursor.close();
+
+	    fastest = Math.min(fastest, System.nanoTime() - start);
+	}
+
+	return fastest / 1e6;
+    }
+}
\ No newline at end of file
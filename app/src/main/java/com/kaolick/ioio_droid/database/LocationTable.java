@@ -1,7 +1,8 @@
 package com.kaolick.ioio_droid.database;
 
 /**
- * Database table for locations. Implements {@link LocationSchema}.
+ * Database table for locations. Implements {@link LocationSchema}. The
+ * timestamps are saved as epoch milliseconds.
  * 
  * @author kaolick
  */
@@ -11,8 +12,12 @@ public class LocationTable implements LocationSchema
 
     public static final String SQL_CREATE = "CREATE TABLE " + TABLE_NAME + " ("
 	    + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + TIMESTAMP
-	    + " TEXT NOT NULL, " + ALTITUDE + " REAL, " + LATITUDE + " REAL, "
+	    + " INTEGER NOT NULL, " + ALTITUDE + " REAL, " + LATITUDE + " REAL, "
 	    + LONGITUDE + " REAL, " + UPLOADED + " INTEGER" + ");";
 
+    // The columns that are copied when the table is rebuilt
+    public static final String COLUMNS = ID + ", " + TIMESTAMP + ", "
+	    + ALTITUDE + ", " + LATITUDE + ", " + LONGITUDE + ", " + UPLOADED;
+
     public static final String SQL_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
 }
\ No newline at end of file
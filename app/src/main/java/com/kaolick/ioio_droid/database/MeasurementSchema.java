@@ -8,7 +8,9 @@ package com.kaolick.ioio_droid.database;
 public interface MeasurementSchema
 {
     String ID = "_id";
+    String SENSOR_ID = "sensor_id";
     String TIMESTAMP = "timestamp";
     String VALUE = "value";
+    // Computed by the queries; a column of the legacy tables only
     String UPLOADED = "uploaded";
 }
\ No newline at end of file
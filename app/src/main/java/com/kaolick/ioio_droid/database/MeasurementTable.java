@@ -1,24 +1,82 @@
 package com.kaolick.ioio_droid.database;
 
 /**
- * Database table for measurements. Implements {@link MeasurementSchema}.
+ * Database table for the measurements of all sensors. Implements
+ * {@link MeasurementSchema}. The timestamps are saved as epoch milliseconds.
+ * <p>
+ * The index on (sensor ID, timestamp) also holds the value, so reading a
+ * sensor's series in time order is answered from the index alone. The index on
+ * the sensor ID orders each sensor's rows by ID, so the values saved after a
+ * {@link WatermarkTable} watermark are found by a range search.
+ * <p>
+ * Whether a value was uploaded is not saved in its row; cursors show it as
+ * the computed column {@link #UPLOADED}. Up to database version 11 each sensor
+ * had a table of its own and up to version 13 each row had an uploaded flag;
+ * these legacy tables are only used for upgrading.
  * 
  * @author kaolick
  */
 public class MeasurementTable implements MeasurementSchema
 {
-    public static final String TABLE_NAME_PRE_TAG = "sensor_";
+    public static final String TABLE_NAME = "measurements";
 
-    public static final String getSQLCreate(int _sensorID)
+    public static final String INDEX_NAME = "measurements_sensor_time";
+
+    public static final String ID_INDEX_NAME = "measurements_sensor_id";
+
+    public static final String SQL_CREATE = "CREATE TABLE " + TABLE_NAME
+	    + " (" + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + SENSOR_ID
+	    + " INTEGER NOT NULL, " + TIMESTAMP + " INTEGER NOT NULL, "
+	    + VALUE + " REAL" + ");";
+
+    public static final String SQL_CREATE_INDEX = "CREATE INDEX "
+	    + INDEX_NAME + " ON " + TABLE_NAME + " (" + SENSOR_ID + ", "
+	    + TIMESTAMP + ", " + VALUE + ");";
+
+    public static final String SQL_CREATE_ID_INDEX = "CREATE INDEX "
+	    + ID_INDEX_NAME + " ON " + TABLE_NAME + " (" + SENSOR_ID + ");";
+
+    public static final String SQL_INSERT = "INSERT INTO " + TABLE_NAME
+	    + " (" + SENSOR_ID + ", " + TIMESTAMP + ", " + VALUE
+	    + ") VALUES (?, ?, ?)";
+
+    // One sensor's values after a watermark in the order they were saved
+    public static final String SQL_SELECT_PENDING = "SELECT " + ID + ", "
+	    + TIMESTAMP + ", " + VALUE + " FROM " + TABLE_NAME + " WHERE "
+	    + SENSOR_ID + " = ? AND " + ID + " > ? ORDER BY " + ID;
+
+    public static final String SQL_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
+
+    // *************** Legacy tables ***************
+
+    public static final String LEGACY_TABLE_NAME_PRE_TAG = "sensor_";
+
+    // The table of database versions 12 and 13
+    public static final String LEGACY_SQL_CREATE = "CREATE TABLE "
+	    + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+	    + SENSOR_ID + " INTEGER NOT NULL, " + TIMESTAMP
+	    + " INTEGER NOT NULL, " + VALUE + " REAL, " + UPLOADED + " INTEGER"
+	    + ");";
+
+    public static final String LEGACY_SQL_CREATE_INDEX = "CREATE INDEX "
+	    + INDEX_NAME + " ON " + TABLE_NAME + " (" + SENSOR_ID + ", "
+	    + TIMESTAMP + ", " + VALUE + ", " + UPLOADED + ");";
+
+    public static final String getLegacySQLCreate(int _sensorID)
     {
-	return "CREATE TABLE " + TABLE_NAME_PRE_TAG + _sensorID + " (" + ID
-		+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + TIMESTAMP
-		+ " TEXT NOT NULL, " + VALUE + " REAL, " + UPLOADED
+	return "CREATE TABLE " + LEGACY_TABLE_NAME_PRE_TAG + _sensorID + " ("
+		+ ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + TIMESTAMP
+		+ " INTEGER NOT NULL, " + VALUE + " REAL, " + UPLOADED
 		+ " INTEGER" + ");";
     }
 
-    public static final String getSQLDrop(int _sensorID)
+    /**
+     * Gets the columns that are copied when a legacy table is rebuilt.
+     * 
+     * @return the column names, separated by commas.
+     */
+    public static final String getLegacyColumns()
     {
-	return "DROP TABLE IF EXISTS " + TABLE_NAME_PRE_TAG + _sensorID;
+	return ID + ", " + TIMESTAMP + ", " + VALUE + ", " + UPLOADED;
     }
 }
\ No newline at end of file
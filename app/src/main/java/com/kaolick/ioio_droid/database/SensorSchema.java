@@ -20,4 +20,16 @@ public interface SensorSchema
     String STATE = "state";
     String USE_XIVELY = "use_xively";
     String DATASTREAM = "datastream";
+    String OVERSAMPLING_COUNT = "oversampling_count";
+    String OVERSAMPLING_REDUCER = "oversampling_reducer";
+    String DEADBAND_TYPE = "deadband_type";
+    String DEADBAND = "deadband";
+    String HEARTBEAT = "heartbeat";
+    String COMPRESSION_DEVIATION = "compression_deviation";
+    String OVERRUN_POLICY = "overrun_policy";
+    String BOARD = "board";
+    String EXPRESSION = "expression";
+    String CALIBRATION_TYPE = "calibration_type";
+    String CALIBRATION = "calibration";
+    String SNAPSHOT_GROUP = "snapshot_group";
 }
\ No newline at end of file
@@ -16,7 +16,63 @@ public class SensorTable implements SensorSchema
 	    + " INTEGER, " + INPUT_TYPE + " INTEGER, " + MEASUREMENT_TYPE
 	    + " INTEGER, " + THRESHOLD + " REAL, " + THRESHOLD_TYPE
 	    + " INTEGER, " + STATE + " INTEGER, " + USE_XIVELY + " INTEGER, "
-	    + DATASTREAM + " TEXT NOT NULL" + ");";
+	    + DATASTREAM + " TEXT NOT NULL, " + OVERSAMPLING_COUNT
+	    + " INTEGER DEFAULT 1, " + OVERSAMPLING_REDUCER
+	    + " INTEGER DEFAULT 0, " + DEADBAND_TYPE + " INTEGER DEFAULT 0, "
+	    + DEADBAND + " REAL DEFAULT 0, " + HEARTBEAT + " INTEGER DEFAULT 0, "
+	    + COMPRESSION_DEVIATION + " REAL DEFAULT 0, " + OVERRUN_POLICY
+	    + " INTEGER DEFAULT 0, " + BOARD + " TEXT NOT NULL DEFAULT '', "
+	    + EXPRESSION + " TEXT NOT NULL DEFAULT '', " + CALIBRATION_TYPE
+	    + " INTEGER DEFAULT 0, " + CALIBRATION
+	    + " TEXT NOT NULL DEFAULT '', " + SNAPSHOT_GROUP
+	    + " INTEGER DEFAULT 0" + ");";
+
+    // Database version 2: oversampling settings
+    public static final String SQL_ADD_OVERSAMPLING_COUNT = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + OVERSAMPLING_COUNT
+	    + " INTEGER DEFAULT 1";
+    public static final String SQL_ADD_OVERSAMPLING_REDUCER = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + OVERSAMPLING_REDUCER
+	    + " INTEGER DEFAULT 0";
+
+    // Database version 3: deadband settings
+    public static final String SQL_ADD_DEADBAND_TYPE = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + DEADBAND_TYPE + " INTEGER DEFAULT 0";
+    public static final String SQL_ADD_DEADBAND = "ALTER TABLE " + TABLE_NAME
+	    + " ADD COLUMN " + DEADBAND + " REAL DEFAULT 0";
+    public static final String SQL_ADD_HEARTBEAT = "ALTER TABLE " + TABLE_NAME
+	    + " ADD COLUMN " + HEARTBEAT + " INTEGER DEFAULT 0";
+
+    // Database version 4: swinging door compression
+    public static final String SQL_ADD_COMPRESSION_DEVIATION = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + COMPRESSION_DEVIATION
+	    + " REAL DEFAULT 0";
+
+    // Database version 5: overrun policy
+    public static final String SQL_ADD_OVERRUN_POLICY = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + OVERRUN_POLICY + " INTEGER DEFAULT 0";
+
+    // Database version 7: board binding
+    public static final String SQL_ADD_BOARD = "ALTER TABLE " + TABLE_NAME
+	    + " ADD COLUMN " + BOARD + " TEXT NOT NULL DEFAULT ''";
+
+    // Database version 9: expressions of derived sensors
+    public static final String SQL_ADD_EXPRESSION = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + EXPRESSION
+	    + " TEXT NOT NULL DEFAULT ''";
+
+    // Database version 10: calibration
+    public static final String SQL_ADD_CALIBRATION_TYPE = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + CALIBRATION_TYPE
+	    + " INTEGER DEFAULT 0";
+    public static final String SQL_ADD_CALIBRATION = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + CALIBRATION
+	    + " TEXT NOT NULL DEFAULT ''";
+
+    // Database version 11: snapshot groups
+    public static final String SQL_ADD_SNAPSHOT_GROUP = "ALTER TABLE "
+	    + TABLE_NAME + " ADD COLUMN " + SNAPSHOT_GROUP
+	    + " INTEGER DEFAULT 0";
 
     public static final String SQL_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
 }
\ No newline at end of file
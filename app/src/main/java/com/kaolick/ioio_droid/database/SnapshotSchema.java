@@ -0,0 +1,14 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database schema for a snapshot table. Besides these columns, a snapshot
+ * table has one column per sensor of its group, named by
+ * {@link SnapshotTable#getColumnName(int)}.
+ * 
+ * @author kaolick
+ */
+public interface SnapshotSchema
+{
+    String ID = "_id";
+    String TIMESTAMP = "timestamp";
+}
\ No newline at end of file
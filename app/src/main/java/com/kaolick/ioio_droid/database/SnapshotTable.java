@@ -0,0 +1,46 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database table for the snapshots of a snapshot group. Implements
+ * {@link SnapshotSchema}. Each row holds the values all sensors of the group
+ * measured on one tick, with the tick's timestamp as epoch milliseconds. A
+ * sensor without a value on that tick is <code>NULL</code>.
+ * 
+ * @author kaolick
+ */
+public class SnapshotTable implements SnapshotSchema
+{
+    public static final String TABLE_NAME_PRE_TAG = "snapshot_";
+
+    public static final String COLUMN_NAME_PRE_TAG = "sensor_";
+
+    public static final String getTableName(int _group)
+    {
+	return TABLE_NAME_PRE_TAG + _group;
+    }
+
+    public static final String getSQLCreate(int _group)
+    {
+	return "CREATE TABLE IF NOT EXISTS " + getTableName(_group) + " ("
+		+ ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " + TIMESTAMP
+		+ " INTEGER NOT NULL" + ");";
+    }
+
+    /**
+     * Gets the name of a sensor's column.
+     * 
+     * @param _sensorID
+     *            The sensor ID
+     * @return the column name.
+     */
+    public static final String getColumnName(int _sensorID)
+    {
+	return COLUMN_NAME_PRE_TAG + _sensorID;
+    }
+
+    public static final String getSQLAddColumn(int _group, int _sensorID)
+    {
+	return "ALTER TABLE " + getTableName(_group) + " ADD COLUMN "
+		+ getColumnName(_sensorID) + " REAL";
+    }
+}
\ No newline at end of file
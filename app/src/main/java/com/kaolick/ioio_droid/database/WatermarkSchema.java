@@ -0,0 +1,13 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database schema for the upload watermark table.
+ * 
+ * @author kaolick
+ */
+public interface WatermarkSchema
+{
+    String SENSOR_ID = "sensor_id";
+    String SINK = "sink";
+    String LAST_ID = "last_id";
+}
\ No newline at end of file
@@ -0,0 +1,37 @@
+package com.kaolick.ioio_droid.database;
+
+/**
+ * Database table for the upload watermarks. Implements
+ * {@link WatermarkSchema}. A sensor's watermark for a sink, f.e. Xively, is
+ * the highest row ID of the {@link MeasurementTable} acknowledged by the
+ * sink; the sensor's values with higher row IDs are pending. Row IDs only
+ * grow, so values saved after an upload's query are never skipped, even if
+ * their timestamps are older. A sensor without a watermark has all its values
+ * pending.
+ * 
+ * @author kaolick
+ */
+public class WatermarkTable implements WatermarkSchema
+{
+    public static final String TABLE_NAME = "watermarks";
+
+    // The sinks
+    public static final String SINK_XIVELY = "xively";
+
+    public static final String SQL_CREATE = "CREATE TABLE " + TABLE_NAME
+	    + " (" + SENSOR_ID + " INTEGER NOT NULL, " + SINK
+	    + " TEXT NOT NULL, " + LAST_ID + " INTEGER NOT NULL, PRIMARY KEY ("
+	    + SENSOR_ID + ", " + SINK + ")" + ");";
+
+    // The watermark of a sensor and a sink; 0 if there is none
+    public static final String SQL_SELECT = "SELECT IFNULL(MAX(" + LAST_ID
+	    + "), 0) FROM " + TABLE_NAME + " WHERE " + SENSOR_ID + " = ? AND "
+	    + SINK + " = ?";
+
+    // Sets the watermark of a sensor and a sink
+    public static final String SQL_REPLACE = "INSERT OR REPLACE INTO "
+	    + TABLE_NAME + " (" + SENSOR_ID + ", " + SINK + ", " + LAST_ID
+	    + ") VALUES (?, ?, ?)";
+
+    public static final String SQL_DROP = "DROP TABLE IF EXISTS " + TABLE_NAME;
+}
\ No newline at end of file
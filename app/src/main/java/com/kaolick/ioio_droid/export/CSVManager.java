@@ -12,6 +12,8 @@ import au.com.bytecode.opencsv.CSVWriter;
 
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
+import com.kaolick.ioio_droid.database.MeasurementSchema;
+import com.kaolick.ioio_droid.store.Store;
 
 /**
  * Exports database tables as <code>*.csv</code> files to the external storage.
@@ -48,6 +50,31 @@ public class CSVManager
      *         <code>false</code> otherwise.
      */
     public boolean exportDatabaseTable(String _tableName, String _filepath)
+    {
+	return exportQuery(_tableName, "SELECT * FROM " + _tableName, null,
+		_filepath);
+    }
+
+    /**
+     * Saves the result of a database query as a <code>*.csv</code> file to
+     * the external storage.
+     * 
+     * @param _fileName
+     *            The file name without the extension
+     * @param _sqlQuery
+     *            The SQL query
+     * @param _selectionArgs
+     *            The values for the query's <i>?</i>s; may be
+     *            <code>null</code>
+     * @param _filepath
+     *            The file path where the file is exported to
+     * @return <code>true</code> if the file export was successful,
+     *         <code>false</code> otherwise.
+     */
+    public boolean exportQuery(String _fileName,
+			       String _sqlQuery,
+			       String[] _selectionArgs,
+			       String _filepath)
     {
 	// If the external storage is writeable
 	if (mStorageHelper.isExternalStorageAvailableAndWriteable())
@@ -64,7 +91,7 @@ public class CSVManager
 	    }
 
 	    // Create new .csv file
-	    File file = new File(exportDir, _tableName + ".csv");
+	    File file = new File(exportDir, _fileName + ".csv");
 
 	    try
 	    {
@@ -74,13 +101,18 @@ public class CSVManager
 		// Create a new CSVWriter
 		CSVWriter csvWriter = new CSVWriter(new FileWriter(file));
 
-		// Cursor for the complete table with the given table name
+		// Cursor for the query's result
 		Cursor cursor = new IodDatabaseManager(mContext).getDb()
-			.rawQuery("SELECT * FROM " + _tableName, null);
+			.rawQuery(_sqlQuery, _selectionArgs);
 
 		// Write the column names
 		csvWriter.writeNext(cursor.getColumnNames());
 
+		// Timestamps are saved as epoch milliseconds; export them
+		// formatted
+		int timestampColumn = cursor
+			.getColumnIndex(MeasurementSchema.TIMESTAMP);
+
 		// Write each row
 		while (cursor.moveToNext())
 		{
@@ -90,7 +122,15 @@ public class CSVManager
 
 		    for (int i = 0; i < numberOfColumns; i++)
 		    {
-			rowEntries[i] = cursor.getString(i);
+			if (i == timestampColumn && !cursor.isNull(i))
+			{
+			    rowEntries[i] = Store.formatTimestamp(cursor
+				    .getLong(i));
+			}
+			else
+			{
+			    rowEntries[i] = cursor.getString(i);
+			}
 		    }
 
 		    csvWriter.writeNext(rowEntries);
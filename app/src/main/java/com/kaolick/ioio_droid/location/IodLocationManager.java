@@ -15,7 +15,7 @@ import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
-import com.kaolick.ioio_droid.store.Store;
+import com.kaolick.ioio_droid.store.IodClock;
 import com.kaolick.ioio_droid.toast.ToastHandler;
 import com.kaolick.ioio_droid.ui.SettingsActivity;
 import com.kaolick.ioio_droid.xively.UploadManager;
@@ -158,7 +158,7 @@ public class IodLocationManager implements
     public void onLocationChanged(Location _location)
     {
 	// Save the location in the database
-	mDatabaseManager.saveLocation(Store.getTimestamp(),
+	mDatabaseManager.saveLocation(IodClock.currentTimeMillis(),
 		_location.getAltitude(), _location.getLatitude(),
 		_location.getLongitude());
 
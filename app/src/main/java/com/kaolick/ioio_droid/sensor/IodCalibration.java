@@ -0,0 +1,292 @@
+package com.kaolick.ioio_droid.sensor;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled calibration of a sensor, turning a measured raw value (volts, a
+ * 0-1 ratio, ...) into engineering units. The calibration is entered as text
+ * and compiled once into primitive coefficients; applying it does not
+ * allocate.
+ * <p>
+ * <b>linear</b>: <i>gain, offset</i>, f.e. <i>100, -50</i> for y = 100x - 50.
+ * <p>
+ * <b>polynomial</b>: the coefficients in ascending powers, f.e. <i>1, 0.5,
+ * 0.25</i> for y = 1 + 0.5x + 0.25x^2. Evaluated with Horner's method.
+ * <p>
+ * <b>table</b>: points <i>x:y</i> separated by commas, f.e. <i>0:-40, 1.5:20,
+ * 3.3:125</i>. Values between two points are interpolated linearly, values
+ * outside the table are clamped to the first or last point. The enclosing
+ * points are found by binary search, so large tables stay cheap.
+ *
+ * @author kaolick
+ */
+public class IodCalibration
+{
+    // The type; one of the IodIOIOSensor.CALIBRATION_TYPE_* values
+    private final int mType;
+
+    // Linear: y = mGain * x + mOffset
+    private double mGain, mOffset;
+
+    // Polynomial: the coefficients in ascending powers
+    private double[] mCoefficients;
+
+    // Table: the points sorted by x and the slope of each segment
+    private double[] mX, mY, mSlopes;
+
+    /**
+     * Class constructor.
+     *
+     * @param _type
+     *            The calibration type
+     */
+    private IodCalibration(int _type)
+    {
+	this.mType = _type;
+    }
+
+    /**
+     * Compiles a calibration.
+     *
+     * @param _type
+     *            The calibration type; one of the
+     *            <code>IodIOIOSensor.CALIBRATION_TYPE_*</code> values except
+     *            <i>none</i>
+     * @param _text
+     *            The calibration as entered by the user
+     * @return the compiled <code>IodCalibration</code>.
+     * @throws IllegalArgumentException
+     *             if the calibration is not valid
+     */
+    public static IodCalibration compile(int _type, String _text)
+    {
+	IodCalibration calibration = new IodCalibration(_type);
+
+	switch (_type)
+	{
+	case IodIOIOSensor.CALIBRATION_TYPE_LINEAR:
+	    double[] values = parseNumbers(_text);
+
+	    if (values.length != 2)
+	    {
+		throw new IllegalArgumentException(
+			"Linear calibration needs gain and offset");
+	    }
+
+	    calibration.mGain = values[0];
+	    calibration.mOffset = values[1];
+	    break;
+	case IodIOIOSensor.CALIBRATION_TYPE_POLYNOMIAL:
+	    calibration.mCoefficients = parseNumbers(_text);
+	    break;
+	case IodIOIOSensor.CALIBRATION_TYPE_TABLE:
+	    calibration.compileTable(_text);
+	    break;
+	default:
+	    throw new IllegalArgumentException("Unknown calibration type "
+		    + _type);
+	}
+
+	return calibration;
+    }
+
+    /**
+     * Applies the calibration to a raw value.
+     *
+     * @param _x
+     *            The raw value
+     * @return the calibrated value.
+     */
+    public double apply(double _x)
+    {
+	switch (mType)
+	{
+	case IodIOIOSensor.CALIBRATION_TYPE_LINEAR:
+	    return mGain * _x + mOffset;
+	case IodIOIOSensor.CALIBRATION_TYPE_POLYNOMIAL:
+	    double y = 0;
+
+	    for (int i = mCoefficients.length - 1; i >= 0; i--)
+	    {
+		y = y * _x + mCoefficients[i];
+	    }
+
+	    return y;
+	default:
+	    return interpolate(_x);
+	}
+    }
+
+    // *************** Table ***************
+
+    /**
+     * Parses the points of a table, sorts them by x and precomputes the
+     * segments' slopes.
+     *
+     * @param _text
+     *            The points as <i>x:y</i> separated by commas
+     */
+    private void compileTable(String _text)
+    {
+	String[] points = split(_text, ',');
+
+	if (points.length < 2)
+	{
+	    throw new IllegalArgumentException("Table needs at least 2 points");
+	}
+
+	// Parse the points
+	double[] x = new double[points.length];
+	double[] y = new double[points.length];
+
+	for (int i = 0; i < points.length; i++)
+	{
+	    String[] pair = split(points[i], ':');
+
+	    if (pair.length != 2)
+	    {
+		throw new IllegalArgumentException("Point \"" + points[i]
+			+ "\" is not x:y");
+	    }
+
+	    x[i] = parseNumber(pair[0]);
+	    y[i] = parseNumber(pair[1]);
+	}
+
+	// Sort the point indexes by x
+	Integer[] indexes = new Integer[points.length];
+	for (int i = 0; i < indexes.length; i++)
+	{
+	    indexes[i] = i;
+	}
+
+	final double[] unsortedX = x;
+	Arrays.sort(indexes, new Comparator<Integer>()
+	{
+	    @Override
+	    public int compare(Integer _a, Integer _b)
+	    {
+		return Double.compare(unsortedX[_a], unsortedX[_b]);
+	    }
+	});
+
+	mX = new double[points.length];
+	mY = new double[points.length];
+
+	for (int i = 0; i < indexes.length; i++)
+	{
+	    mX[i] = x[indexes[i]];
+	    mY[i] = y[indexes[i]];
+	}
+
+	mSlopes = new double[points.length - 1];
+
+	for (int i = 0; i < mSlopes.length; i++)
+	{
+	    if (mX[i + 1] == mX[i])
+	    {
+		throw new IllegalArgumentException("Duplicate x " + mX[i]);
+	    }
+
+	    mSlopes[i] = (mY[i + 1] - mY[i]) / (mX[i + 1] - mX[i]);
+	}
+    }
+
+    /**
+     * Interpolates a raw value in the table.
+     *
+     * @param _x
+     *            The raw value
+     * @return the interpolated value.
+     */
+    private double interpolate(double _x)
+    {
+	int index = Arrays.binarySearch(mX, _x);
+
+	// Exactly on a point
+	if (index >= 0)
+	{
+	    return mY[index];
+	}
+
+	// The first point with a greater x
+	int insertion = -index - 1;
+
+	// Outside the table
+	if (insertion == 0)
+	{
+	    return mY[0];
+	}
+	if (insertion == mX.length)
+	{
+	    return mY[mX.length - 1];
+	}
+
+	int segment = insertion - 1;
+
+	return mY[segment] + (_x - mX[segment]) * mSlopes[segment];
+    }
+
+    // *************** Parsing ***************
+
+    private static double[] parseNumbers(String _text)
+    {
+	String[] parts = split(_text, ',');
+
+	if (parts.length == 0)
+	{
+	    throw new IllegalArgumentException("No coefficients");
+	}
+
+	double[] numbers = new double[parts.length];
+	for (int i = 0; i < parts.length; i++)
+	{
+	    numbers[i] = parseNumber(parts[i]);
+	}
+
+	return numbers;
+    }
+
+    private static double parseNumber(String _text)
+    {
+	try
+	{
+	    double number = Double.parseDouble(_text.trim());
+
+	    if (Double.isNaN(number) || Double.isInfinite(number))
+	    {
+		throw new NumberFormatException();
+	    }
+
+	    return number;
+	}
+	catch (NumberFormatException _exception)
+	{
+	    throw new IllegalArgumentException("Invalid number \"" + _text
+		    + "\"");
+	}
+    }
+
+    /**
+     * Splits a text at a separator, ignoring a trailing separator.
+     *
+     * @param _text
+     *            The text
+     * @param _separator
+     *            The separator
+     * @return the parts; empty if the text is blank.
+     */
+    private static String[] split(String _text, char _separator)
+    {
+	String text = _text == null ? "" : _text.trim();
+
+	if (text.length() == 0)
+	{
+	    return new String[0];
+	}
+
+	return text.split(Pattern.quote(String.valueOf(_separator)));
+    }
+}
\ No newline at end of file
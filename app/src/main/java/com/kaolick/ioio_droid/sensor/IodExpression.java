@@ -0,0 +1,513 @@
+package com.kaolick.ioio_droid.sensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compiled expression of a derived sensor, f.e. <i>$1234 * $5678</i> for
+ * a power computed from a voltage and a current sensor. <i>$</i> followed by
+ * a sensor ID stands for that sensor's latest measured value.
+ * <p>
+ * Supported are numbers, the operators <i>+ - * / ^</i>, parentheses and the
+ * functions <i>abs</i>, <i>sqrt</i>, <i>exp</i> and <i>ln</i>. The expression
+ * is parsed once into a tree of nodes; setting an input and evaluating the
+ * tree does not allocate.
+ *
+ * @author kaolick
+ */
+public class IodExpression
+{
+    // Function codes
+    private static final int FUNCTION_NEGATE = 0;
+    private static final int FUNCTION_ABS = 1;
+    private static final int FUNCTION_SQRT = 2;
+    private static final int FUNCTION_EXP = 3;
+    private static final int FUNCTION_LN = 4;
+
+    // Function names by code; the negation has no name
+    private static final String[] FUNCTION_NAMES = { "", "abs", "sqrt", "exp",
+	    "ln" };
+
+    // The referenced sensor IDs by input
+    private final int[] mSensorIDs;
+
+    // The latest value of each input and the number of inputs set so far
+    private final double[] mInputs;
+    private final boolean[] isSet;
+    private int mSetCount;
+
+    // The root of the tree
+    private final Node mRoot;
+
+    /**
+     * Class constructor.
+     *
+     * @param _expression
+     *            The expression
+     */
+    private IodExpression(String _expression)
+    {
+	Parser parser = new Parser(_expression);
+	this.mRoot = parser.parse();
+
+	this.mSensorIDs = new int[parser.sensorIDs.size()];
+	for (int i = 0; i < mSensorIDs.length; i++)
+	{
+	    mSensorIDs[i] = parser.sensorIDs.get(i);
+	}
+
+	this.mInputs = new double[mSensorIDs.length];
+	this.isSet = new boolean[mSensorIDs.length];
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param _expression
+     *            The expression
+     * @return the compiled <code>IodExpression</code>.
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     */
+    public static IodExpression compile(String _expression)
+    {
+	return new IodExpression(_expression);
+    }
+
+    // *************** Inputs ***************
+
+    public int getInputCount()
+    {
+	return mSensorIDs.length;
+    }
+
+    /**
+     * Gets the sensor ID referenced by an input.
+     *
+     * @param _input
+     *            The input's index
+     * @return the sensor ID.
+     */
+    public int getSensorID(int _input)
+    {
+	return mSensorIDs[_input];
+    }
+
+    /**
+     * Sets the latest value of an input.
+     *
+     * @param _input
+     *            The input's index
+     * @param _value
+     *            The referenced sensor's latest value
+     */
+    public void setInput(int _input, double _value)
+    {
+	mInputs[_input] = _value;
+
+	if (!isSet[_input])
+	{
+	    isSet[_input] = true;
+	    mSetCount++;
+	}
+    }
+
+    /**
+     * Checks whether every referenced sensor delivered a value yet.
+     *
+     * @return <code>true</code> if the expression can be evaluated.
+     */
+    public boolean isComplete()
+    {
+	return mSetCount == mInputs.length;
+    }
+
+    /**
+     * Evaluates the expression with the latest input values.
+     *
+     * @return the result; may be infinite or NaN, f.e. after a division by
+     *         zero.
+     */
+    public double evaluate()
+    {
+	return mRoot.evaluate();
+    }
+
+    // *************** Nodes ***************
+
+    /**
+     * A node of the tree.
+     *
+     * @author kaolick
+     */
+    private static abstract class Node
+    {
+	abstract double evaluate();
+    }
+
+    private static class Constant extends Node
+    {
+	private final double value;
+
+	Constant(double _value)
+	{
+	    this.value = _value;
+	}
+
+	@Override
+	double evaluate()
+	{
+	    return value;
+	}
+    }
+
+    private class Input extends Node
+    {
+	private final int index;
+
+	Input(int _index)
+	{
+	    this.index = _index;
+	}
+
+	@Override
+	double evaluate()
+	{
+	    return mInputs[index];
+	}
+    }
+
+    private static class Operation extends Node
+    {
+	private final char operator;
+	private final Node left;
+	private final Node right;
+
+	Operation(char _operator, Node _left, Node _right)
+	{
+	    this.operator = _operator;
+	    this.left = _left;
+	    this.right = _right;
+	}
+
+	@Override
+	double evaluate()
+	{
+	    double a = left.evaluate();
+	    double b = right.evaluate();
+
+	    switch (operator)
+	    {
+	    case '+':
+		return a + b;
+	    case '-':
+		return a - b;
+	    case '*':
+		return a * b;
+	    case '/':
+		return a / b;
+	    default:
+		return Math.pow(a, b);
+	    }
+	}
+    }
+
+    private static class Function extends Node
+    {
+	private final int function;
+	private final Node argument;
+
+	Function(int _function, Node _argument)
+	{
+	    this.function = _function;
+	    this.argument = _argument;
+	}
+
+	@Override
+	double evaluate()
+	{
+	    double a = argument.evaluate();
+
+	    switch (function)
+	    {
+	    case FUNCTION_NEGATE:
+		return -a;
+	    case FUNCTION_ABS:
+		return Math.abs(a);
+	    case FUNCTION_SQRT:
+		return Math.sqrt(a);
+	    case FUNCTION_EXP:
+		return Math.exp(a);
+	    case FUNCTION_LN:
+		return Math.log(a);
+	    default:
+		return Double.NaN;
+	    }
+	}
+    }
+
+    // *************** Parser ***************
+
+    /**
+     * A recursive descent parser building the tree. The grammar, from the
+     * lowest to the highest precedence:
+     *
+     * <pre>
+     * sum     = product {("+" | "-") product}
+     * product = unary {("*" | "/") unary}
+     * unary   = "-" unary | power
+     * power   = primary ["^" unary]
+     * primary = number | "$" sensorID | name "(" sum ")" | "(" sum ")"
+     * </pre>
+     *
+     * @author kaolick
+     */
+    private class Parser
+    {
+	private final String text;
+	private int position;
+
+	// The referenced sensor IDs by input
+	private final List<Integer> sensorIDs = new ArrayList<Integer>();
+
+	Parser(String _text)
+	{
+	    this.text = _text;
+	}
+
+	Node parse()
+	{
+	    Node root = parseSum();
+
+	    skipSpaces();
+	    if (position < text.length())
+	    {
+		throw error("Unexpected '" + text.charAt(position) + "'");
+	    }
+
+	    return root;
+	}
+
+	private Node parseSum()
+	{
+	    Node node = parseProduct();
+
+	    while (true)
+	    {
+		if (accept('+'))
+		{
+		    node = new Operation('+', node, parseProduct());
+		}
+		else if (accept('-'))
+		{
+		    node = new Operation('-', node, parseProduct());
+		}
+		else
+		{
+		    return node;
+		}
+	    }
+	}
+
+	private Node parseProduct()
+	{
+	    Node node = parseUnary();
+
+	    while (true)
+	    {
+		if (accept('*'))
+		{
+		    node = new Operation('*', node, parseUnary());
+		}
+		else if (accept('/'))
+		{
+		    node = new Operation('/', node, parseUnary());
+		}
+		else
+		{
+		    return node;
+		}
+	    }
+	}
+
+	private Node parseUnary()
+	{
+	    if (accept('-'))
+	    {
+		return new Function(FUNCTION_NEGATE, parseUnary());
+	    }
+
+	    return parsePower();
+	}
+
+	private Node parsePower()
+	{
+	    Node node = parsePrimary();
+
+	    // Right associative: 2^3^2 = 2^(3^2)
+	    if (accept('^'))
+	    {
+		node = new Operation('^', node, parseUnary());
+	    }
+
+	    return node;
+	}
+
+	private Node parsePrimary()
+	{
+	    skipSpaces();
+
+	    if (position >= text.length())
+	    {
+		throw error("Unexpected end");
+	    }
+
+	    char c = text.charAt(position);
+
+	    // Parentheses
+	    if (accept('('))
+	    {
+		Node node = parseSum();
+		expect(')');
+
+		return node;
+	    }
+
+	    // Sensor reference
+	    if (c == '$')
+	    {
+		position++;
+
+		return parseInput();
+	    }
+
+	    // Number
+	    if (Character.isDigit(c) || c == '.')
+	    {
+		return parseNumber();
+	    }
+
+	    // Function
+	    if (Character.isLetter(c))
+	    {
+		int start = position;
+		while (position < text.length()
+			&& Character.isLetter(text.charAt(position)))
+		{
+		    position++;
+		}
+
+		String name = text.substring(start, position).toLowerCase();
+
+		for (int i = FUNCTION_ABS; i < FUNCTION_NAMES.length; i++)
+		{
+		    if (FUNCTION_NAMES[i].equals(name))
+		    {
+			expect('(');
+			Node argument = parseSum();
+			expect(')');
+
+			return new Function(i, argument);
+		    }
+		}
+
+		throw error("Unknown function '" + name + "'");
+	    }
+
+	    throw error("Unexpected '" + c + "'");
+	}
+
+	private Node parseInput()
+	{
+	    int start = position;
+	    while (position < text.length()
+		    && Character.isDigit(text.charAt(position)))
+	    {
+		position++;
+	    }
+
+	    if (start == position)
+	    {
+		throw error("Sensor ID expected after '$'");
+	    }
+
+	    int sensorID;
+	    try
+	    {
+		sensorID = Integer.parseInt(text.substring(start, position));
+	    }
+	    catch (NumberFormatException _exception)
+	    {
+		throw error("Invalid sensor ID");
+	    }
+
+	    // A sensor referenced several times is one input
+	    int index = sensorIDs.indexOf(sensorID);
+	    if (index == -1)
+	    {
+		index = sensorIDs.size();
+		sensorIDs.add(sensorID);
+	    }
+
+	    return new Input(index);
+	}
+
+	private Node parseNumber()
+	{
+	    int start = position;
+	    while (position < text.length()
+		    && (Character.isDigit(text.charAt(position)) || text
+			    .charAt(position) == '.'))
+	    {
+		position++;
+	    }
+
+	    try
+	    {
+		return new Constant(Double.parseDouble(text.substring(start,
+			position)));
+	    }
+	    catch (NumberFormatException _exception)
+	    {
+		throw error("Invalid number");
+	    }
+	}
+
+	private boolean accept(char _c)
+	{
+	    skipSpaces();
+
+	    if (position < text.length() && text.charAt(position) == _c)
+	    {
+		position++;
+
+		return true;
+	    }
+
+	    return false;
+	}
+
+	private void expect(char _c)
+	{
+	    if (!accept(_c))
+	    {
+		throw error("'" + _c + "' expected");
+	    }
+	}
+
+	private void skipSpaces()
+	{
+	    while (position < text.length()
+		    && Character.isWhitespace(text.charAt(position)))
+	    {
+		position++;
+	    }
+	}
+
+	private IllegalArgumentException error(String _message)
+	{
+	    return new IllegalArgumentException(_message + " at position "
+		    + position + " in \"" + text + "\"");
+	}
+    }
+}
\ No newline at end of file
@@ -3,17 +3,21 @@ package com.kaolick.ioio_droid.sensor;
 import ioio.lib.api.AnalogInput;
 import ioio.lib.api.DigitalInput;
 import ioio.lib.api.IOIO;
+import ioio.lib.api.PulseInput;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.io.Serializable;
 import java.util.Random;
 
+import android.util.Log;
+
+import com.kaolick.ioio_droid.compression.IodSwingingDoorCompressor;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
-import com.kaolick.ioio_droid.database.MeasurementTable;
 
 /**
- * A physical sensor that can be connected to a IOIO board. A sensor has certain
- * attributes which are described in the following:
+ * A physical sensor that can be connected to a IOIO board, or a derived sensor
+ * computed from other sensors. A sensor has certain attributes which are
+ * described in the following:
  * <p>
  * <b>sensor ID</b>: A unique identifier. Set randomly.
  * <p>
@@ -32,13 +36,20 @@ import com.kaolick.ioio_droid.database.MeasurementTable;
  * Default: <b>TIME_UNIT_SECONDS</b>
  * <p>
  * <b>input type</b>: The sensor's input type. 0 = <i>analog</i>; 1 =
- * <i>digital</i>. Default: <b>0</b>
+ * <i>digital</i>; 2 = <i>digital event</i> (only transitions of the digital
+ * value are saved); 3 = <i>pulse</i> (pulses are timed or counted by the
+ * IOIO); 4 = <i>derived</i> (computed from other sensors' values by the
+ * sensor's <i>expression</i>; has no pin). Default: <b>0</b>
  * <p>
  * <b>measurement type</b>: The sensor's measurement type. 0 = <i>absolute</i>
  * (voltage is measured between 0 and 3.3V); 1 = <i>relative</i> (voltage is
  * scaled between 0 and 1); 2 = <i>floating</i> (default for digital sensors); 3
  * = <i>pull-down</i> (pin is pulled gently to 0V); 4 = <i>pull-up</i> (pin is
- * pulled gently to 3.3V). Default: <b>0</b>
+ * pulled gently to 3.3V); 5 = <i>buffered</i> (analog voltage is sampled
+ * continuously by the IOIO and read in blocks); 6 = <i>pulse width</i> (in
+ * milliseconds); 7 = <i>frequency</i> (pulses per second); 8 =
+ * <i>counter</i> (number of pulses since measuring started); 9 =
+ * <i>expression</i> (the only type of derived sensors). Default: <b>0</b>
  * <p>
  * <b>threshold</b>: The sensor's threshold for measured values. Handling
  * depends on the <i>threshold type</i>. Default: <b>0</b>
@@ -56,6 +67,56 @@ import com.kaolick.ioio_droid.database.MeasurementTable;
  * <p>
  * <b>datastream</b>: The sensor's <i>datastream</i> or <i>channel</i> on
  * Xively. Default: <b><i>empty string</i></b>
+ * <p>
+ * <b>oversampling count</b>: The number of samples taken per measuring period.
+ * The samples are reduced to one saved value. Default: <b>1</b>
+ * <p>
+ * <b>oversampling reducer</b>: How the samples of one period are reduced. 0 =
+ * <i>mean</i>; 1 = <i>median</i>; 2 = <i>minimum</i>; 3 = <i>maximum</i>; 4 =
+ * <i>root mean square</i>. Default: <b>0</b>
+ * <p>
+ * <b>deadband type</b>: Whether a value is only saved if it moved away from
+ * the last saved value. 0 = <i>off</i>; 1 = <i>absolute</i>; 2 =
+ * <i>percent</i>. Default: <b>0</b>
+ * <p>
+ * <b>deadband</b>: The change needed for saving a value, as absolute value or
+ * in percent of the last saved value. Default: <b>0</b>
+ * <p>
+ * <b>heartbeat</b>: The maximum time without a saved value (in seconds),
+ * even if the value stays within the deadband. 0 = <i>none</i>. Default:
+ * <b>0</b>
+ * <p>
+ * <b>compression deviation</b>: The maximum deviation for the swinging door
+ * compression of the saved series. 0 = <i>no compression</i>. Default:
+ * <b>0</b>
+ * <p>
+ * <b>overrun policy</b>: What happens to the measurements that became due
+ * while a read took longer than the period. 0 = <i>coalesce</i> (one read
+ * right away for all of them); 1 = <i>skip</i> (continue with the next
+ * measurement in the future); 2 = <i>catch up</i> (read all of them at a
+ * capped rate). Default: <b>0</b>
+ * <p>
+ * <b>board</b>: The <code>IOIO</code> board the sensor is connected to, as
+ * shown when the board connects. "" = <i>the first connected board</i>.
+ * Default: <b>""</b>
+ * <p>
+ * <b>expression</b>: The expression computing a derived sensor's value from
+ * the latest values of other sensors, f.e. <i>$1234 * $5678</i>; see
+ * {@link IodExpression}. A new value is computed whenever one of the
+ * referenced sensors is measured. Default: <b>""</b>
+ * <p>
+ * <b>calibration type</b>: How measured values are converted into
+ * engineering units before the threshold, the deadband and saving apply. 0 =
+ * <i>none</i>; 1 = <i>linear</i>; 2 = <i>polynomial</i>; 3 = <i>table</i>
+ * (linear interpolation between points). Default: <b>0</b>
+ * <p>
+ * <b>calibration</b>: The calibration's coefficients or points; see
+ * {@link IodCalibration}. Default: <b>""</b>
+ * <p>
+ * <b>snapshot group</b>: Sensors of the same group are read back to back on
+ * one tick and saved together in one row with a shared timestamp. All sensors
+ * of a group must be connected to the same board and have the same
+ * frequency. 0 = <i>none</i>. Default: <b>0</b>
  * 
  * @author kaolick
  */
@@ -63,23 +124,64 @@ import com.kaolick.ioio_droid.database.MeasurementTable;
 public class IodIOIOSensor implements Serializable
 {
     // Logging tag
-    @SuppressWarnings("unused")
     private static final String TAG = "IodIOIOSensor";
 
     // Sensor attributes
     private int sensorID, frequency, timeUnit, pinNumber, inputType,
-	    measurementType, thresholdType, state, useXively;
-    private double threshold;
-    private String name, datastream;
+	    measurementType, thresholdType, state, useXively,
+	    oversamplingCount, oversamplingReducer, deadbandType, heartbeat,
+	    overrunPolicy, calibrationType, snapshotGroup;
+    private double threshold, deadband, compressionDeviation;
+
+    // The last saved value; runtime state for the deadband
+    private transient float lastStoredValue;
+    private transient long lastStoredMillis;
+
+    // The value written to the database last; runtime state for the derived
+    // sensors
+    private transient float savedValue;
+    private transient long savedMillis;
+
+    // The compressor of the saved series; runtime state
+    private transient IodSwingingDoorCompressor compressor;
+
+    // The compiled calibration; runtime state
+    private transient IodCalibration compiledCalibration;
+    private transient boolean isCalibrationCompiled;
+    private String name, datastream, board, expression, calibration;
 
     // Static values for database handling etc.
     public static final int INPUT_TYPE_ANALOG = 0;
     public static final int INPUT_TYPE_DIGITAL = 1;
+    public static final int INPUT_TYPE_DIGITAL_EVENT = 2;
+    public static final int INPUT_TYPE_PULSE = 3;
+    public static final int INPUT_TYPE_DERIVED = 4;
     public static final int MEASUREMENT_TYPE_ABSOLUTE = 0;
     public static final int MEASUREMENT_TYPE_RELATIVE = 1;
     public static final int MEASUREMENT_TYPE_FLOATING = 2;
     public static final int MEASUREMENT_TYPE_PULL_DOWN = 3;
     public static final int MEASUREMENT_TYPE_PULL_UP = 4;
+    public static final int MEASUREMENT_TYPE_BUFFERED = 5;
+    public static final int MEASUREMENT_TYPE_PULSE_WIDTH = 6;
+    public static final int MEASUREMENT_TYPE_FREQUENCY = 7;
+    public static final int MEASUREMENT_TYPE_COUNTER = 8;
+    public static final int MEASUREMENT_TYPE_EXPRESSION = 9;
+    public static final int CALIBRATION_TYPE_NONE = 0;
+    public static final int CALIBRATION_TYPE_LINEAR = 1;
+    public static final int CALIBRATION_TYPE_POLYNOMIAL = 2;
+    public static final int CALIBRATION_TYPE_TABLE = 3;
+    public static final int DEADBAND_TYPE_OFF = 0;
+    public static final int DEADBAND_TYPE_ABSOLUTE = 1;
+    public static final int DEADBAND_TYPE_PERCENT = 2;
+    public static final int OVERRUN_POLICY_COALESCE = 0;
+    public static final int OVERRUN_POLICY_SKIP = 1;
+    public static final int OVERRUN_POLICY_CATCH_UP = 2;
+    public static final int SNAPSHOT_GROUP_NONE = 0;
+    public static final int REDUCER_MEAN = 0;
+    public static final int REDUCER_MEDIAN = 1;
+    public static final int REDUCER_MIN = 2;
+    public static final int REDUCER_MAX = 3;
+    public static final int REDUCER_RMS = 4;
     public static final int STATE_INACTIVE = 0;
     public static final int STATE_ACTIVE = 1;
     public static final int THRESHOLD_TYPE_LOWER = 0;
@@ -93,6 +195,12 @@ public class IodIOIOSensor implements Serializable
     public static final int USE_XIVELY_FALSE = 0;
     public static final int USE_XIVELY_TRUE = 1;
 
+    // Number of samples buffered by the IOIO for buffered analog sensors
+    public static final int ANALOG_BUFFER_CAPACITY = 1024;
+
+    // Maximum number of samples per measuring period
+    public static final int MAX_OVERSAMPLING_COUNT = 1024;
+
     /**
      * Class constructor with default values.
      * 
@@ -112,6 +220,18 @@ public class IodIOIOSensor implements Serializable
 	this.state = STATE_ACTIVE;
 	this.useXively = USE_XIVELY_FALSE;
 	this.datastream = "";
+	this.oversamplingCount = 1;
+	this.oversamplingReducer = REDUCER_MEAN;
+	this.deadbandType = DEADBAND_TYPE_OFF;
+	this.deadband = 0;
+	this.heartbeat = 0;
+	this.compressionDeviation = 0;
+	this.overrunPolicy = OVERRUN_POLICY_COALESCE;
+	this.board = "";
+	this.expression = "";
+	this.calibrationType = CALIBRATION_TYPE_NONE;
+	this.calibration = "";
+	this.snapshotGroup = SNAPSHOT_GROUP_NONE;
     }
 
     /**
@@ -134,72 +254,406 @@ public class IodIOIOSensor implements Serializable
     // *************** Database ***************
 
     /**
-     * Saves the given <i>value</i> and <i>timestamp</i> in the according
-     * database table.
+     * Calibrates the given <i>value</i> and saves it with the given
+     * <i>timestamp</i> in the according database table.
      * 
      * @param _value
-     *            The measured sensor value
+     *            The measured sensor value, not calibrated yet
      * @param _timestamp
-     *            The timestamp of the measurement
+     *            The time of the measurement (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
      * @param _databaseManager
      *            A {@link IodDatabaseManager} to access the application's
      *            database
-     * @return <code>true</code> if saving was successful, <code>false</code>
-     *         otherwise.
+     * @return <code>true</code> if a value was saved, <code>false</code>
+     *         otherwise. For a compressed sensor the saved value is an
+     *         earlier point, see {@link #getSavedValue()}.
      */
     public boolean saveValueInDatabase(float _value,
-				       String _timestamp,
+				       long _timestamp,
 				       IodDatabaseManager _databaseManager)
     {
-	boolean success = false;
+	// Skip failed values
+	if (_value == -1)
+	{
+	    return false;
+	}
+
+	_value = calibrate(_value);
+
+	// Skip values outside the sensor's threshold and values within the
+	// sensor's deadband
+	if (!isWithinThreshold(_value)
+		|| !isOutsideDeadband(_value, _timestamp))
+	{
+	    return false;
+	}
+
+	setLastStoredValue(_value, _timestamp);
 
-	// If measuring did not fail...
-	if (_value != -1)
+	// Let the compressor decide which point to save
+	if (getCompressionDeviation() > 0)
 	{
-	    // Create the table name
-	    String tableName = MeasurementTable.TABLE_NAME_PRE_TAG
-		    + getSensorID();
+	    IodSwingingDoorCompressor compressor = getCompressor();
 
-	    // Save according to the threshold type
-	    switch (getThresholdType())
+	    if (!compressor.offer(_timestamp, _value))
 	    {
-	    case THRESHOLD_TYPE_LOWER:
-		// If the measured value equals or is higher than the sensor's
-		// configured threshold, save the value in the database
-		if (_value >= getThreshold())
-		{
-		    // Save value in the according database table
-		    _databaseManager.saveMeasuredSensorValue(tableName, _value,
-			    _timestamp);
+		return false;
+	    }
 
-		    success = true;
-		}
-		return success;
-	    case THRESHOLD_TYPE_UPPER:
-		// If the measured value equals or is lower than the sensor's
-		// configured threshold, save the value in the database
-		if (_value <= getThreshold())
-		{
-		    // Save value in the according database table
-		    _databaseManager.saveMeasuredSensorValue(tableName, _value,
-			    _timestamp);
+	    saveValue(compressor.getReleasedValue(),
+		    compressor.getReleasedMillis(), _databaseManager);
+
+	    return true;
+	}
+
+	// Save value in the database
+	saveValue(_value, _timestamp, _databaseManager);
+
+	return true;
+    }
+
+    /**
+     * Saves a calibrated value in the database and remembers it.
+     * 
+     * @param _value
+     *            The calibrated value
+     * @param _millis
+     *            The value's timestamp (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     * @param _databaseManager
+     *            A {@link IodDatabaseManager} to access the application's
+     *            database
+     */
+    private void saveValue(float _value,
+			   long _millis,
+			   IodDatabaseManager _databaseManager)
+    {
+	_databaseManager.saveMeasuredSensorValue(getSensorID(), _value,
+		_millis);
+
+	this.savedValue = _value;
+	this.savedMillis = _millis;
+    }
+
+    /**
+     * Gets the calibrated value written to the database last.
+     * 
+     * @return the saved value.
+     */
+    public float getSavedValue()
+    {
+	return savedValue;
+    }
 
-		    success = true;
+    /**
+     * Gets the timestamp of the value written to the database last.
+     * 
+     * @return the timestamp (in milliseconds since January 1, 1970 00:00:00
+     *         UTC).
+     */
+    public long getSavedMillis()
+    {
+	return savedMillis;
+    }
 
+    /**
+     * Saves the point still pending in the sensor's compressor and logs the
+     * achieved compression ratio. Call this when measuring stops.
+     * 
+     * @param _databaseManager
+     *            A {@link IodDatabaseManager} to access the application's
+     *            database
+     * @return <code>true</code> if a point was saved, <code>false</code>
+     *         otherwise.
+     */
+    public boolean flushCompressor(IodDatabaseManager _databaseManager)
+    {
+	if (compressor == null)
+	{
+	    return false;
+	}
+
+	boolean flushed = compressor.flush();
+
+	if (flushed)
+	{
+	    saveValue(compressor.getReleasedValue(),
+		    compressor.getReleasedMillis(), _databaseManager);
+	}
+
+	Log.i(TAG, "Sensor " + getSensorID() + ": compression ratio "
+		+ compressor.getCompressionRatio() + " ("
+		+ compressor.getOfferedCount() + " values, "
+		+ compressor.getReleasedCount() + " saved)");
+
+	return flushed;
+    }
+
+    /**
+     * Gets the sensor's compressor; creates it on first use.
+     * 
+     * @return the {@link IodSwingingDoorCompressor}.
+     */
+    public synchronized IodSwingingDoorCompressor getCompressor()
+    {
+	if (compressor == null)
+	{
+	    compressor = new IodSwingingDoorCompressor(getCompressionDeviation());
+	}
+
+	return compressor;
+    }
+
+    /**
+     * Converts a measured value into engineering units by the sensor's
+     * calibration.
+     * 
+     * @param _value
+     *            The measured sensor value
+     * @return the calibrated value; the measured value itself if the sensor
+     *         has no valid calibration.
+     */
+    public float calibrate(float _value)
+    {
+	if (getCalibrationType() == CALIBRATION_TYPE_NONE)
+	{
+	    return _value;
+	}
+
+	IodCalibration calibration = getCompiledCalibration();
+
+	if (calibration == null)
+	{
+	    return _value;
+	}
+
+	return (float) calibration.apply(_value);
+    }
+
+    /**
+     * Gets the sensor's compiled calibration; compiles it on first use.
+     * 
+     * @return the {@link IodCalibration}; <code>null</code> if the sensor
+     *         has no calibration or it is not valid.
+     */
+    private synchronized IodCalibration getCompiledCalibration()
+    {
+	if (!isCalibrationCompiled)
+	{
+	    isCalibrationCompiled = true;
+
+	    if (getCalibrationType() != CALIBRATION_TYPE_NONE)
+	    {
+		try
+		{
+		    compiledCalibration = IodCalibration.compile(
+			    getCalibrationType(), getCalibration());
+		}
+		catch (IllegalArgumentException _exception)
+		{
+		    Log.e(TAG, "Sensor " + getSensorID() + ": "
+			    + _exception.getMessage());
 		}
-		return success;
-	    default:
-		return false;
 	    }
 	}
-	else
+
+	return compiledCalibration;
+    }
+
+    /**
+     * Checks a measured value against the sensor's threshold.
+     * 
+     * @param _value
+     *            The measured sensor value
+     * @return <code>true</code> if the value is to be saved according to the
+     *         threshold type, <code>false</code> otherwise.
+     */
+    private boolean isWithinThreshold(float _value)
+    {
+	switch (getThresholdType())
 	{
+	case THRESHOLD_TYPE_LOWER:
+	    return _value >= getThreshold();
+	case THRESHOLD_TYPE_UPPER:
+	    return _value <= getThreshold();
+	default:
 	    return false;
 	}
     }
 
+    /**
+     * Checks a measured value against the sensor's deadband. A value is saved
+     * if it differs from the last saved value by more than the deadband, or
+     * if nothing has been saved for longer than the heartbeat.
+     * 
+     * @param _value
+     *            The measured sensor value
+     * @param _millis
+     *            The time of the measurement (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     * @return <code>true</code> if the value is to be saved,
+     *         <code>false</code> otherwise.
+     */
+    private boolean isOutsideDeadband(float _value, long _millis)
+    {
+	// Deadband off or nothing saved yet
+	if (getDeadbandType() == DEADBAND_TYPE_OFF || lastStoredMillis == 0)
+	{
+	    return true;
+	}
+
+	// Heartbeat: save at least once per heartbeat period
+	if (getHeartbeat() > 0
+		&& _millis - lastStoredMillis >= getHeartbeat()
+			* (long) TIME_UNIT_SECONDS)
+	{
+	    return true;
+	}
+
+	double delta = Math.abs(_value - lastStoredValue);
+
+	switch (getDeadbandType())
+	{
+	case DEADBAND_TYPE_ABSOLUTE:
+	    return delta > getDeadband();
+	case DEADBAND_TYPE_PERCENT:
+	    return delta > Math.abs(lastStoredValue) * getDeadband() / 100;
+	default:
+	    return true;
+	}
+    }
+
+    /**
+     * Remembers the last saved value for the deadband.
+     * 
+     * @param _value
+     *            The saved value
+     * @param _millis
+     *            The time of the measurement (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     */
+    private void setLastStoredValue(float _value, long _millis)
+    {
+	this.lastStoredValue = _value;
+	this.lastStoredMillis = _millis;
+    }
+
     // *************** Measuring ***************
 
+    /**
+     * Opens a {@link DigitalInput} for the sensor's pin according to the
+     * sensor's measurement type.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @return The opened <code>DigitalInput</code>; <code>null</code> if the
+     *         measurement type is not a digital one.
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    DigitalInput openDigitalInput(IOIO _ioio) throws ConnectionLostException
+    {
+	switch (getMeasurementType())
+	{
+	case MEASUREMENT_TYPE_FLOATING:
+	    return _ioio.openDigitalInput(getPinNumber());
+	case MEASUREMENT_TYPE_PULL_DOWN:
+	    return _ioio.openDigitalInput(getPinNumber(),
+		    DigitalInput.Spec.Mode.PULL_DOWN);
+	case MEASUREMENT_TYPE_PULL_UP:
+	    return _ioio.openDigitalInput(getPinNumber(),
+		    DigitalInput.Spec.Mode.PULL_UP);
+	default:
+	    return null;
+	}
+    }
+
+    /**
+     * Reads a value from an open {@link AnalogInput} according to the sensor's
+     * measurement type.
+     * 
+     * @param _analogInput
+     *            The open <code>AnalogInput</code>
+     * @return The measured value; -1 if the measurement type is not an analog
+     *         one.
+     * @throws InterruptedException
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    float readAnalogValue(AnalogInput _analogInput)
+	    throws InterruptedException, ConnectionLostException
+    {
+	switch (getMeasurementType())
+	{
+	case MEASUREMENT_TYPE_ABSOLUTE:
+	case MEASUREMENT_TYPE_BUFFERED:
+	    return _analogInput.getVoltage();
+	case MEASUREMENT_TYPE_RELATIVE:
+	    return _analogInput.read();
+	default:
+	    return -1;
+	}
+    }
+
+    /**
+     * Opens a {@link PulseInput} for the sensor's pin according to the
+     * sensor's measurement type. Pulse widths are measured on positive
+     * pulses; frequency and counter sensors measure the frequency of the
+     * pulse train.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @return The opened <code>PulseInput</code>; <code>null</code> if the
+     *         measurement type is not a pulse one.
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    PulseInput openPulseInput(IOIO _ioio) throws ConnectionLostException
+    {
+	switch (getMeasurementType())
+	{
+	case MEASUREMENT_TYPE_PULSE_WIDTH:
+	    return _ioio.openPulseInput(getPinNumber(),
+		    PulseInput.PulseMode.POSITIVE);
+	case MEASUREMENT_TYPE_FREQUENCY:
+	case MEASUREMENT_TYPE_COUNTER:
+	    return _ioio.openPulseInput(getPinNumber(),
+		    PulseInput.PulseMode.FREQ);
+	default:
+	    return null;
+	}
+    }
+
+    /**
+     * Reads a value from an open {@link PulseInput} according to the sensor's
+     * measurement type. Blocks until the <code>IOIO</code> has seen the first
+     * pulse.
+     * 
+     * @param _pulseInput
+     *            The open <code>PulseInput</code>
+     * @return The last pulse width in milliseconds, the frequency in Hz (also
+     *         for counter sensors) or -1 if the measurement type is not a
+     *         pulse one.
+     * @throws InterruptedException
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    float readPulseValue(PulseInput _pulseInput)
+	    throws InterruptedException, ConnectionLostException
+    {
+	switch (getMeasurementType())
+	{
+	case MEASUREMENT_TYPE_PULSE_WIDTH:
+	    return _pulseInput.getDuration() * 1000;
+	case MEASUREMENT_TYPE_FREQUENCY:
+	case MEASUREMENT_TYPE_COUNTER:
+	    return _pulseInput.getFrequency();
+	default:
+	    return -1;
+	}
+    }
+
     /**
      * Measures the sensor's value from an {@link AnalogInput} according to the
      * sensor's configuration.
@@ -231,15 +685,7 @@ public class IodIOIOSensor implements Serializable
 	{
 	    try
 	    {
-		switch (getMeasurementType())
-		{
-		case MEASUREMENT_TYPE_ABSOLUTE:
-		    value = analogInput.getVoltage();
-		    break;
-		case MEASUREMENT_TYPE_RELATIVE:
-		    value = analogInput.read();
-		    break;
-		}
+		value = readAnalogValue(analogInput);
 	    }
 	    catch (InterruptedException _exception)
 	    {
@@ -277,20 +723,7 @@ public class IodIOIOSensor implements Serializable
 	// Try to open digital input according to the measurement type
 	try
 	{
-	    switch (getMeasurementType())
-	    {
-	    case MEASUREMENT_TYPE_FLOATING:
-		digitalInput = _ioio.openDigitalInput(getPinNumber());
-		break;
-	    case MEASUREMENT_TYPE_PULL_DOWN:
-		digitalInput = _ioio.openDigitalInput(getPinNumber(),
-			DigitalInput.Spec.Mode.PULL_DOWN);
-		break;
-	    case MEASUREMENT_TYPE_PULL_UP:
-		digitalInput = _ioio.openDigitalInput(getPinNumber(),
-			DigitalInput.Spec.Mode.PULL_UP);
-		break;
-	    }
+	    digitalInput = openDigitalInput(_ioio);
 	}
 	catch (ConnectionLostException _exception)
 	{
@@ -332,7 +765,47 @@ public class IodIOIOSensor implements Serializable
     }
 
     /**
-     * Measures the sensor's value according to the sensor's configuration.
+     * Checks whether the sensor is read in blocks from the <code>IOIO</code>'s
+     * analog input buffer.
+     * 
+     * @return <code>true</code> if the sensor is a buffered analog sensor,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isBuffered()
+    {
+	return getInputType() == INPUT_TYPE_ANALOG
+		&& getMeasurementType() == MEASUREMENT_TYPE_BUFFERED;
+    }
+
+    /**
+     * Checks whether the sensor waits for transitions of its digital value
+     * instead of being measured periodically.
+     * 
+     * @return <code>true</code> if the sensor is a digital event sensor,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isEventDriven()
+    {
+	return getInputType() == INPUT_TYPE_DIGITAL_EVENT;
+    }
+
+    /**
+     * Checks whether the sensor's value is computed from other sensors instead
+     * of being measured.
+     * 
+     * @return <code>true</code> if the sensor is a derived sensor,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isDerived()
+    {
+	return getInputType() == INPUT_TYPE_DERIVED;
+    }
+
+    /**
+     * Measures the sensor's value according to the sensor's configuration. The
+     * pin gets opened and closed for this single measurement; use an
+     * {@link IodPinSession} to keep the pin open across measurements. Pulse
+     * sensors can only be measured with an <code>IodPinSession</code>.
      * 
      * @param _ioio
      *            The connected {@link IOIO}
@@ -350,6 +823,7 @@ public class IodIOIOSensor implements Serializable
 	    value = readAnalogInput(_ioio);
 	    break;
 	case INPUT_TYPE_DIGITAL:
+	case INPUT_TYPE_DIGITAL_EVENT:
 	    value = readDigitalInput(_ioio);
 	default:
 	    break;
@@ -479,4 +953,128 @@ public class IodIOIOSensor implements Serializable
     {
 	this.datastream = _datastream;
     }
+
+    public int getOversamplingCount()
+    {
+	return oversamplingCount;
+    }
+
+    public void setOversamplingCount(int _oversamplingCount)
+    {
+	this.oversamplingCount = _oversamplingCount;
+    }
+
+    public int getOversamplingReducer()
+    {
+	return oversamplingReducer;
+    }
+
+    public void setOversamplingReducer(int _oversamplingReducer)
+    {
+	this.oversamplingReducer = _oversamplingReducer;
+    }
+
+    public int getDeadbandType()
+    {
+	return deadbandType;
+    }
+
+    public void setDeadbandType(int _deadbandType)
+    {
+	this.deadbandType = _deadbandType;
+    }
+
+    public double getDeadband()
+    {
+	return deadband;
+    }
+
+    public void setDeadband(double _deadband)
+    {
+	this.deadband = _deadband;
+    }
+
+    public int getHeartbeat()
+    {
+	return heartbeat;
+    }
+
+    public void setHeartbeat(int _heartbeat)
+    {
+	this.heartbeat = _heartbeat;
+    }
+
+    public double getCompressionDeviation()
+    {
+	return compressionDeviation;
+    }
+
+    public void setCompressionDeviation(double _compressionDeviation)
+    {
+	this.compressionDeviation = _compressionDeviation;
+    }
+
+    public int getOverrunPolicy()
+    {
+	return overrunPolicy;
+    }
+
+    public void setOverrunPolicy(int _overrunPolicy)
+    {
+	this.overrunPolicy = _overrunPolicy;
+    }
+
+    public String getBoard()
+    {
+	return board;
+    }
+
+    public void setBoard(String _board)
+    {
+	this.board = _board;
+    }
+
+    public String getExpression()
+    {
+	return expression;
+    }
+
+    public void setExpression(String _expression)
+    {
+	this.expression = _expression;
+    }
+
+    public int getCalibrationType()
+    {
+	return calibrationType;
+    }
+
+    public synchronized void setCalibrationType(int _calibrationType)
+    {
+	this.calibrationType = _calibrationType;
+	this.isCalibrationCompiled = false;
+	this.compiledCalibration = null;
+    }
+
+    public String getCalibration()
+    {
+	return calibration;
+    }
+
+    public synchronized void setCalibration(String _calibration)
+    {
+	this.calibration = _calibration;
+	this.isCalibrationCompiled = false;
+	this.compiledCalibration = null;
+    }
+
+    public int getSnapshotGroup()
+    {
+	return snapshotGroup;
+    }
+
+    public void setSnapshotGroup(int _snapshotGroup)
+    {
+	this.snapshotGroup = _snapshotGroup;
+    }
 }
\ No newline at end of file
@@ -47,6 +47,30 @@ public class IodIOIOSensorValidator
 
     // *************** Private methods ***************
 
+    private boolean validateCalibration(int _calibrationType,
+					String _calibration)
+    {
+	if (_calibrationType == IodIOIOSensor.CALIBRATION_TYPE_NONE)
+	{
+	    return true;
+	}
+
+	try
+	{
+	    IodCalibration.compile(_calibrationType, _calibration);
+
+	    return true;
+	}
+	catch (IllegalArgumentException _exception)
+	{
+	    // Inform the user
+	    Toast.makeText(mContext, R.string.toast_sensor_invalid_calibration,
+		    Toast.LENGTH_LONG).show();
+
+	    return false;
+	}
+    }
+
     private boolean validateDatastream(int _useXively,
 				       String _datastream,
 				       int _sensorID)
@@ -76,6 +100,39 @@ public class IodIOIOSensorValidator
 	return true;
     }
 
+    private boolean validateExpression(String _expression, int _sensorID)
+    {
+	try
+	{
+	    IodExpression expression = IodExpression.compile(_expression);
+
+	    // A derived sensor needs at least one input, and not itself
+	    boolean valid = expression.getInputCount() > 0;
+	    for (int i = 0; i < expression.getInputCount(); i++)
+	    {
+		if (expression.getSensorID(i) == _sensorID)
+		{
+		    valid = false;
+		}
+	    }
+
+	    if (valid)
+	    {
+		return true;
+	    }
+	}
+	catch (IllegalArgumentException _exception)
+	{
+	    // Handled below
+	}
+
+	// Inform the user
+	Toast.makeText(mContext, R.string.toast_sensor_invalid_expression,
+		Toast.LENGTH_LONG).show();
+
+	return false;
+    }
+
     private boolean validateFrequency(int _frequency)
     {
 	if (_frequency == 0)
@@ -90,6 +147,54 @@ public class IodIOIOSensorValidator
 	return true;
     }
 
+    private boolean validateOversamplingCount(int _oversamplingCount)
+    {
+	if (_oversamplingCount < 1
+		|| _oversamplingCount > IodIOIOSensor.MAX_OVERSAMPLING_COUNT)
+	{
+	    // Inform the user
+	    Toast.makeText(mContext,
+		    R.string.toast_sensor_invalid_oversampling_count,
+		    Toast.LENGTH_LONG).show();
+
+	    return false;
+	}
+
+	return true;
+    }
+
+    private boolean validateDeadband(int _deadbandType,
+				     double _deadband,
+				     int _heartbeat)
+    {
+	if ((_deadbandType != IodIOIOSensor.DEADBAND_TYPE_OFF && _deadband <= 0)
+		|| _heartbeat < 0)
+	{
+	    // Inform the user
+	    Toast.makeText(mContext, R.string.toast_sensor_invalid_deadband,
+		    Toast.LENGTH_LONG).show();
+
+	    return false;
+	}
+
+	return true;
+    }
+
+    private boolean validateCompressionDeviation(double _compressionDeviation)
+    {
+	if (_compressionDeviation < 0)
+	{
+	    // Inform the user
+	    Toast.makeText(mContext,
+		    R.string.toast_sensor_invalid_compression_deviation,
+		    Toast.LENGTH_LONG).show();
+
+	    return false;
+	}
+
+	return true;
+    }
+
     private boolean validateName(String _name)
     {
 	if (_name.equals(""))
@@ -106,6 +211,7 @@ public class IodIOIOSensorValidator
 
     private boolean validatePinNumber(int _pinNumber,
 				      int _inputType,
+				      String _board,
 				      int _sensorID)
     {
 	// Check for IOIO V1
@@ -156,11 +262,11 @@ public class IodIOIOSensorValidator
 	}
 
 	/*
-	 * Check if the pin number is already used by another sensor saved in
-	 * the database
+	 * Check if the pin number is already used by another sensor on the same
+	 * board saved in the database
 	 */
 	IodDatabaseManager dbm = new IodDatabaseManager(mContext);
-	if (dbm.isPinNumberInUse(_pinNumber, _sensorID))
+	if (dbm.isPinNumberInUse(_pinNumber, _board, _sensorID))
 	{
 	    return false;
 	}
@@ -168,10 +274,78 @@ public class IodIOIOSensorValidator
 	return true;
     }
 
-    private boolean validateThreshold(int _measurementType, double _threshold)
+    private boolean validateSnapshotGroup(IodIOIOSensor _sensor)
     {
-	if (_measurementType == IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE
-		&& _threshold > 3.3)
+	if (_sensor.getSnapshotGroup() == IodIOIOSensor.SNAPSHOT_GROUP_NONE)
+	{
+	    return true;
+	}
+
+	// Only sensors read with one value per tick can join a snapshot
+	boolean readsOnce = _sensor.getInputType() == IodIOIOSensor.INPUT_TYPE_DIGITAL
+		|| (_sensor.getInputType() == IodIOIOSensor.INPUT_TYPE_ANALOG && !_sensor
+			.isBuffered());
+
+	if (_sensor.getSnapshotGroup() < 0 || !readsOnce
+		|| _sensor.getOversamplingCount() > 1)
+	{
+	    // Inform the user
+	    Toast.makeText(mContext,
+		    R.string.toast_sensor_invalid_snapshot_group,
+		    Toast.LENGTH_LONG).show();
+
+	    return false;
+	}
+
+	/*
+	 * Check if another sensor of the group saved in the database is bound to
+	 * a different board or has a different frequency
+	 */
+	IodDatabaseManager dbm = new IodDatabaseManager(mContext);
+	if (dbm.isSnapshotGroupMismatch(_sensor.getSnapshotGroup(),
+		_sensor.getBoard(), _sensor.getFrequency(),
+		_sensor.getTimeUnit(), _sensor.getSensorID()))
+	{
+	    return false;
+	}
+
+	return true;
+    }
+
+    private boolean validateThreshold(int _measurementType,
+				      int _calibrationType,
+				      double _threshold)
+    {
+	// Derived and calibrated sensors compute values of any range
+	if (_measurementType == IodIOIOSensor.MEASUREMENT_TYPE_EXPRESSION
+		|| _calibrationType != IodIOIOSensor.CALIBRATION_TYPE_NONE)
+	{
+	    return true;
+	}
+
+	// Pulse sensors measure widths, frequencies and counts; any
+	// non-negative threshold is valid
+	if (_measurementType == IodIOIOSensor.MEASUREMENT_TYPE_PULSE_WIDTH
+		|| _measurementType == IodIOIOSensor.MEASUREMENT_TYPE_FREQUENCY
+		|| _measurementType == IodIOIOSensor.MEASUREMENT_TYPE_COUNTER)
+	{
+	    if (_threshold < 0)
+	    {
+		// Inform the user
+		Toast.makeText(mContext, R.string.toast_sensor_threshold_pulse,
+			Toast.LENGTH_LONG).show();
+
+		return false;
+	    }
+
+	    return true;
+	}
+
+	// Absolute and buffered sensors measure voltages
+	boolean isVoltage = _measurementType == IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE
+		|| _measurementType == IodIOIOSensor.MEASUREMENT_TYPE_BUFFERED;
+
+	if (isVoltage && _threshold > 3.3)
 	{
 	    // Inform the user
 	    Toast.makeText(mContext, R.string.toast_sensor_threshold_absolute,
@@ -180,8 +354,7 @@ public class IodIOIOSensorValidator
 	    return false;
 	}
 
-	if (_measurementType != IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE
-		&& _threshold >= 1)
+	if (!isVoltage && _threshold >= 1)
 	{
 	    // Inform the user
 	    Toast.makeText(mContext, R.string.toast_sensor_threshold_relative,
@@ -211,25 +384,73 @@ public class IodIOIOSensorValidator
 	    return false;
 	}
 	/*
-	 * Check pin number; must be between 1 and 48 (V1) or 1 and 46 (OTG);
-	 * must be between 31 and 46 if input type is analog
+	 * Check expression of derived sensors; must be valid and reference
+	 * other sensors. Derived sensors have no pin and are computed whenever
+	 * a referenced sensor is measured.
 	 */
-	if (!validatePinNumber(_sensor.getPinNumber(), _sensor.getInputType(),
-		_sensor.getSensorID()))
+	if (_sensor.isDerived())
+	{
+	    if (!validateExpression(_sensor.getExpression(),
+		    _sensor.getSensorID()))
+	    {
+		return false;
+	    }
+	}
+	else
+	{
+	    /*
+	     * Check pin number; must be between 1 and 48 (V1) or 1 and 46
+	     * (OTG); must be between 31 and 46 if input type is analog
+	     */
+	    if (!validatePinNumber(_sensor.getPinNumber(),
+		    _sensor.getInputType(), _sensor.getBoard(),
+		    _sensor.getSensorID()))
+	    {
+		return false;
+	    }
+	    // Check frequency; must not be 0
+	    if (!validateFrequency(_sensor.getFrequency()))
+	    {
+		return false;
+	    }
+	}
+	// Check oversampling count; must be between 1 and 1024
+	if (!validateOversamplingCount(_sensor.getOversamplingCount()))
 	{
 	    return false;
 	}
-	// Check frequency; must not be 0
-	if (!validateFrequency(_sensor.getFrequency()))
+	/*
+	 * Check snapshot group; only analog and digital sensors without
+	 * buffering or oversampling, all on the same board with the same
+	 * frequency
+	 */
+	if (!validateSnapshotGroup(_sensor))
+	{
+	    return false;
+	}
+	// Check calibration; must compile if a calibration type is selected
+	if (!validateCalibration(_sensor.getCalibrationType(),
+		_sensor.getCalibration()))
 	{
 	    return false;
 	}
 	/*
 	 * Check threshold; must be < 3.3 for measurement type absolute or < 1
-	 * otherwise
+	 * otherwise, unless the sensor is calibrated into other units
 	 */
 	if (!validateThreshold(_sensor.getMeasurementType(),
-		_sensor.getThreshold()))
+		_sensor.getCalibrationType(), _sensor.getThreshold()))
+	{
+	    return false;
+	}
+	// Check deadband; must be > 0 if a deadband type is selected
+	if (!validateDeadband(_sensor.getDeadbandType(), _sensor.getDeadband(),
+		_sensor.getHeartbeat()))
+	{
+	    return false;
+	}
+	// Check compression deviation; must be >= 0
+	if (!validateCompressionDeviation(_sensor.getCompressionDeviation()))
 	{
 	    return false;
 	}
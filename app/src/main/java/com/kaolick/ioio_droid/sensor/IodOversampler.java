@@ -0,0 +1,113 @@
+package com.kaolick.ioio_droid.sensor;
+
+import java.util.Arrays;
+
+/**
+ * Collects the samples of one measuring period of an oversampled
+ * {@link IodIOIOSensor} and reduces them to a single value. The samples are
+ * kept in a buffer allocated once, so collecting and reducing does not create
+ * any objects.
+ * 
+ * @author kaolick
+ */
+public class IodOversampler
+{
+    // The samples of the current period
+    private final float[] mSamples;
+    private int mSampleCount;
+
+    // The reducer; one of the IodIOIOSensor.REDUCER_* values
+    private final int mReducer;
+
+    /**
+     * Class constructor.
+     * 
+     * @param _sensor
+     *            The {@link IodIOIOSensor} with the oversampling configuration
+     */
+    public IodOversampler(IodIOIOSensor _sensor)
+    {
+	this.mSamples = new float[Math.max(1, _sensor.getOversamplingCount())];
+	this.mReducer = _sensor.getOversamplingReducer();
+    }
+
+    /**
+     * Adds a sample to the current period.
+     * 
+     * @param _sample
+     *            The measured sample
+     */
+    public void add(float _sample)
+    {
+	if (mSampleCount < mSamples.length)
+	{
+	    mSamples[mSampleCount++] = _sample;
+	}
+    }
+
+    /**
+     * Discards the samples of the current period and starts a new period.
+     */
+    public void clear()
+    {
+	mSampleCount = 0;
+    }
+
+    /**
+     * Reduces the samples of the current period to one value and starts a new
+     * period.
+     * 
+     * @return The reduced value; -1 if there are no samples.
+     */
+    public float reduce()
+    {
+	int count = mSampleCount;
+	mSampleCount = 0;
+
+	if (count == 0)
+	{
+	    return -1;
+	}
+
+	switch (mReducer)
+	{
+	case IodIOIOSensor.REDUCER_MEDIAN:
+	    // Sorting a primitive range does not allocate
+	    Arrays.sort(mSamples, 0, count);
+	    if (count % 2 == 1)
+	    {
+		return mSamples[count / 2];
+	    }
+	    return (mSamples[count / 2 - 1] + mSamples[count / 2]) / 2;
+	case IodIOIOSensor.REDUCER_MIN:
+	    float min = mSamples[0];
+	    for (int i = 1; i < count; i++)
+	    {
+		min = Math.min(min, mSamples[i]);
+	    }
+	    return min;
+	case IodIOIOSensor.REDUCER_MAX:
+	    float max = mSamples[0];
+	    for (int i = 1; i < count; i++)
+	    {
+		max = Math.max(max, mSamples[i]);
+	    }
+	    return max;
+	case IodIOIOSensor.REDUCER_RMS:
+	    double squares = 0;
+	    for (int i = 0; i < count; i++)
+	    {
+		squares += mSamples[i] * mSamples[i];
+	    }
+	    return (float) Math.sqrt(squares / count);
+	case IodIOIOSensor.REDUCER_MEAN:
+	default:
+	    double sum = 0;
+	    for (int i = 0; i < count; i++)
+	    {
+		sum += mSamples[i];
+	    }
+	    return (float) (sum / count);
+	}
+    }
+}
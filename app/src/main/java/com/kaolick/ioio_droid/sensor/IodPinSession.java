@@ -0,0 +1,507 @@
+package com.kaolick.ioio_droid.sensor;
+
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.exception.ConnectionLostException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps the IOIO pin of a {@link IodIOIOSensor} open across measurements. The
+ * pin is opened once and its handle gets reused for every measurement; it is
+ * only re-opened after a {@link ConnectionLostException} or after the sensor's
+ * configuration changed.
+ * <p>
+ * A session also keeps track of the time needed for reading values, so the
+ * round trips saved compared to opening and closing the pin for every single
+ * measurement can be logged. The comparison needs one extra measurement the
+ * old way, which is only made while debug logging is enabled, see
+ * {@link #measureBaseline(IOIO)}.
+ * 
+ * @author kaolick
+ */
+public class IodPinSession
+{
+    // Logging tag
+    private static final String TAG = "IodPinSession";
+
+    // The sensor
+    private IodIOIOSensor mSensor;
+
+    // The open pin handles; only one of them is used at a time
+    private AnalogInput mAnalogInput;
+    private DigitalInput mDigitalInput;
+    private PulseInput mPulseInput;
+
+    // Pulse attributes; the PulseInput blocks until the first pulse, so the
+    // first read is done by a priming thread
+    private Thread mPulsePrimer;
+    private volatile boolean isPulseValid;
+    private double mPulseCount;
+    private long mLastCountMillis;
+
+    // The sample rate of a buffered analog input (in Hz)
+    private float mSampleRate;
+
+    // Latency attributes (in nanoseconds)
+    private long mBaselineNanos = -1;
+    private long mOpenNanos = -1;
+    private long mReadNanosTotal;
+    private int mReadCount;
+
+    /**
+     * Class constructor.
+     * 
+     * @param _sensor
+     *            The {@link IodIOIOSensor} whose pin is handled by this session
+     */
+    public IodPinSession(IodIOIOSensor _sensor)
+    {
+	this.mSensor = _sensor;
+    }
+
+    // *************** Pin handling ***************
+
+    /**
+     * Makes one measurement the old way (open, read, close) as the baseline of
+     * the latency log. This costs the round trips the session saves, so it is
+     * only done while debug logging is enabled for the session's tag, f.e.
+     * with <code>adb shell setprop log.tag.IodPinSession DEBUG</code>. The
+     * measured value is not saved. Must be called before the pin is opened.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     */
+    public synchronized void measureBaseline(IOIO _ioio)
+    {
+	if (!Log.isLoggable(TAG, Log.DEBUG) || isOpen()
+		|| mBaselineNanos != -1)
+	{
+	    return;
+	}
+
+	long start = System.nanoTime();
+	mSensor.measureValue(_ioio);
+	mBaselineNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Opens the sensor's pin according to the sensor's configuration.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    public synchronized void open(IOIO _ioio) throws ConnectionLostException
+    {
+	// Already open
+	if (isOpen())
+	{
+	    return;
+	}
+
+	long start = System.nanoTime();
+
+	switch (mSensor.getInputType())
+	{
+	case IodIOIOSensor.INPUT_TYPE_ANALOG:
+	    mAnalogInput = _ioio.openAnalogInput(mSensor.getPinNumber());
+
+	    // Let the IOIO sample continuously into the input's buffer
+	    if (mSensor.isBuffered())
+	    {
+		mAnalogInput.setBuffer(IodIOIOSensor.ANALOG_BUFFER_CAPACITY);
+		mSampleRate = mAnalogInput.getSampleRate();
+	    }
+	    break;
+	case IodIOIOSensor.INPUT_TYPE_DIGITAL:
+	case IodIOIOSensor.INPUT_TYPE_DIGITAL_EVENT:
+	    mDigitalInput = mSensor.openDigitalInput(_ioio);
+	    break;
+	case IodIOIOSensor.INPUT_TYPE_PULSE:
+	    mPulseInput = mSensor.openPulseInput(_ioio);
+	    startPulsePrimer();
+	    break;
+	default:
+	    break;
+	}
+
+	mOpenNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Closes the sensor's pin and logs the session's latency values.
+     */
+    public synchronized void close()
+    {
+	closeHandles();
+	logLatency();
+    }
+
+    /**
+     * Closes the open pin handles without logging.
+     */
+    private void closeHandles()
+    {
+	if (mAnalogInput != null)
+	{
+	    // Log samples that were lost because the buffer was full
+	    if (mSensor.isBuffered())
+	    {
+		try
+		{
+		    int overflows = mAnalogInput.getOverflowCount();
+		    if (overflows > 0)
+		    {
+			Log.w(TAG, "Sensor " + mSensor.getSensorID() + ": "
+				+ overflows + " buffered samples lost");
+		    }
+		}
+		catch (ConnectionLostException _exception)
+		{
+		    // Nothing to log without a connection
+		}
+	    }
+
+	    mAnalogInput.close();
+	    mAnalogInput = null;
+	}
+
+	if (mDigitalInput != null)
+	{
+	    mDigitalInput.close();
+	    mDigitalInput = null;
+	}
+
+	if (mPulseInput != null)
+	{
+	    if (mPulsePrimer != null)
+	    {
+		mPulsePrimer.interrupt();
+		mPulsePrimer = null;
+	    }
+
+	    mPulseInput.close();
+	    mPulseInput = null;
+	    isPulseValid = false;
+	}
+    }
+
+    /**
+     * Starts a thread waiting for the first pulse of the open
+     * {@link PulseInput}. Until then, reading the input would block the
+     * measuring thread.
+     */
+    private void startPulsePrimer()
+    {
+	final PulseInput pulseInput = mPulseInput;
+
+	mPulsePrimer = new Thread("IodPulsePrimer-" + mSensor.getSensorID())
+	{
+	    @Override
+	    public void run()
+	    {
+		try
+		{
+		    mSensor.readPulseValue(pulseInput);
+		    isPulseValid = true;
+		}
+		catch (InterruptedException _exception)
+		{
+		    // The pin was closed before the first pulse
+		}
+		catch (ConnectionLostException _exception)
+		{
+		    // The connection was lost before the first pulse
+		}
+		catch (IllegalStateException _exception)
+		{
+		    // The pin was closed before the first pulse
+		}
+	    }
+	};
+	mPulsePrimer.setDaemon(true);
+	mPulsePrimer.start();
+    }
+
+    /**
+     * Checks whether the sensor's pin is currently open.
+     * 
+     * @return <code>true</code> if the pin is open, <code>false</code>
+     *         otherwise.
+     */
+    public synchronized boolean isOpen()
+    {
+	return mAnalogInput != null || mDigitalInput != null
+		|| mPulseInput != null;
+    }
+
+    /**
+     * Replaces the session's sensor configuration. The pin gets closed and is
+     * re-opened with the new configuration on the next measurement.
+     * 
+     * @param _sensor
+     *            The sensor with the new configuration
+     */
+    public synchronized void reconfigure(IodIOIOSensor _sensor)
+    {
+	closeHandles();
+	this.mSensor = _sensor;
+    }
+
+    // *************** Measuring ***************
+
+    /**
+     * Measures the sensor's value with the open pin handle. If the pin is not
+     * open yet (or was closed because the connection got lost), it gets
+     * opened first.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @return The measured value if using {@link AnalogInput} or
+     *         {@link PulseInput}, 0 or 1 if using {@link DigitalInput}, or -1
+     *         if measuring failed.
+     */
+    public synchronized float measureValue(IOIO _ioio)
+    {
+	// Return value; set to -1
+	float value = -1;
+
+	try
+	{
+	    // (Re-)open the pin if necessary
+	    open(_ioio);
+
+	    long start = System.nanoTime();
+
+	    if (mAnalogInput != null)
+	    {
+		value = mSensor.readAnalogValue(mAnalogInput);
+	    }
+	    else if (mDigitalInput != null)
+	    {
+		value = mDigitalInput.read() ? 1 : 0;
+	    }
+	    else if (mPulseInput != null)
+	    {
+		value = readPulseValue();
+	    }
+
+	    mReadNanosTotal += System.nanoTime() - start;
+	    mReadCount++;
+	}
+	catch (ConnectionLostException _exception)
+	{
+	    Log.w(TAG, "Sensor " + mSensor.getSensorID() + ": connection lost",
+		    _exception);
+
+	    // The handles are useless now; re-open on the next measurement
+	    closeHandles();
+	}
+	catch (InterruptedException _exception)
+	{
+	    Log.w(TAG, "Sensor " + mSensor.getSensorID() + ": interrupted",
+		    _exception);
+
+	    // Let the caller see the interrupt
+	    Thread.currentThread().interrupt();
+	}
+
+	return value;
+    }
+
+    /**
+     * Reads the open {@link PulseInput}. Before the first pulse, frequency and
+     * counter sensors read 0 and pulse width sensors have no value. Counter
+     * sensors integrate the frequency measured by the <code>IOIO</code> over
+     * the time since the last read.
+     * 
+     * @return The pulse width, frequency or pulse count; -1 if there is no
+     *         value yet.
+     * @throws InterruptedException
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    private float readPulseValue() throws InterruptedException,
+				  ConnectionLostException
+    {
+	float value;
+
+	if (isPulseValid)
+	{
+	    value = mSensor.readPulseValue(mPulseInput);
+	}
+	else if (mSensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_PULSE_WIDTH)
+	{
+	    return -1;
+	}
+	else
+	{
+	    value = 0;
+	}
+
+	if (mSensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_COUNTER)
+	{
+	    long now = SystemClock.elapsedRealtime();
+
+	    if (mLastCountMillis > 0)
+	    {
+		mPulseCount += value * (now - mLastCountMillis) / 1000.0;
+	    }
+
+	    mLastCountMillis = now;
+	    value = (float) mPulseCount;
+	}
+
+	return value;
+    }
+
+    /**
+     * Blocks until the sensor's digital input has the given value. The
+     * session's lock is not held while waiting; interrupt the waiting thread
+     * before closing the session.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @param _value
+     *            The value to wait for
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost or the
+     *             pin was closed
+     * @throws InterruptedException
+     *             if the waiting thread was interrupted
+     */
+    public void waitForValue(IOIO _ioio, boolean _value)
+	    throws ConnectionLostException, InterruptedException
+    {
+	DigitalInput digitalInput;
+
+	synchronized (this)
+	{
+	    // (Re-)open the pin if necessary
+	    open(_ioio);
+	    digitalInput = mDigitalInput;
+	}
+
+	if (digitalInput == null)
+	{
+	    throw new ConnectionLostException();
+	}
+
+	digitalInput.waitForValue(_value);
+    }
+
+    /**
+     * Drains the buffer of a buffered analog sensor in one go. Only the values
+     * already sampled by the <code>IOIO</code> are read, so this does not
+     * block.
+     * 
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @param _values
+     *            The array the voltages are written to, oldest first
+     * @return The number of values read; 0 if measuring failed.
+     */
+    public synchronized int readBlock(IOIO _ioio, float[] _values)
+    {
+	int count = 0;
+
+	try
+	{
+	    // (Re-)open the pin if necessary
+	    open(_ioio);
+
+	    if (mAnalogInput == null)
+	    {
+		return 0;
+	    }
+
+	    long start = System.nanoTime();
+
+	    int available = Math.min(mAnalogInput.available(), _values.length);
+	    for (; count < available; count++)
+	    {
+		_values[count] = mAnalogInput.getVoltageBuffered();
+	    }
+
+	    mReadNanosTotal += System.nanoTime() - start;
+	    mReadCount += count;
+	}
+	catch (ConnectionLostException _exception)
+	{
+	    Log.w(TAG, "Sensor " + mSensor.getSensorID() + ": connection lost",
+		    _exception);
+
+	    // The handles are useless now; re-open on the next measurement
+	    closeHandles();
+	}
+	catch (InterruptedException _exception)
+	{
+	    Log.w(TAG, "Sensor " + mSensor.getSensorID() + ": interrupted",
+		    _exception);
+
+	    // Let the caller see the interrupt
+	    Thread.currentThread().interrupt();
+	}
+
+	return count;
+    }
+
+    /**
+     * Gets the rate at which the <code>IOIO</code> samples a buffered analog
+     * input.
+     * 
+     * @return The sample rate in Hz; 0 if the pin is not open or not
+     *         buffered.
+     */
+    public synchronized float getSampleRate()
+    {
+	return mAnalogInput != null ? mSampleRate : 0;
+    }
+
+    // *************** Latency ***************
+
+    /**
+     * Gets the average time needed for reading a value with the open pin
+     * handle.
+     * 
+     * @return The average read time in microseconds; -1 if no value has been
+     *         read yet.
+     */
+    public synchronized long getAverageReadMicros()
+    {
+	if (mReadCount == 0)
+	{
+	    return -1;
+	}
+
+	return mReadNanosTotal / mReadCount / 1000;
+    }
+
+    /**
+     * Logs the time needed for one measurement when opening and closing the
+     * pin each time (before, if measured) compared to reading with the open
+     * handle (after).
+     */
+    private void logLatency()
+    {
+	if (mReadCount == 0)
+	{
+	    return;
+	}
+
+	// The baseline is only measured while debugging
+	String baseline = mBaselineNanos == -1 ? ""
+		: "open/read/close per sample " + mBaselineNanos / 1000
+			+ " us, ";
+
+	Log.i(TAG, "Sensor " + mSensor.getSensorID() + " (pin "
+		+ mSensor.getPinNumber() + "): " + baseline + "open once "
+		+ mOpenNanos / 1000 + " us, read with open pin "
+		+ getAverageReadMicros() + " us (average of " + mReadCount
+		+ " samples)");
+    }
+}
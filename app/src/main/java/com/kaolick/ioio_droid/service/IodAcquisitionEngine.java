@@ -0,0 +1,601 @@
+package com.kaolick.ioio_droid.service;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.os.SystemClock;
+
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.sensor.IodOversampler;
+import com.kaolick.ioio_droid.sensor.IodPinSession;
+import com.kaolick.ioio_droid.stats.IodSamplingStats;
+import com.kaolick.ioio_droid.store.IodClock;
+
+/**
+ * Owns the hardware timing of a measuring process. The engine is driven by the
+ * <code>IOIO</code> looper thread: each call of {@link #loop()} waits for the
+ * next due sensors, reads them back to back on the calling thread and offers
+ * the measured values to an {@link IodStorageWriter}. This way only one
+ * thread talks to the <code>IOIO</code>, and it never waits for the database.
+ * <p>
+ * The lateness and read duration of every sample are recorded in the sensor's
+ * {@link IodSamplingStats}. Each sensor follows its own
+ * {@link IodTickSchedule}, so a stalled read does not cause a burst of
+ * catch-up reads unless the sensor's overrun policy asks for it.
+ * <p>
+ * The engine outlives the connection: after a reconnect,
+ * {@link #reconnect(IOIO, List, long)} hands it the new pins and every sensor
+ * resumes on its original tick grid instead of all sensors firing at once.
+ * Sensors can be added and removed between two {@link #loop()} calls, so a
+ * changed sensor configuration is applied without pausing the other sensors.
+ * <p>
+ * The sensors of a snapshot group share one schedule: on each of the group's
+ * ticks they are read back to back and their values get the same timestamp.
+ * The values are offered only after the whole group was read, and the writer
+ * assembles them into one row. The <code>IOIO</code> reports no sample times,
+ * so the time between the group's first and last read is only bounded by the
+ * group's read duration in its {@link IodSamplingStats}.
+ *
+ * @author kaolick
+ */
+public class IodAcquisitionEngine
+{
+    // Maximum time to wait in one loop() call (in milliseconds)
+    private static final long MAX_WAIT = 100;
+
+    // Maximum time between draining the buffer of a buffered analog sensor
+    // (in milliseconds); keeps the IOIO's buffer from overflowing
+    private static final long MAX_DRAIN_PERIOD = 250;
+
+    // General attributes
+    private IOIO mIOIO;
+    private IodStorageWriter mStorageWriter;
+
+    // The sensors ordered by their next due time
+    private PriorityQueue<ScheduledSensor> mQueue;
+
+    // Sensors read in the current loop() call; reused
+    private List<ScheduledSensor> mDueSensors;
+
+    /**
+     * Class constructor.
+     *
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @param _storageWriter
+     *            The {@link IodStorageWriter} saving the measured values
+     */
+    public IodAcquisitionEngine(IOIO _ioio, IodStorageWriter _storageWriter)
+    {
+	this.mIOIO = _ioio;
+	this.mStorageWriter = _storageWriter;
+	this.mQueue = new PriorityQueue<ScheduledSensor>();
+	this.mDueSensors = new ArrayList<ScheduledSensor>();
+    }
+
+    // *************** Sensors ***************
+
+    /**
+     * Adds a sensor to the engine. Its first measurement is due immediately.
+     *
+     * @param _sensor
+     *            The {@link IodIOIOSensor}
+     * @param _pinSession
+     *            The {@link IodPinSession} with the sensor's open pin
+     * @param _slot
+     *            The sensor's slot at the {@link IodStorageWriter}
+     */
+    public void addSensor(IodIOIOSensor _sensor,
+			  IodPinSession _pinSession,
+			  int _slot)
+    {
+	long period = (long) _sensor.getFrequency() * _sensor.getTimeUnit();
+
+	// Sensors of a snapshot group are read on the group's tick
+	if (_sensor.getSnapshotGroup() != IodIOIOSensor.SNAPSHOT_GROUP_NONE)
+	{
+	    addToSnapshot(_sensor, _pinSession, _slot, period);
+	    return;
+	}
+
+	// Buffered sensors are drained often enough to avoid overflows
+	if (_sensor.isBuffered())
+	{
+	    period = Math.min(period, MAX_DRAIN_PERIOD);
+	}
+	// Oversampled sensors are sampled evenly across their period
+	else if (_sensor.getOversamplingCount() > 1)
+	{
+	    period = Math.max(1, period / _sensor.getOversamplingCount());
+	}
+
+	// A drain reads all values sampled since the last one, so missed
+	// drains are always coalesced
+	int policy = _sensor.isBuffered() ? IodIOIOSensor.OVERRUN_POLICY_COALESCE
+		: _sensor.getOverrunPolicy();
+
+	mQueue.add(new ScheduledSensor(_sensor, _pinSession, _slot,
+		new IodTickSchedule(period, policy,
+			SystemClock.elapsedRealtime()),
+		IodSamplingStats.register(_sensor, period)));
+    }
+
+    /**
+     * Adds a sensor to its snapshot group. The group's first sensor starts
+     * the group's schedule; its first snapshot is due immediately.
+     *
+     * @param _sensor
+     *            The {@link IodIOIOSensor}
+     * @param _pinSession
+     *            The {@link IodPinSession} with the sensor's open pin
+     * @param _slot
+     *            The sensor's slot at the {@link IodStorageWriter}
+     * @param _period
+     *            The sensor's period (in milliseconds)
+     */
+    private void addToSnapshot(IodIOIOSensor _sensor,
+			       IodPinSession _pinSession,
+			       int _slot,
+			       long _period)
+    {
+	int group = _sensor.getSnapshotGroup();
+	ScheduledSensor snapshot = null;
+
+	for (ScheduledSensor current : mQueue)
+	{
+	    if (current.group == group)
+	    {
+		snapshot = current;
+		break;
+	    }
+	}
+
+	if (snapshot == null)
+	{
+	    snapshot = new ScheduledSensor(group, new IodTickSchedule(_period,
+		    _sensor.getOverrunPolicy(), SystemClock.elapsedRealtime()),
+		    IodSamplingStats.registerSnapshot(group, _period));
+	    mQueue.add(snapshot);
+	}
+
+	// The members are not scheduled themselves
+	snapshot.members.add(new ScheduledSensor(_sensor, _pinSession, _slot,
+		null, IodSamplingStats.register(_sensor, _period)));
+    }
+
+    /**
+     * Removes a sensor from the engine. Its pin is not closed.
+     *
+     * @param _slot
+     *            The sensor's slot at the {@link IodStorageWriter}
+     * @return <code>true</code> if the sensor was handled by the engine.
+     */
+    public boolean removeSensor(int _slot)
+    {
+	for (ScheduledSensor current : mQueue)
+	{
+	    if (current.members == null)
+	    {
+		if (current.slot == _slot)
+		{
+		    return mQueue.remove(current);
+		}
+
+		continue;
+	    }
+
+	    for (int i = 0; i < current.members.size(); i++)
+	    {
+		if (current.members.get(i).slot == _slot)
+		{
+		    current.members.remove(i);
+
+		    // An empty snapshot group is not read any more
+		    if (current.members.isEmpty())
+		    {
+			mQueue.remove(current);
+		    }
+
+		    return true;
+		}
+	    }
+	}
+
+	return false;
+    }
+
+    /**
+     * Continues measuring after the <code>IOIO</code> reconnected. The
+     * sensors get their new pins and resume at their original phase; the
+     * ticks missed while disconnected are dropped. The time from the
+     * reconnect to each sensor's first sample is recorded in its
+     * {@link IodSamplingStats}.
+     *
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @param _pinSessions
+     *            The new {@link IodPinSession}s by storage slot
+     * @param _connectedAt
+     *            The time of the reconnect (as returned by
+     *            {@link SystemClock#elapsedRealtime()})
+     */
+    public void reconnect(IOIO _ioio,
+			  List<IodPinSession> _pinSessions,
+			  long _connectedAt)
+    {
+	this.mIOIO = _ioio;
+
+	long now = SystemClock.elapsedRealtime();
+	List<ScheduledSensor> sensors = new ArrayList<ScheduledSensor>(mQueue);
+	mQueue.clear();
+
+	for (ScheduledSensor current : sensors)
+	{
+	    if (current.members != null)
+	    {
+		for (ScheduledSensor member : current.members)
+		{
+		    member.pinSession = _pinSessions.get(member.slot);
+		}
+	    }
+	    else
+	    {
+		current.pinSession = _pinSessions.get(current.slot);
+	    }
+	    current.schedule.resume(now);
+	    current.connectedAt = _connectedAt;
+
+	    // Samples from before the gap are not reduced with later ones
+	    if (current.oversampler != null)
+	    {
+		current.samples = 0;
+		current.oversampler.clear();
+	    }
+
+	    mQueue.add(current);
+	}
+    }
+
+    /**
+     * Gets the number of sensors handled by the engine.
+     *
+     * @return the number of sensors.
+     */
+    public int getSensorCount()
+    {
+	int count = 0;
+
+	for (ScheduledSensor current : mQueue)
+	{
+	    count += current.members != null ? current.members.size() : 1;
+	}
+
+	return count;
+    }
+
+    // *************** Acquisition ***************
+
+    /**
+     * Waits until the next sensors are due, measures all due sensors back to
+     * back and offers the values for saving. Returns after at most
+     * {@link #MAX_WAIT} milliseconds if no sensor is due.
+     *
+     * @throws InterruptedException
+     *             if the looper thread was interrupted while waiting
+     */
+    public void loop() throws InterruptedException
+    {
+	// Nothing to measure
+	if (mQueue.isEmpty())
+	{
+	    Thread.sleep(MAX_WAIT);
+	    return;
+	}
+
+	// Wait for the next due sensor
+	long now = SystemClock.elapsedRealtime();
+	long wait = mQueue.peek().schedule.getNextRun() - now;
+	if (wait > 0)
+	{
+	    Thread.sleep(Math.min(wait, MAX_WAIT));
+	    return;
+	}
+
+	// Collect all due sensors
+	while (!mQueue.isEmpty() && mQueue.peek().schedule.getNextRun() <= now)
+	{
+	    mDueSensors.add(mQueue.poll());
+	}
+
+	// Read the due sensors back to back
+	for (int i = 0; i < mDueSensors.size(); i++)
+	{
+	    ScheduledSensor current = mDueSensors.get(i);
+
+	    long readTime = SystemClock.elapsedRealtime();
+	    long lateness = readTime - current.schedule.getNextDue();
+	    long start = System.nanoTime();
+
+	    // Timestamp the value with the time it was read
+	    long timestamp = IodClock.toWallTime(readTime);
+
+	    // Read the sensors of a snapshot group together
+	    if (current.members != null)
+	    {
+		readSnapshot(current, current.schedule.getNextDue(), timestamp);
+	    }
+	    // Drain the buffer of buffered sensors block-wise
+	    else if (current.block != null)
+	    {
+		drainBlock(current);
+	    }
+	    // Collect the samples of oversampled sensors and save the reduced
+	    // value once the period is complete
+	    else if (current.oversampler != null)
+	    {
+		float sample = current.pinSession.measureValue(mIOIO);
+		if (sample != -1)
+		{
+		    current.oversampler.add(sample);
+		}
+
+		if (++current.samples == current.sensor.getOversamplingCount())
+		{
+		    current.samples = 0;
+		    offer(current, timestamp, current.oversampler.reduce());
+		}
+	    }
+	    else
+	    {
+		offer(current, timestamp,
+			current.pinSession.measureValue(mIOIO));
+	    }
+
+	    current.stats.record(lateness * 1000,
+		    (System.nanoTime() - start) / 1000);
+
+	    // The first sample after a reconnect
+	    if (current.connectedAt != 0)
+	    {
+		current.stats.recordReconnect((readTime - current.connectedAt)
+			* 1000);
+		current.connectedAt = 0;
+	    }
+
+	    // Schedule the sensor's next measurement; count the ticks lost to an
+	    // overrun
+	    long skipped = current.schedule.advance(SystemClock
+		    .elapsedRealtime());
+	    if (skipped > 0)
+	    {
+		current.stats.recordOverrun(skipped);
+	    }
+	    mQueue.add(current);
+	}
+
+	mDueSensors.clear();
+    }
+
+    /**
+     * Offers a measured value to the {@link IodStorageWriter}. Failed
+     * measurements are not offered.
+     * 
+     * @param _sensor
+     *            The measured sensor
+     * @param _timestamp
+     *            The time of the measurement (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
+     * @param _value
+     *            The measured value
+     */
+    private void offer(ScheduledSensor _sensor, long _timestamp, float _value)
+    {
+	if (_value != -1)
+	{
+	    mStorageWriter.offer(_sensor.slot, _timestamp, _value);
+	}
+    }
+
+    /**
+     * Reads the sensors of a snapshot group back to back and offers their
+     * values with the same timestamp, followed by the end of the snapshot.
+     * The values are collected first and offered only after the whole group
+     * was read, so a lost connection leaves no partial snapshot behind.
+     * 
+     * @param _snapshot
+     *            The due snapshot group
+     * @param _due
+     *            The time the snapshot was due (as returned by
+     *            {@link SystemClock#elapsedRealtime()})
+     * @param _timestamp
+     *            The time of the snapshot (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     */
+    private void readSnapshot(ScheduledSensor _snapshot,
+			      long _due,
+			      long _timestamp)
+    {
+	List<ScheduledSensor> members = _snapshot.members;
+
+	if (_snapshot.values == null
+		|| _snapshot.values.length != members.size())
+	{
+	    _snapshot.values = new float[members.size()];
+	}
+
+	try
+	{
+	    // (Re-)open the pins if necessary
+	    for (int i = 0; i < members.size(); i++)
+	    {
+		members.get(i).pinSession.open(mIOIO);
+	    }
+
+	    for (int i = 0; i < members.size(); i++)
+	    {
+		ScheduledSensor member = members.get(i);
+		long start = System.nanoTime();
+
+		_snapshot.values[i] = member.pinSession.measureValue(mIOIO);
+
+		member.stats.record(
+			(SystemClock.elapsedRealtime() - _due) * 1000,
+			(System.nanoTime() - start) / 1000);
+	    }
+	}
+	catch (ConnectionLostException _exception)
+	{
+	    // The looper reconnects; the incomplete snapshot is dropped
+	    return;
+	}
+
+	for (int i = 0; i < members.size(); i++)
+	{
+	    offer(members.get(i), _timestamp, _snapshot.values[i]);
+	}
+
+	mStorageWriter.offerSnapshot(_snapshot.group, _timestamp);
+    }
+
+    /**
+     * Reads all values sampled by a buffered sensor since the last call and
+     * offers them for saving. The samples are timestamped backwards from the
+     * drain time using the sensor's sample rate.
+     * 
+     * @param _sensor
+     *            The due buffered sensor
+     */
+    private void drainBlock(ScheduledSensor _sensor)
+    {
+	int count = _sensor.pinSession.readBlock(mIOIO, _sensor.block);
+	long lastMillis = IodClock.currentTimeMillis();
+	float sampleRate = _sensor.pinSession.getSampleRate();
+
+	if (count == 0 || sampleRate <= 0)
+	{
+	    return;
+	}
+
+	double intervalMillis = 1000.0 / sampleRate;
+
+	for (int i = 0; i < count; i++)
+	{
+	    offer(_sensor, lastMillis
+		    - Math.round((count - 1 - i) * intervalMillis),
+		    _sensor.block[i]);
+	}
+    }
+
+    // *************** ScheduledSensor ***************
+
+    /**
+     * A sensor together with its open pin and its schedule.
+     *
+     * @author kaolick
+     */
+    private static class ScheduledSensor implements
+					 Comparable<ScheduledSensor>
+    {
+	private final IodIOIOSensor sensor;
+	private IodPinSession pinSession;
+	private final IodTickSchedule schedule;
+
+	// The time of the last reconnect; 0 once the sensor was read afterwards
+	private long connectedAt;
+
+	// The sensor's slot at the IodStorageWriter
+	private final int slot;
+
+	// Read buffer of a buffered analog sensor; null for other sensors
+	private final float[] block;
+
+	// Oversampler of an oversampled sensor; null for other sensors
+	private final IodOversampler oversampler;
+	private int samples;
+
+	// The sensor's timing statistics
+	private final IodSamplingStats stats;
+
+	// The snapshot group read on this entry's tick and its sensors; 0 and
+	// null for a single sensor
+	private final int group;
+	private final List<ScheduledSensor> members;
+
+	// The values of the group's sensors read on the current tick; null for
+	// a single sensor
+	private float[] values;
+
+	/**
+	 * Creates the entry of a snapshot group. Its sensors are added to
+	 * <code>members</code>.
+	 */
+	public ScheduledSensor(int _group,
+			       IodTickSchedule _schedule,
+			       IodSamplingStats _stats)
+	{
+	    this.sensor = null;
+	    this.slot = -1;
+	    this.schedule = _schedule;
+	    this.stats = _stats;
+	    this.block = null;
+	    this.oversampler = null;
+	    this.group = _group;
+	    this.members = new ArrayList<ScheduledSensor>();
+	}
+
+	public ScheduledSensor(IodIOIOSensor _sensor,
+			       IodPinSession _pinSession,
+			       int _slot,
+			       IodTickSchedule _schedule,
+			       IodSamplingStats _stats)
+	{
+	    this.sensor = _sensor;
+	    this.pinSession = _pinSession;
+	    this.slot = _slot;
+	    this.schedule = _schedule;
+	    this.stats = _stats;
+	    this.group = IodIOIOSensor.SNAPSHOT_GROUP_NONE;
+	    this.members = null;
+
+	    if (_sensor.isBuffered())
+	    {
+		this.block = new float[IodIOIOSensor.ANALOG_BUFFER_CAPACITY];
+	    }
+	    else
+	    {
+		this.block = null;
+	    }
+
+	    if (!_sensor.isBuffered() && _sensor.getOversamplingCount() > 1)
+	    {
+		this.oversampler = new IodOversampler(_sensor);
+	    }
+	    else
+	    {
+		this.oversampler = null;
+	    }
+	}
+
+	@Override
+	public int compareTo(ScheduledSensor _another)
+	{
+	    long nextRun = schedule.getNextRun();
+	    long anotherNextRun = _another.schedule.getNextRun();
+
+	    if (nextRun < anotherNextRun)
+	    {
+		return -1;
+	    }
+	    else if (nextRun > anotherNextRun)
+	    {
+		return 1;
+	    }
+
+	    return 0;
+	}
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.kaolick.ioio_droid.service;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.sensor.IodPinSession;
+import com.kaolick.ioio_droid.store.IodClock;
+
+/**
+ * Captures the transitions of a digital event sensor. The watcher keeps the
+ * sensor's pin open and waits for the digital value to change instead of
+ * polling it. Only the initial value and every transition are saved, so a
+ * sensor that rarely changes produces only a few database rows.
+ * <p>
+ * Since only changes are saved, a transition that is dropped because the
+ * storage writer's ring is full would make all later values wrong. The
+ * watcher then re-reads the pin until the ring takes the current value and
+ * saves the time in between as a gap.
+ * 
+ * @author kaolick
+ */
+public class IodEdgeWatcher extends Thread
+{
+    // Time between two attempts to save the current value when the ring is
+    // full (in milliseconds)
+    public static final long RETRY_DELAY = 10;
+
+    // General attributes
+    private IodIOIOSensor mSensor;
+    private IodPinSession mPinSession;
+    private IOIO mIOIO;
+    private IodStorageWriter mStorageWriter;
+    private int mSlot;
+
+    /**
+     * Class constructor.
+     * 
+     * @param _sensor
+     *            The digital event {@link IodIOIOSensor}
+     * @param _pinSession
+     *            The {@link IodPinSession} with the sensor's open pin
+     * @param _ioio
+     *            The connected {@link IOIO}
+     * @param _storageWriter
+     *            The {@link IodStorageWriter} saving the transitions
+     * @param _slot
+     *            The sensor's slot at the <code>IodStorageWriter</code>
+     */
+    public IodEdgeWatcher(IodIOIOSensor _sensor,
+			  IodPinSession _pinSession,
+			  IOIO _ioio,
+			  IodStorageWriter _storageWriter,
+			  int _slot)
+    {
+	super("IodEdgeWatcher-" + _sensor.getSensorID());
+
+	this.mSensor = _sensor;
+	this.mPinSession = _pinSession;
+	this.mIOIO = _ioio;
+	this.mStorageWriter = _storageWriter;
+	this.mSlot = _slot;
+    }
+
+    @Override
+    public void run()
+    {
+	try
+	{
+	    // Save the initial value
+	    float value = mPinSession.measureValue(mIOIO);
+	    if (value == -1)
+	    {
+		return;
+	    }
+	    value = save(value, IodClock.currentTimeMillis());
+
+	    // Wait for each transition and save it
+	    while (!isInterrupted())
+	    {
+		boolean high = value == 1;
+		mPinSession.waitForValue(mIOIO, !high);
+
+		// Timestamp the edge right away
+		long timestamp = IodClock.currentTimeMillis();
+		value = save(high ? 0 : 1, timestamp);
+	    }
+	}
+	catch (ConnectionLostException _exception)
+	{
+	    // The connection is gone; the watcher ends
+	}
+	catch (InterruptedException _exception)
+	{
+	    // The measuring process was stopped
+	}
+	catch (IllegalStateException _exception)
+	{
+	    // The pin was closed while waiting
+	}
+    }
+
+    public int getSlot()
+    {
+	return mSlot;
+    }
+
+    /**
+     * Stops waiting for transitions.
+     */
+    public void cancel()
+    {
+	interrupt();
+    }
+
+    /**
+     * Hands a transition off for saving. If the ring is full, the pin is
+     * re-read every {@link #RETRY_DELAY} milliseconds until the ring takes
+     * the current value, and the time since the dropped transition is saved
+     * as a gap.
+     * 
+     * @param _value
+     *            The new digital value
+     * @param _timestamp
+     *            The time of the transition (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     * @return the saved value, i.e. the pin's current value.
+     * @throws InterruptedException
+     *             if the watcher was cancelled while the ring was full
+     */
+    private float save(float _value, long _timestamp)
+	    throws InterruptedException
+    {
+	if (mStorageWriter.offer(mSlot, _timestamp, _value))
+	{
+	    return _value;
+	}
+
+	float value;
+	long timestamp;
+
+	do
+	{
+	    Thread.sleep(RETRY_DELAY);
+
+	    value = mPinSession.measureValue(mIOIO);
+	    timestamp = IodClock.currentTimeMillis();
+	}
+	while (value == -1 || !mStorageWriter.offer(mSlot, timestamp, value));
+
+	// The value is unknown from the dropped transition on
+	mStorageWriter.saveGap(mSlot, _timestamp, timestamp);
+
+	return value;
+    }
+}
\ No newline at end of file
@@ -7,28 +7,43 @@ import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOService;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.annotation.SuppressLint;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.widget.Toast;
 
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.location.IodLocationManager;
 import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.sensor.IodPinSession;
+import com.kaolick.ioio_droid.stats.IodSamplingStats;
+import com.kaolick.ioio_droid.store.IodClock;
 import com.kaolick.ioio_droid.store.Store;
 import com.kaolick.ioio_droid.toast.ToastHandler;
 import com.kaolick.ioio_droid.ui.MainActivity;
@@ -36,7 +51,23 @@ import com.kaolick.ioio_droid.ui.SettingsActivity;
 import com.kaolick.ioio_droid.xively.UploadManager;
 
 /**
- * Handles the connection to a <code>IOIO</code> and measuring sensor data.
+ * Handles the connections to one or more <code>IOIO</code>s and measuring
+ * sensor data. Each connected board gets its own looper thread with its own
+ * {@link IodAcquisitionEngine}; all boards feed the same
+ * {@link IodStorageWriter}. A sensor is measured by the board it is bound to.
+ * Sensors without a board are measured by the primary board, which is the
+ * first connected board. When the primary board disconnects, another
+ * connected board becomes the primary one and takes over these sensors;
+ * without another connected board, the next board that connects does. The
+ * time in between is saved as a gap.
+ * <p>
+ * A board that loses its connection keeps its sensors' schedules. The time
+ * until it reconnects is saved as a gap for each of its sensors, and the
+ * sensors resume at their original phase.
+ * <p>
+ * Changes of the sensor configuration are applied while measuring: a changed
+ * sensor is stopped and started again with its new configuration in a new
+ * storage slot, while all other sensors keep measuring.
  * 
  * @author kaolick
  * @see IOIOService
@@ -60,9 +91,31 @@ public class IodIOIOService extends IOIOService
 
     // Sensor attributes
     private List<IodIOIOSensor> mSensors;
-    private Integer[] mSensorIDs;
-    private List<IOIOSensorTimerTask> mSensorTimerTasks;
-    private List<Timer> mTimers;
+    private volatile Integer[] mSensorIDs;
+    private IodStorageWriter mStorageWriter;
+
+    // The storage slots of the measured sensors by sensor ID
+    private Map<Integer, Integer> mActiveSlots;
+
+    // Applies changes of the sensor configuration while measuring
+    private BroadcastReceiver mSensorChangedReceiver = new BroadcastReceiver()
+    {
+	@Override
+	public void onReceive(Context _context, Intent _intent)
+	{
+	    applySensorChange(_intent.getIntExtra(Store.SENSOR_ID, -1));
+	}
+    };
+
+    // Board attributes
+    private List<BoardLooper> mBoardLoopers;
+    private BoardLooper mPrimaryBoardLooper;
+    private boolean isMeasuring;
+
+    // The slots of the sensors without a board released by a disconnected
+    // primary board and the time it disconnected; guarded by mBoardLoopers
+    private List<Integer> mReleasedSlots = new ArrayList<Integer>();
+    private long mReleasedAt;
 
     // Upload attributes
     private Timer mUploadTimer;
@@ -72,50 +125,10 @@ public class IodIOIOService extends IOIOService
     // *************** Service Life Cycle ***************
 
     @Override
-    protected IOIOLooper createIOIOLooper()
+    public IOIOLooper createIOIOLooper(String _connectionType, Object _extra)
     {
-	return new BaseIOIOLooper()
-	{
-	    @Override
-	    public void disconnected()
-	    {
-		super.disconnected();
-
-		// Inform the user
-		mToastHandler.showToast(R.string.toast_ioio_disconnected,
-			Toast.LENGTH_SHORT);
-	    }
-
-	    @Override
-	    public void incompatible()
-	    {
-		super.incompatible();
-
-		// Inform the user
-		mToastHandler.showToast(R.string.toast_ioio_incompatible,
-			Toast.LENGTH_SHORT);
-	    }
-
-	    @Override
-	    public void loop() throws ConnectionLostException,
-			      InterruptedException
-	    {
-		super.loop();
-	    }
-
-	    @Override
-	    protected void setup() throws ConnectionLostException,
-				  InterruptedException
-	    {
-		super.setup();
-
-		// Create the timer tasks for the sensors
-		mSensorTimerTasks = createSensorTimerTasks(ioio_);
-
-		// Start the measuring process
-		startMeasuring();
-	    }
-	};
+	// One looper per connected board
+	return new BoardLooper(getBoardID(_connectionType, _extra));
     }
 
     @Override
@@ -141,39 +154,73 @@ public class IodIOIOService extends IOIOService
 	mResources = mContext.getResources();
 	mToastHandler = new ToastHandler(mContext);
 	mUploadManager = new UploadManager(mContext, null, false);
-	mSensors = mDatabaseManager.getActiveSensors();
+	mSensors = new CopyOnWriteArrayList<IodIOIOSensor>(
+		mDatabaseManager.getActiveSensors());
+	mActiveSlots = new HashMap<Integer, Integer>();
+	for (int i = 0; i < mSensors.size(); i++)
+	{
+	    mActiveSlots.put(mSensors.get(i).getSensorID(), i);
+	}
+
+	// Forget the statistics of the last measuring process
+	IodSamplingStats.clear();
+
+	// Map the measuring clock to the current wall time
+	IodClock.sync();
 	mSensorIDs = mDatabaseManager.getSensorIDsOfXivelyUsingActiveSensors();
-	mTimers = createTimers();
+	mStorageWriter = new IodStorageWriter(mSensors, mDatabaseManager,
+		Integer.parseInt(mPrefs.getString(mResources
+			.getString(R.string.pref_database_buffer_capacity_key),
+			String.valueOf(IodStorageWriter.DEFAULT_CAPACITY))));
+	mStorageWriter.start();
+	mBoardLoopers = new ArrayList<BoardLooper>();
 	usePositioning = mPrefs.getBoolean(mResources
 		.getString(R.string.pref_location_location_service_key), false);
 	useAutomaticUpload = mPrefs
 		.getBoolean(mResources
 			.getString(R.string.pref_xively_upload_automatic_key),
 			false);
+
+	LocalBroadcastManager.getInstance(mContext).registerReceiver(
+		mSensorChangedReceiver,
+		new IntentFilter(Store.ACTION_SENSOR_CHANGED));
     }
 
     @Override
     public void onDestroy()
     {
+	// Stop applying configuration changes
+	LocalBroadcastManager.getInstance(mContext).unregisterReceiver(
+		mSensorChangedReceiver);
+
 	// Stop location updates
 	if (usePositioning)
 	{
 	    mLocationManager.disconnect();
 	}
 
-	// Cancel all SensorTimerTasks
-	if (mSensorTimerTasks != null)
+	// Stop measuring on all boards; close the gaps of disconnected boards
+	synchronized (mBoardLoopers)
 	{
-	    for (int i = 0; i < mSensorTimerTasks.size(); i++)
+	    for (BoardLooper boardLooper : mBoardLoopers)
 	    {
-		mSensorTimerTasks.get(i).cancel();
+		boardLooper.stop();
+		boardLooper.saveGaps();
 	    }
 	}
 
+	// Let the storage thread save the remaining measured values and the
+	// points pending in the sensors' compressors and wait for it, so the
+	// final upload below includes them
+	mStorageWriter.shutdown();
+
 	// Cancel UploadTimerTask
-	if (mUploadTimerTask != null)
+	synchronized (this)
 	{
-	    mUploadTimerTask.cancel();
+	    if (mUploadTimerTask != null)
+	    {
+		mUploadTimerTask.cancel();
+	    }
 	}
 
 	// If automatic upload is activated...
@@ -205,59 +252,201 @@ public class IodIOIOService extends IOIOService
     // *************** Initializing ***************
 
     /**
-     * Creates a list of {@link IOIOSensorTimerTask}s, one for each non-paused
-     * sensor.
+     * Derives a board's identity from its connection. Bluetooth boards are
+     * identified by the device's address; other boards by the connection type
+     * and, if available, the connection's extra information.
+     * 
+     * @param _connectionType
+     *            The type of the connection
+     * @param _extra
+     *            The connection's extra information; may be <code>null</code>
+     * @return the board ID.
+     */
+    public static String getBoardID(String _connectionType, Object _extra)
+    {
+	// Bluetooth connections pass the device's name and address
+	if (_extra instanceof Object[] && ((Object[]) _extra).length > 0)
+	{
+	    Object[] extra = (Object[]) _extra;
+
+	    return String.valueOf(extra[extra.length - 1]);
+	}
+
+	String type = _connectionType.substring(_connectionType
+		.lastIndexOf('.') + 1);
+
+	return _extra == null ? type : type + ":" + _extra;
+    }
+
+    /**
+     * Checks whether a sensor is measured by a board.
+     * 
+     * @param _sensor
+     *            The {@link IodIOIOSensor}
+     * @param _boardLooper
+     *            The board's {@link BoardLooper}
+     * @return <code>true</code> if the sensor is bound to the board, or is
+     *         not bound to any board and the board is the primary one;
+     *         <code>false</code> for derived sensors, which are computed by
+     *         the {@link IodStorageWriter}.
+     */
+    private boolean isOnBoard(IodIOIOSensor _sensor, BoardLooper _boardLooper)
+    {
+	if (_sensor.isDerived())
+	{
+	    return false;
+	}
+
+	if (_sensor.getBoard().equals(""))
+	{
+	    synchronized (mBoardLoopers)
+	    {
+		return _boardLooper == mPrimaryBoardLooper;
+	    }
+	}
+
+	return _sensor.getBoard().equals(_boardLooper.mBoardID);
+    }
+
+    /**
+     * Gets the storage slots of the non-paused sensors measured by a board.
+     * 
+     * @param _boardLooper
+     *            The board's {@link BoardLooper}
+     * @return the list of slots.
+     */
+    private List<Integer> getSlotsOnBoard(BoardLooper _boardLooper)
+    {
+	List<Integer> slots = new ArrayList<Integer>();
+
+	synchronized (mActiveSlots)
+	{
+	    for (int slot : mActiveSlots.values())
+	    {
+		if (isOnBoard(mSensors.get(slot), _boardLooper))
+		{
+		    slots.add(slot);
+		}
+	    }
+	}
+
+	return slots;
+    }
+
+    /**
+     * Creates a list of {@link IodPinSession}s for the sensors of a board and
+     * opens the sensors' pins. The list has an entry for each storage slot;
+     * the entries of other sensors are <code>null</code>.
+     * 
+     * @param _ioio
+     *            The connected <code>IOIO</code>
+     * @param _slots
+     *            The storage slots of the board's sensors
+     * @return The list of <code>IodPinSession</code>s
+     * @throws ConnectionLostException
+     *             if the connection to the <code>IOIO</code> was lost
+     */
+    private List<IodPinSession> createPinSessions(IOIO _ioio,
+						  List<Integer> _slots)
+	    throws ConnectionLostException
+    {
+	// Create a list without any IodPinSessions
+	List<IodPinSession> pinSessions = new ArrayList<IodPinSession>();
+	for (int i = 0; i < mSensors.size(); i++)
+	{
+	    pinSessions.add(null);
+	}
+
+	// Create and open a IodPinSession for each sensor of the board
+	for (int i = 0; i < _slots.size(); i++)
+	{
+	    IodPinSession pinSession = new IodPinSession(mSensors.get(_slots
+		    .get(i)));
+	    pinSession.measureBaseline(_ioio);
+	    pinSession.open(_ioio);
+
+	    pinSessions.set(_slots.get(i), pinSession);
+	}
+
+	return pinSessions;
+    }
+
+    /**
+     * Creates a {@link IodAcquisitionEngine} handling the non-paused sensors
+     * of a board.
      * 
      * @param _ioio
      *            The connected <code>IOIO</code>
-     * @return The list of <code>IOIOSensorTimerTask</code>s
+     * @param _pinSessions
+     *            The board's <code>IodPinSession</code>s
+     * @return The <code>IodAcquisitionEngine</code>
      */
-    private List<IOIOSensorTimerTask> createSensorTimerTasks(IOIO _ioio)
+    private IodAcquisitionEngine createAcquisitionEngine(IOIO _ioio,
+							 List<IodPinSession> _pinSessions)
     {
-	// Create a new empty list for the IOIOSensorTimerTasks
-	List<IOIOSensorTimerTask> sensorTimerTasks = new ArrayList<IOIOSensorTimerTask>();
+	IodAcquisitionEngine engine = new IodAcquisitionEngine(_ioio,
+		mStorageWriter);
 
-	// Create a IOIOSensorTimerTasks for each sensor in the list
-	if (mSensors != null && !mSensors.isEmpty())
+	// Add each sensor of the board together with its open pin
+	for (int i = 0; i < _pinSessions.size(); i++)
 	{
-	    for (int i = 0; i < mSensors.size(); i++)
+	    // Sensors on other boards and digital event sensors, which are
+	    // handled by IodEdgeWatchers
+	    if (_pinSessions.get(i) == null
+		    || mSensors.get(i).isEventDriven())
 	    {
-		IOIOSensorTimerTask sensorTimerTask = new IOIOSensorTimerTask(
-			mSensors.get(i), _ioio);
-
-		// Add it to the list
-		sensorTimerTasks.add(sensorTimerTask);
+		continue;
 	    }
+
+	    engine.addSensor(mSensors.get(i), _pinSessions.get(i), i);
 	}
 
-	return sensorTimerTasks;
+	return engine;
     }
 
     /**
-     * Creates a list of {@link Timer}s, one for each sensor in the given sensor
-     * list.
+     * Creates a list of {@link IodEdgeWatcher}s, one for each non-paused
+     * digital event sensor of a board.
      * 
-     * @return The list of <code>Timer</code>s
+     * @param _ioio
+     *            The connected <code>IOIO</code>
+     * @param _pinSessions
+     *            The board's <code>IodPinSession</code>s
+     * @return The list of <code>IodEdgeWatcher</code>s
      */
-    private List<Timer> createTimers()
+    private List<IodEdgeWatcher> createEdgeWatchers(IOIO _ioio,
+						    List<IodPinSession> _pinSessions)
     {
-	// Create a new empty list of timers
-	List<Timer> timers = new ArrayList<Timer>();
+	// Create a new empty list for the IodEdgeWatchers
+	List<IodEdgeWatcher> edgeWatchers = new ArrayList<IodEdgeWatcher>();
 
-	// Create a timer for each sensor
-	for (int i = 0; i < mSensors.size(); i++)
+	// Create a IodEdgeWatcher for each digital event sensor of the board
+	for (int i = 0; i < _pinSessions.size(); i++)
 	{
-	    timers.add(new Timer());
+	    if (_pinSessions.get(i) != null && mSensors.get(i).isEventDriven())
+	    {
+		edgeWatchers.add(new IodEdgeWatcher(mSensors.get(i),
+			_pinSessions.get(i), _ioio, mStorageWriter, i));
+	    }
 	}
 
-	return timers;
+	return edgeWatchers;
     }
 
     /**
-     * Initializes the automatic upload if activated by the user.
+     * Initializes the automatic upload if activated by the user. An upload
+     * started before is stopped.
      */
-    private void initUpload()
+    private synchronized void initUpload()
     {
+	// Stop the upload of the former sensor IDs
+	if (mUploadTimer != null)
+	{
+	    mUploadTimer.cancel();
+	    mUploadTimer = null;
+	    mUploadTimerTask = null;
+	}
+
 	// If automatic upload is activated in the application's settings...
 	if (useAutomaticUpload)
 	{
@@ -287,10 +476,22 @@ public class IodIOIOService extends IOIOService
     // *************** Measuring Process ***************
 
     /**
-     * Starts the measuring process.
+     * Starts the measuring process when the first board connects. The sensors
+     * themselves are measured by the boards' {@link IodAcquisitionEngine}s on
+     * the looper threads.
      */
-    public void startMeasuring()
+    private void startMeasuring()
     {
+	synchronized (mBoardLoopers)
+	{
+	    if (isMeasuring)
+	    {
+		return;
+	    }
+
+	    isMeasuring = true;
+	}
+
 	// Inform the user
 	mToastHandler.showToast(R.string.toast_measuring_started,
 		Toast.LENGTH_SHORT);
@@ -303,23 +504,110 @@ public class IodIOIOService extends IOIOService
 	{
 	    mLocationManager.connect();
 	}
+    }
+
+    /**
+     * Applies a change of a sensor's configuration to the running measuring
+     * process. The sensor's old configuration stops measuring and, unless the
+     * sensor was paused or deleted, its new configuration starts measuring in
+     * another storage slot, which may be the freed slot of a sensor stopped
+     * earlier. The boards apply the change on their looper threads; the
+     * other sensors are not interrupted.
+     * 
+     * @param _sensorID
+     *            The sensor ID of the changed {@link IodIOIOSensor}
+     */
+    private void applySensorChange(int _sensorID)
+    {
+	// The new configuration; null if the sensor was deleted
+	IodIOIOSensor sensor = mDatabaseManager
+		.getIOIOSensorBySensorID(_sensorID);
+
+	// The sensor may have started or stopped uploading
+	updateUploadSensorIDs();
+
+	int oldSlot = -1;
+	int newSlot = -1;
+	IodIOIOSensor oldSensor = null;
+
+	synchronized (mActiveSlots)
+	{
+	    Integer slot = mActiveSlots.remove(_sensorID);
+	    if (slot != null)
+	    {
+		oldSlot = slot;
+		oldSensor = mSensors.get(oldSlot);
+
+		// Derived sensors are not on a board
+		if (oldSensor.isDerived())
+		{
+		    mStorageWriter.retire(oldSlot);
+		}
+	    }
+
+	    if (sensor != null
+		    && sensor.getState() == IodIOIOSensor.STATE_ACTIVE)
+	    {
+		// The slot is the sensor's position in mSensors
+		newSlot = mStorageWriter.register(sensor);
+		if (newSlot < mSensors.size())
+		{
+		    mSensors.set(newSlot, sensor);
+		}
+		else
+		{
+		    mSensors.add(sensor);
+		}
+		mActiveSlots.put(_sensorID, newSlot);
+	    }
+	}
 
-	// Start a timer task for each sensor
-	for (int i = 0; i < mSensorTimerTasks.size(); i++)
+	synchronized (mBoardLoopers)
 	{
-	    // Get the current IOIOSensorTimerTask
-	    IOIOSensorTimerTask currentTask = mSensorTimerTasks.get(i);
+	    for (BoardLooper boardLooper : mBoardLoopers)
+	    {
+		if (oldSlot != -1)
+		{
+		    boardLooper.postChange(new SlotChange(oldSlot, oldSensor,
+			    false));
+		}
+
+		if (newSlot != -1)
+		{
+		    boardLooper.postChange(new SlotChange(newSlot, sensor, true));
+		}
+	    }
+	}
+    }
 
-	    // Get the according timer
-	    Timer timer = mTimers.get(i);
+    /**
+     * Updates the sensor IDs of the sensors that upload automatically after a
+     * change of the sensor configuration. The automatic upload is restarted
+     * only if the sensor IDs changed.
+     */
+    private void updateUploadSensorIDs()
+    {
+	Integer[] sensorIDs = mDatabaseManager
+		.getSensorIDsOfXivelyUsingActiveSensors();
+
+	if (new HashSet<Integer>(Arrays.asList(sensorIDs))
+		.equals(new HashSet<Integer>(Arrays.asList(mSensorIDs))))
+	{
+	    return;
+	}
 
-	    // Create the measuring period
-	    int freq = currentTask.sensor.getFrequency();
-	    int timeUnit = currentTask.sensor.getTimeUnit();
-	    long period = (long) (freq * timeUnit);
+	mSensorIDs = sensorIDs;
 
-	    // Start the IOIOSensorTimerTasks
-	    timer.scheduleAtFixedRate(currentTask, 0, period);
+	// The upload starts with the measuring process
+	boolean isStarted;
+	synchronized (mBoardLoopers)
+	{
+	    isStarted = isMeasuring;
+	}
+
+	if (isStarted)
+	{
+	    initUpload();
 	}
     }
 
@@ -377,48 +665,538 @@ public class IodIOIOService extends IOIOService
 	}
     }
 
-    // *************** SensorTimerTask ***************
+    // *************** BoardLooper ***************
 
     /**
-     * Handles measuring sensor values.
+     * Measures the sensors of one board on the board's looper thread. The
+     * looper is kept when the board disconnects and is set up again when it
+     * reconnects.
      * 
      * @author kaolick
-     * @see TimerTask
+     * @see BaseIOIOLooper
      */
-    class IOIOSensorTimerTask extends TimerTask
+    private class BoardLooper extends BaseIOIOLooper
     {
-	// The sensor
-	private IodIOIOSensor sensor;
+	// The board's identity
+	private final String mBoardID;
+
+	// The board's measuring process; the engine is kept across reconnects
+	private List<IodPinSession> mPinSessions;
+	private IodAcquisitionEngine mAcquisitionEngine;
+	private List<IodEdgeWatcher> mEdgeWatchers;
+	private volatile boolean isStopped;
+
+	// The board's sensors by storage slot and the time the board
+	// disconnected (in milliseconds since January 1, 1970 00:00:00 UTC); 0
+	// while connected
+	private List<Integer> mSlots = new ArrayList<Integer>();
+	private long mDisconnectedAt;
+
+	// Sensor changes waiting to be applied on the looper thread
+	private final Queue<SlotChange> mChanges = new ConcurrentLinkedQueue<SlotChange>();
+
+	public BoardLooper(String _boardID)
+	{
+	    this.mBoardID = _boardID;
+	}
+
+	@Override
+	protected void setup() throws ConnectionLostException,
+			      InterruptedException
+	{
+	    super.setup();
+
+	    long connectedAt = SystemClock.elapsedRealtime();
+
+	    // Register the board; the primary board measures the sensors that
+	    // are not bound to a board
+	    synchronized (mBoardLoopers)
+	    {
+		if (!mBoardLoopers.contains(this))
+		{
+		    mBoardLoopers.add(this);
+		}
+
+		if (mPrimaryBoardLooper == null)
+		{
+		    mPrimaryBoardLooper = this;
+		}
+	    }
+
+	    // Tell the user the board's ID for binding sensors to it
+	    mToastHandler.showToast(
+		    mResources.getString(R.string.toast_ioio_connected) + " "
+			    + mBoardID, Toast.LENGTH_SHORT);
+
+	    // The board's sensors are set on the first connect; later changes
+	    // are applied by applyChanges()
+	    if (mAcquisitionEngine == null)
+	    {
+		List<Integer> slots = getSlotsOnBoard(this);
+
+		synchronized (this)
+		{
+		    mSlots.addAll(slots);
+		}
+	    }
+
+	    // Open the pins of the board's sensors once
+	    List<IodPinSession> pinSessions = createPinSessions(ioio_, mSlots);
+
+	    synchronized (this)
+	    {
+		mPinSessions = pinSessions;
+	    }
+
+	    // Create the acquisition engine for the sensors on the first
+	    // connect; resume it after a reconnect
+	    if (mAcquisitionEngine == null)
+	    {
+		mAcquisitionEngine = createAcquisitionEngine(ioio_,
+			mPinSessions);
+	    }
+	    else
+	    {
+		mAcquisitionEngine.reconnect(ioio_, mPinSessions, connectedAt);
+		saveGaps();
+	    }
+
+	    // Measure from now on
+	    isStopped = false;
+
+	    // Create the watchers for the digital event sensors
+	    synchronized (this)
+	    {
+		mEdgeWatchers = createEdgeWatchers(ioio_, mPinSessions);
+	    }
+
+	    // Take over the sensors without a board if the primary board
+	    // disconnected while no other board was connected
+	    adoptUnboundSlots();
+
+	    // Start the measuring process
+	    startMeasuring();
+
+	    // Start waiting for transitions of the digital event sensors
+	    for (int i = 0; i < mEdgeWatchers.size(); i++)
+	    {
+		mEdgeWatchers.get(i).start();
+	    }
+	}
+
+	@Override
+	public void loop() throws ConnectionLostException,
+			  InterruptedException
+	{
+	    // The service is stopping
+	    if (isStopped)
+	    {
+		Thread.sleep(100);
+		return;
+	    }
+
+	    // Apply changes of the sensor configuration between two
+	    // measurements
+	    applyChanges();
+
+	    // Measure the board's due sensors on the looper thread
+	    mAcquisitionEngine.loop();
+	}
+
+	@Override
+	public void disconnected()
+	{
+	    super.disconnected();
 
-	// The IOIO
-	private IOIO ioio;
+	    // Stop measuring with the lost connection and close the pins; the
+	    // board keeps its sensors until it reconnects
+	    stop();
+
+	    synchronized (this)
+	    {
+		mDisconnectedAt = IodClock.currentTimeMillis();
+	    }
+
+	    // Let another board measure the sensors without a board
+	    handOverUnboundSlots();
+
+	    // Inform the user
+	    mToastHandler.showToast(
+		    mResources.getString(R.string.toast_ioio_disconnected)
+			    + " " + mBoardID, Toast.LENGTH_SHORT);
+	}
+
+	@Override
+	public void incompatible()
+	{
+	    super.incompatible();
+
+	    // Inform the user
+	    mToastHandler.showToast(R.string.toast_ioio_incompatible,
+		    Toast.LENGTH_SHORT);
+	}
 
 	/**
-	 * Class constructor.
+	 * Stops waiting for transitions and closes all pins of the board.
+	 */
+	private synchronized void stop()
+	{
+	    isStopped = true;
+
+	    if (mEdgeWatchers != null)
+	    {
+		for (int i = 0; i < mEdgeWatchers.size(); i++)
+		{
+		    mEdgeWatchers.get(i).cancel();
+		}
+
+		mEdgeWatchers = null;
+	    }
+
+	    if (mPinSessions != null)
+	    {
+		for (int i = 0; i < mPinSessions.size(); i++)
+		{
+		    if (mPinSessions.get(i) != null)
+		    {
+			mPinSessions.get(i).close();
+		    }
+		}
+
+		mPinSessions = null;
+	    }
+	}
+
+	/**
+	 * Hands the sensors that are not bound to a board over to another
+	 * connected board if this board is the primary one. Without another
+	 * connected board, the next board that connects takes them over. Must
+	 * be called on the looper thread after the board stopped.
+	 */
+	private void handOverUnboundSlots()
+	{
+	    BoardLooper primary;
+
+	    synchronized (mBoardLoopers)
+	    {
+		if (mPrimaryBoardLooper != this)
+		{
+		    return;
+		}
+
+		// Promote another connected board
+		mPrimaryBoardLooper = null;
+		for (BoardLooper boardLooper : mBoardLoopers)
+		{
+		    if (boardLooper != this && !boardLooper.isStopped)
+		    {
+			mPrimaryBoardLooper = boardLooper;
+			break;
+		    }
+		}
+
+		primary = mPrimaryBoardLooper;
+
+		// Release the sensors without a board; they keep their slots
+		synchronized (this)
+		{
+		    if (mReleasedSlots.isEmpty())
+		    {
+			mReleasedAt = mDisconnectedAt;
+		    }
+
+		    Iterator<Integer> iterator = mSlots.iterator();
+		    while (iterator.hasNext())
+		    {
+			int slot = iterator.next();
+
+			if (mSensors.get(slot).getBoard().equals(""))
+			{
+			    iterator.remove();
+			    mReleasedSlots.add(slot);
+
+			    if (mAcquisitionEngine != null)
+			    {
+				mAcquisitionEngine.removeSensor(slot);
+			    }
+			}
+		    }
+		}
+	    }
+
+	    if (primary != null)
+	    {
+		primary.adoptUnboundSlots();
+	    }
+	}
+
+	/**
+	 * Takes over the sensors that are not bound to a board if this board
+	 * is the primary one. The time since a former primary board released
+	 * them is saved as a gap. The sensors are started by the looper thread.
+	 */
+	private void adoptUnboundSlots()
+	{
+	    List<Integer> released;
+	    long releasedAt;
+
+	    synchronized (mBoardLoopers)
+	    {
+		if (mPrimaryBoardLooper != this)
+		{
+		    return;
+		}
+
+		released = new ArrayList<Integer>(mReleasedSlots);
+		releasedAt = mReleasedAt;
+		mReleasedSlots.clear();
+	    }
+
+	    List<Integer> slots = getSlotsOnBoard(this);
+	    long now = IodClock.currentTimeMillis();
+
+	    for (int slot : released)
+	    {
+		if (slots.contains(slot))
+		{
+		    mStorageWriter.saveGap(slot, releasedAt, now);
+		}
+		else
+		{
+		    // The sensor was stopped meanwhile; save the values
+		    // pending in its compressor
+		    mStorageWriter.retire(slot);
+		}
+	    }
+
+	    // Sensors the board measures already are skipped
+	    for (int slot : slots)
+	    {
+		postChange(new SlotChange(slot, mSensors.get(slot), true));
+	    }
+	}
+
+	/**
+	 * Queues a change of the board's sensors. The change is applied by the
+	 * looper thread while the board is connected.
 	 * 
-	 * @param _sensor
-	 *            The {@link IodIOIOSensor} for which the instance of this
-	 *            class handles the measuring of sensor data.
-	 * @param _ioio
-	 *            The connected <code>IOIO</code>
+	 * @param _change
+	 *            The {@link SlotChange}
 	 */
-	public IOIOSensorTimerTask(IodIOIOSensor _sensor, IOIO _ioio)
+	public void postChange(SlotChange _change)
 	{
-	    this.sensor = _sensor;
-	    this.ioio = _ioio;
+	    mChanges.add(_change);
 	}
 
-	@Override
-	public void run()
+	/**
+	 * Applies the queued changes of the board's sensors. Must be called
+	 * on the looper thread.
+	 * 
+	 * @throws ConnectionLostException
+	 *             if the connection to the <code>IOIO</code> was lost; the
+	 *             remaining changes are applied after the reconnect
+	 */
+	private void applyChanges() throws ConnectionLostException
+	{
+	    SlotChange change;
+
+	    while ((change = mChanges.poll()) != null)
+	    {
+		// The sensor was stopped and its slot handed to another sensor
+		// meanwhile
+		if (mSensors.get(change.slot) != change.sensor)
+		{
+		    continue;
+		}
+
+		if (!change.start)
+		{
+		    stopSensor(change.slot);
+		    continue;
+		}
+
+		try
+		{
+		    if (!startSensor(change.slot))
+		    {
+			// The board stopped meanwhile; retry after the
+			// reconnect
+			mChanges.add(change);
+			return;
+		    }
+		}
+		catch (ConnectionLostException _exception)
+		{
+		    mChanges.add(change);
+		    throw _exception;
+		}
+	    }
+	}
+
+	/**
+	 * Starts measuring a sensor if it is measured by the board.
+	 * 
+	 * @param _slot
+	 *            The sensor's storage slot
+	 * @return <code>false</code> if the board was stopped before the
+	 *         sensor could be started, <code>true</code> otherwise.
+	 * @throws ConnectionLostException
+	 *             if the connection to the <code>IOIO</code> was lost
+	 */
+	private boolean startSensor(int _slot) throws ConnectionLostException
+	{
+	    IodIOIOSensor sensor = mSensors.get(_slot);
+
+	    synchronized (this)
+	    {
+		if (mSlots.contains(_slot))
+		{
+		    return true;
+		}
+	    }
+
+	    if (!isOnBoard(sensor, this))
+	    {
+		return true;
+	    }
+
+	    IodPinSession pinSession = new IodPinSession(sensor);
+	    pinSession.measureBaseline(ioio_);
+	    pinSession.open(ioio_);
+
+	    synchronized (this)
+	    {
+		if (isStopped)
+		{
+		    pinSession.close();
+		    return false;
+		}
+
+		while (mPinSessions.size() <= _slot)
+		{
+		    mPinSessions.add(null);
+		}
+		mPinSessions.set(_slot, pinSession);
+		mSlots.add(_slot);
+
+		// Digital event sensors are handled by IodEdgeWatchers
+		if (sensor.isEventDriven())
+		{
+		    IodEdgeWatcher edgeWatcher = new IodEdgeWatcher(sensor,
+			    pinSession, ioio_, mStorageWriter, _slot);
+		    mEdgeWatchers.add(edgeWatcher);
+		    edgeWatcher.start();
+		}
+		else
+		{
+		    mAcquisitionEngine.addSensor(sensor, pinSession, _slot);
+		}
+	    }
+
+	    return true;
+	}
+
+	/**
+	 * Stops measuring a sensor and closes its pin if it is measured by
+	 * the board.
+	 * 
+	 * @param _slot
+	 *            The sensor's storage slot
+	 */
+	private void stopSensor(int _slot)
 	{
-	    // The timestamp for the measuring
-	    String timestamp = Store.getTimestamp();
+	    IodEdgeWatcher edgeWatcher = null;
 
-	    // Measure the value
-	    float value = sensor.measureValue(ioio);
+	    synchronized (this)
+	    {
+		if (!mSlots.remove(Integer.valueOf(_slot)))
+		{
+		    return;
+		}
+
+		mAcquisitionEngine.removeSensor(_slot);
+
+		// The watchers and pins are gone if the board was stopped
+		// meanwhile
+		if (mEdgeWatchers != null)
+		{
+		    for (int i = 0; i < mEdgeWatchers.size(); i++)
+		    {
+			if (mEdgeWatchers.get(i).getSlot() == _slot)
+			{
+			    edgeWatcher = mEdgeWatchers.remove(i);
+			    edgeWatcher.cancel();
+			    break;
+			}
+		    }
+		}
+
+		if (mPinSessions != null && mPinSessions.get(_slot) != null)
+		{
+		    mPinSessions.get(_slot).close();
+		    mPinSessions.set(_slot, null);
+		}
+	    }
 
-	    // Save the value in the database
-	    sensor.saveValueInDatabase(value, timestamp, mDatabaseManager);
+	    // Wait for the watcher's last transition; the slot may be handed
+	    // out again once it is retired
+	    if (edgeWatcher != null)
+	    {
+		try
+		{
+		    edgeWatcher.join();
+		}
+		catch (InterruptedException _exception)
+		{
+		    Thread.currentThread().interrupt();
+		}
+	    }
+
+	    // Save the values pending in the sensor's compressor
+	    mStorageWriter.retire(_slot);
+	}
+
+	/**
+	 * Saves the time since the board disconnected as a gap for each of
+	 * its sensors. Does nothing while the board is connected.
+	 */
+	private synchronized void saveGaps()
+	{
+	    if (mDisconnectedAt == 0)
+	    {
+		return;
+	    }
+
+	    long now = IodClock.currentTimeMillis();
+
+	    for (int i = 0; i < mSlots.size(); i++)
+	    {
+		mStorageWriter.saveGap(mSlots.get(i), mDisconnectedAt, now);
+	    }
+
+	    mDisconnectedAt = 0;
+	}
+    }
+
+    // *************** SlotChange ***************
+
+    /**
+     * A sensor to be started or stopped by a board. The change is dropped if
+     * the sensor's slot was handed to another sensor before it was applied.
+     * 
+     * @author kaolick
+     */
+    private static class SlotChange
+    {
+	private final int slot;
+	private final IodIOIOSensor sensor;
+	private final boolean start;
+
+	public SlotChange(int _slot, IodIOIOSensor _sensor, boolean _start)
+	{
+	    this.slot = _slot;
+	    this.sensor = _sensor;
+	    this.start = _start;
 	}
     }
 
@@ -1,7 +1,13 @@
 package com.kaolick.ioio_droid.service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -10,20 +16,27 @@ import android.annotation.SuppressLint;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.content.LocalBroadcastManager;
 import android.widget.Toast;
 
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.location.IodLocationManager;
 import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.sensor.IodOversampler;
+import com.kaolick.ioio_droid.service.IodSamplingScheduler.DueTimeAware;
+import com.kaolick.ioio_droid.stats.IodSamplingStats;
+import com.kaolick.ioio_droid.store.IodClock;
 import com.kaolick.ioio_droid.store.Store;
 import com.kaolick.ioio_droid.toast.ToastHandler;
 import com.kaolick.ioio_droid.ui.MainActivity;
@@ -32,6 +45,8 @@ import com.kaolick.ioio_droid.xively.UploadManager;
 
 /**
  * Simulates the connection to a <code>IOIO</code> and measuring sensor data.
+ * Changes of the sensor configuration are applied while measuring, like in
+ * the {@link IodIOIOService}.
  * 
  * @author kaolick
  * @see Service
@@ -57,7 +72,20 @@ public class IodIOIOSimulationService extends Service
     private List<IodIOIOSensor> mSensors;
     private Integer[] mSensorIDs;
     private List<IOIOSensorTimerTask> mSensorTimerTasks;
-    private List<Timer> mTimers;
+    private Map<Integer, Integer> mDerivedSlots;
+    private IodSamplingScheduler mSamplingScheduler;
+    private IodStorageWriter mStorageWriter;
+    private boolean isMeasuring;
+
+    // Applies changes of the sensor configuration while measuring
+    private BroadcastReceiver mSensorChangedReceiver = new BroadcastReceiver()
+    {
+	@Override
+	public void onReceive(Context _context, Intent _intent)
+	{
+	    applySensorChange(_intent.getIntExtra(Store.SENSOR_ID, -1));
+	}
+    };
 
     // Upload attributes
     private Timer mUploadTimer;
@@ -91,33 +119,46 @@ public class IodIOIOSimulationService extends Service
 	mUploadManager = new UploadManager(mContext, null, false);
 	mSensors = mDatabaseManager.getActiveSensors();
 	mSensorIDs = mDatabaseManager.getSensorIDsOfXivelyUsingActiveSensors();
+	mDerivedSlots = new HashMap<Integer, Integer>();
 	mSensorTimerTasks = createSensorTimerTasks();
-	mTimers = createTimers();
+	mSamplingScheduler = new IodSamplingScheduler();
+	mStorageWriter = new IodStorageWriter(mSensors, mDatabaseManager,
+		Integer.parseInt(mPrefs.getString(mResources
+			.getString(R.string.pref_database_buffer_capacity_key),
+			String.valueOf(IodStorageWriter.DEFAULT_CAPACITY))));
+	mStorageWriter.start();
 	usePositioning = mPrefs.getBoolean(mResources
 		.getString(R.string.pref_location_location_service_key), false);
 	useAutomaticUpload = mPrefs
 		.getBoolean(mResources
 			.getString(R.string.pref_xively_upload_automatic_key),
 			false);
+
+	LocalBroadcastManager.getInstance(mContext).registerReceiver(
+		mSensorChangedReceiver,
+		new IntentFilter(Store.ACTION_SENSOR_CHANGED));
     }
 
     @Override
     public void onDestroy()
     {
+	// Stop applying configuration changes
+	LocalBroadcastManager.getInstance(mContext).unregisterReceiver(
+		mSensorChangedReceiver);
+
 	// Stop location updates
 	if (usePositioning)
 	{
 	    mLocationManager.disconnect();
 	}
 
-	// Cancel all SensorTimerTasks
-	if (mSensorTimerTasks != null)
-	{
-	    for (int i = 0; i < mSensorTimerTasks.size(); i++)
-	    {
-		mSensorTimerTasks.get(i).cancel();
-	    }
-	}
+	// Cancel all SensorTimerTasks and stop the scheduler's threads
+	mSamplingScheduler.shutdown();
+
+	// Let the storage thread save the remaining measured values and the
+	// points pending in the sensors' compressors and wait for it, so the
+	// final upload below includes them
+	mStorageWriter.shutdown();
 
 	// Cancel UploadTimerTask
 	if (mUploadTimerTask != null)
@@ -155,7 +196,9 @@ public class IodIOIOSimulationService extends Service
 
     /**
      * Creates a list of {@link IOIOSensorTimerTask}s, one for each non-paused
-     * sensor.
+     * sensor except the derived ones, which are computed by the
+     * {@link IodStorageWriter}. The slots of the derived sensors are kept by
+     * sensor ID.
      * 
      * @return The list of <code>IOIOSensorTimerTask</code>s
      */
@@ -168,9 +211,15 @@ public class IodIOIOSimulationService extends Service
 	{
 	    for (int i = 0; i < mSensors.size(); i++)
 	    {
+		if (mSensors.get(i).isDerived())
+		{
+		    mDerivedSlots.put(mSensors.get(i).getSensorID(), i);
+		    continue;
+		}
+
 		// Create a IOIOSensorTimerTasks for each sensor in the list
 		IOIOSensorTimerTask sensorTimerTask = new IOIOSensorTimerTask(
-			mSensors.get(i));
+			mSensors.get(i), i);
 
 		// Add it to the list
 		sensorTimerTasks.add(sensorTimerTask);
@@ -181,30 +230,19 @@ public class IodIOIOSimulationService extends Service
     }
 
     /**
-     * Creates a list of {@link Timer}s, one for each sensor in the given sensor
-     * list.
-     * 
-     * @return The list of <code>Timer</code>s
+     * Initializes the automatic upload if activated by the user. An upload
+     * started before is stopped.
      */
-    private List<Timer> createTimers()
+    private void initUpload()
     {
-	// Create a new empty list of timers
-	List<Timer> timers = new ArrayList<Timer>();
-
-	// Create a timer for each sensor
-	for (int i = 0; i < mSensors.size(); i++)
+	// Stop the upload of the former sensor IDs
+	if (mUploadTimer != null)
 	{
-	    timers.add(new Timer());
+	    mUploadTimer.cancel();
+	    mUploadTimer = null;
+	    mUploadTimerTask = null;
 	}
 
-	return timers;
-    }
-
-    /**
-     * Initializes the automatic upload if activated by the user.
-     */
-    private void initUpload()
-    {
 	// If automatic upload is activated in the application's settings...
 	if (useAutomaticUpload)
 	{
@@ -251,22 +289,155 @@ public class IodIOIOSimulationService extends Service
 	    mLocationManager.connect();
 	}
 
-	// Start a timer task for each sensor
+	// Forget the statistics of the last measuring process and map the
+	// measuring clock to the current wall time
+	IodSamplingStats.clear();
+	IodClock.sync();
+
+	// Schedule a timer task for each sensor; all tasks share the
+	// scheduler's worker threads. The shortest periods first, so longer
+	// periods that line up join their groups
+	List<IOIOSensorTimerTask> tasks = new ArrayList<IOIOSensorTimerTask>(
+		mSensorTimerTasks);
+	Collections.sort(tasks, new Comparator<IOIOSensorTimerTask>()
+	{
+	    @Override
+	    public int compare(IOIOSensorTimerTask _a, IOIOSensorTimerTask _b)
+	    {
+		long a = (long) _a.sensor.getFrequency()
+			* _a.sensor.getTimeUnit();
+		long b = (long) _b.sensor.getFrequency()
+			* _b.sensor.getTimeUnit();
+
+		return a < b ? -1 : (a == b ? 0 : 1);
+	    }
+	});
+
+	for (int i = 0; i < tasks.size(); i++)
+	{
+	    scheduleSensorTimerTask(tasks.get(i));
+	}
+
+	isMeasuring = true;
+    }
+
+    /**
+     * Schedules a {@link IOIOSensorTimerTask} at its sensor's period.
+     * 
+     * @param _task
+     *            The <code>IOIOSensorTimerTask</code>
+     */
+    private void scheduleSensorTimerTask(IOIOSensorTimerTask _task)
+    {
+	// Create the measuring period
+	int freq = _task.sensor.getFrequency();
+	int timeUnit = _task.sensor.getTimeUnit();
+	long period = (long) (freq * timeUnit);
+
+	_task.stats = IodSamplingStats.register(_task.sensor, period);
+
+	// Start the IOIOSensorTimerTask
+	mSamplingScheduler.scheduleAtFixedRate(_task, period,
+		_task.sensor.getOverrunPolicy());
+    }
+
+    /**
+     * Applies a change of a sensor's configuration to the running simulation.
+     * The task of the sensor's old configuration is cancelled and, unless the
+     * sensor was paused or deleted, a task for its new configuration is
+     * scheduled in another storage slot, which may be the freed slot of a
+     * sensor stopped earlier. The other tasks keep running.
+     * 
+     * @param _sensorID
+     *            The sensor ID of the changed {@link IodIOIOSensor}
+     */
+    private void applySensorChange(int _sensorID)
+    {
+	// The new configuration; null if the sensor was deleted
+	IodIOIOSensor sensor = mDatabaseManager
+		.getIOIOSensorBySensorID(_sensorID);
+
+	// The sensor may have started or stopped uploading
+	updateUploadSensorIDs();
+
+	// Stop computing the sensor's old configuration if it is derived
+	Integer derivedSlot = mDerivedSlots.remove(_sensorID);
+	if (derivedSlot != null)
+	{
+	    mStorageWriter.retire(derivedSlot);
+	}
+
+	// Stop the sensor's old task
 	for (int i = 0; i < mSensorTimerTasks.size(); i++)
 	{
-	    // Get the current IOIOSensorTimerTask
 	    IOIOSensorTimerTask currentTask = mSensorTimerTasks.get(i);
 
-	    // Get the according timer
-	    Timer timer = mTimers.get(i);
+	    if (currentTask.sensor.getSensorID() == _sensorID)
+	    {
+		mSamplingScheduler.cancel(currentTask);
+		currentTask.cancel();
+		mSensorTimerTasks.remove(i);
+		mStorageWriter.retire(currentTask.slot);
+		break;
+	    }
+	}
 
-	    // Create the measuring period
-	    int freq = currentTask.sensor.getFrequency();
-	    int timeUnit = currentTask.sensor.getTimeUnit();
-	    long period = (long) (freq * timeUnit);
+	if (sensor == null || sensor.getState() != IodIOIOSensor.STATE_ACTIVE)
+	{
+	    return;
+	}
 
-	    // Start the IOIOSensorTimerTasks
-	    timer.scheduleAtFixedRate(currentTask, 0, period);
+	// Start a task for the new configuration; the slot is the sensor's
+	// position in mSensors
+	int slot = mStorageWriter.register(sensor);
+	if (slot < mSensors.size())
+	{
+	    mSensors.set(slot, sensor);
+	}
+	else
+	{
+	    mSensors.add(sensor);
+	}
+
+	// Derived sensors are computed by the storage writer
+	if (sensor.isDerived())
+	{
+	    mDerivedSlots.put(_sensorID, slot);
+	    return;
+	}
+
+	IOIOSensorTimerTask sensorTimerTask = new IOIOSensorTimerTask(sensor,
+		slot);
+	mSensorTimerTasks.add(sensorTimerTask);
+
+	if (isMeasuring)
+	{
+	    scheduleSensorTimerTask(sensorTimerTask);
+	}
+    }
+
+    /**
+     * Updates the sensor IDs of the sensors that upload automatically after a
+     * change of the sensor configuration. The automatic upload is restarted
+     * only if the sensor IDs changed.
+     */
+    private void updateUploadSensorIDs()
+    {
+	Integer[] sensorIDs = mDatabaseManager
+		.getSensorIDsOfXivelyUsingActiveSensors();
+
+	if (new HashSet<Integer>(Arrays.asList(sensorIDs))
+		.equals(new HashSet<Integer>(Arrays.asList(mSensorIDs))))
+	{
+	    return;
+	}
+
+	mSensorIDs = sensorIDs;
+
+	// The upload starts with the measuring process
+	if (isMeasuring)
+	{
+	    initUpload();
 	}
     }
 
@@ -331,12 +502,29 @@ public class IodIOIOSimulationService extends Service
      * Handles the simulation of measuring sensor values.
      * 
      * @author kaolick
-     * @see TimerTask
+     * @see IodSamplingScheduler
      */
-    class IOIOSensorTimerTask extends TimerTask
+    class IOIOSensorTimerTask implements Runnable, DueTimeAware
     {
-	// The sensor
+	// The sensor and its slot at the IodStorageWriter
 	private IodIOIOSensor sensor;
+	private int slot;
+
+	// The last simulated value of a digital event sensor
+	private float lastValue = -1;
+
+	// The simulated pulse count of a counter sensor
+	private double pulseCount = 0;
+
+	// The oversampler of an oversampled sensor; null for other sensors
+	private IodOversampler oversampler;
+
+	// The sensor's timing statistics and the current run's due time
+	private IodSamplingStats stats;
+	private long dueNanos;
+
+	// Set when the task was cancelled; guarded by the task
+	private boolean isCancelled;
 
 	/**
 	 * Class constructor.
@@ -344,38 +532,78 @@ public class IodIOIOSimulationService extends Service
 	 * @param _sensor
 	 *            The {@link IodIOIOSensor} for which the instance of this
 	 *            class handles the simulation of measuring.
+	 * @param _slot
+	 *            The sensor's slot at the {@link IodStorageWriter}
 	 */
-	public IOIOSensorTimerTask(IodIOIOSensor _sensor)
+	public IOIOSensorTimerTask(IodIOIOSensor _sensor, int _slot)
 	{
 	    this.sensor = _sensor;
+	    this.slot = _slot;
+
+	    if (_sensor.getOversamplingCount() > 1)
+	    {
+		this.oversampler = new IodOversampler(_sensor);
+	    }
+	}
+
+	/**
+	 * Stops the task from offering values. A run in progress finishes
+	 * before this returns, so no value follows the sensor's retirement.
+	 */
+	public synchronized void cancel()
+	{
+	    isCancelled = true;
+	}
+
+	@Override
+	public void setDueNanos(long _dueNanos)
+	{
+	    this.dueNanos = _dueNanos;
+	}
+
+	@Override
+	public void onOverrun(long _skippedTicks)
+	{
+	    if (stats != null)
+	    {
+		stats.recordOverrun(_skippedTicks);
+	    }
 	}
 
 	@Override
 	public void run()
 	{
+	    long start = System.nanoTime();
+
 	    // The sensor's value; set to -1 before the value gets measured
 	    float value = -1;
 
 	    // The timestamp for the measuring
-	    String timestamp = Store.getTimestamp();
+	    long timestamp = IodClock.currentTimeMillis();
 
 	    // If the sensor's input type is analog...
 	    if (sensor.getInputType() == IodIOIOSensor.INPUT_TYPE_ANALOG)
 	    {
-		// Simulate getting the sensor's absolute voltage value
-		if (sensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE)
+		// Simulate all samples of an oversampled sensor and reduce them
+		if (oversampler != null)
 		{
-		    // Get a value between 0 and 3.3
-		    value = (float) getRandomDouble(0, 3.3);
+		    for (int i = 0; i < sensor.getOversamplingCount(); i++)
+		    {
+			oversampler.add(simulateAnalogValue());
+		    }
+
+		    value = oversampler.reduce();
 		}
-		// Simulate getting the sensor's relative voltage value
-		else if (sensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_RELATIVE)
+		else
 		{
-		    // Get a value between 0 and 1; this range covers the entire
-		    // range of permitted voltage values
-		    value = (float) getRandomDouble(0, 1);
+		    value = simulateAnalogValue();
 		}
 	    }
+	    // If the sensor's input type is pulse...
+	    else if (sensor.getInputType() == IodIOIOSensor.INPUT_TYPE_PULSE)
+	    {
+		value = simulatePulseValue();
+	    }
 	    // ...the sensor's input type is digital
 	    else
 	    {
@@ -394,8 +622,83 @@ public class IodIOIOSimulationService extends Service
 		}
 	    }
 
-	    // Save the value in the database
-	    sensor.saveValueInDatabase(value, timestamp, mDatabaseManager);
+	    if (stats != null)
+	    {
+		stats.record((start - dueNanos) / 1000,
+			(System.nanoTime() - start) / 1000);
+	    }
+
+	    // Digital event sensors only save transitions
+	    if (sensor.isEventDriven())
+	    {
+		if (value == lastValue)
+		{
+		    return;
+		}
+
+		lastValue = value;
+	    }
+
+	    // Hand the value off for saving
+	    synchronized (this)
+	    {
+		if (!isCancelled)
+		{
+		    mStorageWriter.offer(slot, timestamp, value);
+		}
+	    }
+	}
+
+	/**
+	 * Simulates reading an analog sensor according to its measurement type.
+	 * 
+	 * @return A voltage between 0 and 3.3 or a scaled value between 0 and
+	 *         1; -1 for unknown measurement types.
+	 */
+	private float simulateAnalogValue()
+	{
+	    // Simulate getting the sensor's absolute voltage value; buffered
+	    // sensors are simulated with one value per period
+	    if (sensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE
+		    || sensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_BUFFERED)
+	    {
+		// Get a value between 0 and 3.3
+		return (float) getRandomDouble(0, 3.3);
+	    }
+	    // Simulate getting the sensor's relative voltage value
+	    else if (sensor.getMeasurementType() == IodIOIOSensor.MEASUREMENT_TYPE_RELATIVE)
+	    {
+		// Get a value between 0 and 1; this range covers the entire
+		// range of permitted voltage values
+		return (float) getRandomDouble(0, 1);
+	    }
+
+	    return -1;
+	}
+
+	/**
+	 * Simulates reading a pulse sensor according to its measurement type.
+	 * 
+	 * @return A pulse width between 0 and 10 ms, a frequency between 0 and
+	 *         100 Hz or the pulse count accumulated at such frequencies.
+	 */
+	private float simulatePulseValue()
+	{
+	    switch (sensor.getMeasurementType())
+	    {
+	    case IodIOIOSensor.MEASUREMENT_TYPE_PULSE_WIDTH:
+		return (float) getRandomDouble(0, 10);
+	    case IodIOIOSensor.MEASUREMENT_TYPE_FREQUENCY:
+		return (float) getRandomDouble(0, 100);
+	    case IodIOIOSensor.MEASUREMENT_TYPE_COUNTER:
+		// Count the pulses of one measuring period
+		long period = (long) sensor.getFrequency()
+			* sensor.getTimeUnit();
+		pulseCount += getRandomDouble(0, 100) * period / 1000.0;
+		return (float) pulseCount;
+	    default:
+		return -1;
+	    }
 	}
     }
 
@@ -0,0 +1,215 @@
+package com.kaolick.ioio_droid.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free ring buffer carrying measured samples from the
+ * measuring threads to the storage writer. Any number of threads may offer
+ * samples; exactly one thread polls them.
+ * <p>
+ * A sample is stored in preallocated primitive arrays as (sensor slot,
+ * timestamp, value), so neither offering nor polling allocates. Each cell has
+ * a sequence number that tells producers when the cell is free and the
+ * consumer when it is filled. A full ring never blocks a producer: the sample
+ * is dropped and counted instead, so reading the <code>IOIO</code> does not
+ * wait for the database.
+ *
+ * @author kaolick
+ */
+public class IodSampleRing
+{
+    // The capacity; a power of two
+    private final int mCapacity;
+    private final int mMask;
+
+    // The cells
+    private final int[] mSlots;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final AtomicLongArray mSequences;
+
+    // The next position to offer to and to poll from
+    private final AtomicLong mTail = new AtomicLong();
+    private volatile long mHead;
+
+    // Statistics
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile int mPeakFillLevel;
+
+    // The last polled sample; only used by the consumer
+    private int mPolledSlot;
+    private long mPolledTimestamp;
+    private float mPolledValue;
+
+    /**
+     * Class constructor.
+     *
+     * @param _capacity
+     *            The minimum number of samples the ring can hold; rounded up
+     *            to the next power of two
+     */
+    public IodSampleRing(int _capacity)
+    {
+	int capacity = Integer.highestOneBit(Math.max(2, _capacity));
+	if (capacity < _capacity)
+	{
+	    capacity <<= 1;
+	}
+
+	this.mCapacity = capacity;
+	this.mMask = capacity - 1;
+	this.mSlots = new int[capacity];
+	this.mTimestamps = new long[capacity];
+	this.mValues = new float[capacity];
+	this.mSequences = new AtomicLongArray(capacity);
+
+	for (int i = 0; i < capacity; i++)
+	{
+	    mSequences.set(i, i);
+	}
+    }
+
+    // *************** Producers ***************
+
+    /**
+     * Offers a sample to the ring. May be called from any thread.
+     *
+     * @param _slot
+     *            The sensor's slot at the storage writer
+     * @param _timestamp
+     *            The time of the measurement (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
+     * @param _value
+     *            The measured value
+     * @return <code>true</code> if the sample was added, <code>false</code>
+     *         if the ring was full and the sample was dropped.
+     */
+    public boolean offer(int _slot, long _timestamp, float _value)
+    {
+	while (true)
+	{
+	    long position = mTail.get();
+	    int index = (int) position & mMask;
+	    long difference = mSequences.get(index) - position;
+
+	    // The cell is free; claim it
+	    if (difference == 0)
+	    {
+		if (mTail.compareAndSet(position, position + 1))
+		{
+		    mSlots[index] = _slot;
+		    mTimestamps[index] = _timestamp;
+		    mValues[index] = _value;
+
+		    // Publish the cell to the consumer
+		    mSequences.lazySet(index, position + 1);
+
+		    return true;
+		}
+	    }
+	    // The cell was not polled yet; the ring is full
+	    else if (difference < 0)
+	    {
+		mDropped.incrementAndGet();
+
+		return false;
+	    }
+
+	    // Another producer claimed the cell; try the next one
+	}
+    }
+
+    // *************** Consumer ***************
+
+    /**
+     * Takes the oldest sample from the ring. Must only be called from the
+     * consumer thread; the sample can be read with {@link #getPolledSlot()},
+     * {@link #getPolledTimestamp()} and {@link #getPolledValue()}.
+     *
+     * @return <code>true</code> if a sample was taken, <code>false</code> if
+     *         the ring is empty.
+     */
+    public boolean poll()
+    {
+	long position = mHead;
+	int index = (int) position & mMask;
+
+	// The cell was not published yet
+	if (mSequences.get(index) != position + 1)
+	{
+	    return false;
+	}
+
+	mPolledSlot = mSlots[index];
+	mPolledTimestamp = mTimestamps[index];
+	mPolledValue = mValues[index];
+
+	// Free the cell for the next round
+	mSequences.lazySet(index, position + mCapacity);
+	mHead = position + 1;
+
+	return true;
+    }
+
+    public int getPolledSlot()
+    {
+	return mPolledSlot;
+    }
+
+    public long getPolledTimestamp()
+    {
+	return mPolledTimestamp;
+    }
+
+    public float getPolledValue()
+    {
+	return mPolledValue;
+    }
+
+    // *************** Fill level ***************
+
+    /**
+     * Gets the number of samples waiting in the ring. Also updates the peak
+     * fill level.
+     *
+     * @return the fill level.
+     */
+    public int getFillLevel()
+    {
+	int fillLevel = (int) Math.max(0,
+		Math.min(mCapacity, mTail.get() - mHead));
+
+	if (fillLevel > mPeakFillLevel)
+	{
+	    mPeakFillLevel = fillLevel;
+	}
+
+	return fillLevel;
+    }
+
+    /**
+     * Gets the highest fill level seen by {@link #getFillLevel()}.
+     *
+     * @return the peak fill level.
+     */
+    public int getPeakFillLevel()
+    {
+	return mPeakFillLevel;
+    }
+
+    public int getCapacity()
+    {
+	return mCapacity;
+    }
+
+    /**
+     * Gets the number of samples dropped because the ring was full.
+     *
+     * @return the number of dropped samples.
+     */
+    public long getDroppedCount()
+    {
+	return mDropped.get();
+    }
+}
\ No newline at end of file
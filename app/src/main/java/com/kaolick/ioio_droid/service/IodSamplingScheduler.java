@@ -0,0 +1,437 @@
+package com.kaolick.ioio_droid.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+
+/**
+ * Schedules the periodic measuring tasks of all sensors on a small, fixed
+ * number of worker threads. Tasks with the same overrun policy whose periods
+ * line up are grouped and run back to back on the same tick, so the number of
+ * threads stays the same no matter how many sensors are measuring. A group
+ * ticks at its base period; a task whose period is a multiple of it runs on
+ * every n-th tick, f.e. a 2 s task on every second tick of a 1 s group.
+ * <p>
+ * A task joins the group with the longest base period its period is a
+ * multiple of. Groups are not merged later, so tasks scheduled at once
+ * should be scheduled shortest period first.
+ * <p>
+ * Each group follows an {@link IodTickSchedule} anchored to
+ * {@link System#nanoTime()}: the group reschedules itself after every run, so
+ * a stalled run does not cause a burst of catch-up runs unless the overrun
+ * policy asks for it.
+ * <p>
+ * Tasks implementing {@link DueTimeAware} are told the time each run was
+ * scheduled for and the ticks lost to overruns, so they can measure how late
+ * they are.
+ *
+ * @author kaolick
+ */
+public class IodSamplingScheduler
+{
+    // Number of worker threads
+    public static final int POOL_SIZE = 2;
+
+    // The executor running the sampling groups
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    // The sampling groups
+    private List<SamplingGroup> mGroups;
+
+    /**
+     * Class constructor.
+     */
+    public IodSamplingScheduler()
+    {
+	this.mExecutor = new ScheduledThreadPoolExecutor(POOL_SIZE,
+		new SamplingThreadFactory());
+	this.mGroups = new ArrayList<SamplingGroup>();
+    }
+
+    // *************** Scheduling ***************
+
+    /**
+     * Schedules a task for repeated fixed-rate execution. Missed ticks are
+     * coalesced.
+     *
+     * @param _task
+     *            The task to run
+     * @param _period
+     *            The period in milliseconds
+     * @see #scheduleAtFixedRate(Runnable, long, int)
+     */
+    public void scheduleAtFixedRate(Runnable _task, long _period)
+    {
+	scheduleAtFixedRate(_task, _period,
+		IodIOIOSensor.OVERRUN_POLICY_COALESCE);
+    }
+
+    /**
+     * Schedules a task for repeated fixed-rate execution. If there already is
+     * a group of tasks with the same overrun policy whose base period the
+     * task's period is a multiple of, the task joins that group and runs on
+     * its next tick and on every n-th tick after; otherwise a new group is
+     * started immediately.
+     *
+     * @param _task
+     *            The task to run
+     * @param _period
+     *            The period in milliseconds
+     * @param _overrunPolicy
+     *            What happens to missed ticks; one of the
+     *            <code>IodIOIOSensor.OVERRUN_POLICY_*</code> values
+     */
+    public synchronized void scheduleAtFixedRate(Runnable _task,
+						 long _period,
+						 int _overrunPolicy)
+    {
+	// Join the group with the longest base period that lines up
+	SamplingGroup best = null;
+	for (SamplingGroup group : mGroups)
+	{
+	    if (group.policy == _overrunPolicy && _period % group.period == 0
+		    && (best == null || group.period > best.period))
+	    {
+		best = group;
+	    }
+	}
+
+	if (best != null)
+	{
+	    best.add(_task, _period / best.period);
+	    return;
+	}
+
+	// Create and start a new group for this period and policy
+	SamplingGroup group = new SamplingGroup(_period, _overrunPolicy);
+	group.add(_task, 1);
+	group.start();
+
+	mGroups.add(group);
+    }
+
+    /**
+     * Removes a task from the scheduler. The group it belonged to gets
+     * cancelled if it is empty afterwards.
+     *
+     * @param _task
+     *            The task to remove
+     */
+    public synchronized void cancel(Runnable _task)
+    {
+	Iterator<SamplingGroup> iterator = mGroups.iterator();
+
+	while (iterator.hasNext())
+	{
+	    SamplingGroup group = iterator.next();
+
+	    if (group.remove(_task) && group.members.isEmpty())
+	    {
+		group.cancel();
+		iterator.remove();
+	    }
+	}
+    }
+
+    /**
+     * Cancels all scheduled tasks. The worker threads are kept and can be
+     * used for scheduling new tasks.
+     */
+    public synchronized void cancelAll()
+    {
+	for (SamplingGroup group : mGroups)
+	{
+	    group.cancel();
+	}
+
+	mGroups.clear();
+    }
+
+    /**
+     * Cancels all scheduled tasks and stops the worker threads.
+     */
+    public synchronized void shutdown()
+    {
+	cancelAll();
+	mExecutor.shutdown();
+    }
+
+    /**
+     * Gets the number of groups, i.e. distinct base periods and policies,
+     * currently scheduled.
+     *
+     * @return the number of groups.
+     */
+    public synchronized int getGroupCount()
+    {
+	return mGroups.size();
+    }
+
+    // *************** SamplingGroup ***************
+
+    /**
+     * A group of tasks that share the same overrun policy and run on the same
+     * tick. Each task runs on every n-th tick of the group's base period.
+     *
+     * @author kaolick
+     */
+    private class SamplingGroup implements Runnable
+    {
+	// The tasks of this group
+	private final List<Member> members = new CopyOnWriteArrayList<Member>();
+
+	// The group's base period (in milliseconds) and overrun policy
+	private final long period;
+	private final int policy;
+
+	// The group's tick grid (in nanoseconds)
+	private final IodTickSchedule schedule;
+
+	// The number of the tick served by the next run
+	private volatile long tick;
+
+	// The group's next scheduled run
+	private ScheduledFuture<?> future;
+	private boolean isCancelled;
+
+	public SamplingGroup(long _period, int _policy)
+	{
+	    this.period = _period;
+	    this.policy = _policy;
+	    this.schedule = new IodTickSchedule(
+		    TimeUnit.MILLISECONDS.toNanos(_period), _policy,
+		    System.nanoTime());
+	}
+
+	/**
+	 * Adds a task starting with the group's next tick.
+	 *
+	 * @param _task
+	 *            The task
+	 * @param _multiple
+	 *            The task's period in base periods
+	 */
+	private void add(Runnable _task, long _multiple)
+	{
+	    members.add(new Member(_task, _multiple, tick));
+	}
+
+	/**
+	 * Removes a task.
+	 *
+	 * @param _task
+	 *            The task
+	 * @return <code>true</code> if the task was in this group.
+	 */
+	private boolean remove(Runnable _task)
+	{
+	    for (Member member : members)
+	    {
+		if (member.task == _task)
+		{
+		    return members.remove(member);
+		}
+	    }
+
+	    return false;
+	}
+
+	/**
+	 * Schedules the group's next run according to its tick grid.
+	 */
+	private synchronized void start()
+	{
+	    if (isCancelled)
+	    {
+		return;
+	    }
+
+	    try
+	    {
+		future = mExecutor.schedule(this, schedule.getNextRun()
+			- System.nanoTime(), TimeUnit.NANOSECONDS);
+	    }
+	    catch (RejectedExecutionException _exception)
+	    {
+		// The scheduler was shut down
+		isCancelled = true;
+	    }
+	}
+
+	/**
+	 * Cancels the group's next run.
+	 */
+	private synchronized void cancel()
+	{
+	    isCancelled = true;
+
+	    if (future != null)
+	    {
+		future.cancel(false);
+	    }
+	}
+
+	@Override
+	public void run()
+	{
+	    long dueNanos = schedule.getNextDue();
+	    long currentTick = tick;
+
+	    for (Member member : members)
+	    {
+		if (!member.isDue(currentTick))
+		{
+		    continue;
+		}
+
+		try
+		{
+		    if (member.task instanceof DueTimeAware)
+		    {
+			((DueTimeAware) member.task).setDueNanos(dueNanos);
+		    }
+
+		    member.task.run();
+		}
+		catch (RuntimeException _exception)
+		{
+		    // A failing task must not stop the whole group
+		    _exception.printStackTrace();
+		}
+	    }
+
+	    // Apply the overrun policy and tell the tasks about their lost
+	    // ticks
+	    long skipped = schedule.advance(System.nanoTime());
+	    tick = currentTick + 1 + skipped;
+
+	    if (skipped > 0)
+	    {
+		for (Member member : members)
+		{
+		    long memberSkipped = member.countTicks(currentTick + 1,
+			    currentTick + skipped);
+
+		    if (memberSkipped > 0
+			    && member.task instanceof DueTimeAware)
+		    {
+			((DueTimeAware) member.task).onOverrun(memberSkipped);
+		    }
+		}
+	    }
+
+	    start();
+	}
+    }
+
+    // *************** Member ***************
+
+    /**
+     * A task of a {@link SamplingGroup}, running on every n-th tick of the
+     * group starting with a given tick.
+     *
+     * @author kaolick
+     */
+    private static class Member
+    {
+	private final Runnable task;
+	private final long multiple;
+	private final long firstTick;
+
+	public Member(Runnable _task, long _multiple, long _firstTick)
+	{
+	    this.task = _task;
+	    this.multiple = _multiple;
+	    this.firstTick = _firstTick;
+	}
+
+	/**
+	 * Checks whether the task runs on a tick.
+	 *
+	 * @param _tick
+	 *            The tick's number
+	 * @return <code>true</code> if the task runs on the tick.
+	 */
+	private boolean isDue(long _tick)
+	{
+	    return _tick >= firstTick && (_tick - firstTick) % multiple == 0;
+	}
+
+	/**
+	 * Counts the task's ticks in a range of ticks.
+	 *
+	 * @param _from
+	 *            The first tick of the range
+	 * @param _to
+	 *            The last tick of the range
+	 * @return the number of ticks the task would have run on.
+	 */
+	private long countTicks(long _from, long _to)
+	{
+	    long from = Math.max(_from, firstTick);
+
+	    if (_to < from)
+	    {
+		return 0;
+	    }
+
+	    return (_to - firstTick) / multiple
+		    - (from - firstTick + multiple - 1) / multiple + 1;
+	}
+    }
+
+    // *************** DueTimeAware ***************
+
+    /**
+     * A task that wants to know the time each of its runs was scheduled for.
+     *
+     * @author kaolick
+     */
+    public interface DueTimeAware
+    {
+	/**
+	 * Called right before each run.
+	 *
+	 * @param _dueNanos
+	 *            The time the run was scheduled for (in
+	 *            {@link System#nanoTime()} nanoseconds)
+	 */
+	void setDueNanos(long _dueNanos);
+
+	/**
+	 * Called after a run that ended after the next tick was due.
+	 *
+	 * @param _skippedTicks
+	 *            The number of ticks that were skipped or merged into one
+	 *            run
+	 */
+	void onOverrun(long _skippedTicks);
+    }
+
+    // *************** SamplingThreadFactory ***************
+
+    /**
+     * Creates the scheduler's named worker threads.
+     *
+     * @author kaolick
+     */
+    private static class SamplingThreadFactory implements ThreadFactory
+    {
+	// Number of created threads
+	private int count = 0;
+
+	@Override
+	public synchronized Thread newThread(Runnable _runnable)
+	{
+	    return new Thread(_runnable, "IodSampling-" + (++count));
+	}
+    }
+}
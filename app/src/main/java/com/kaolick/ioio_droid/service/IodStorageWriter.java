@@ -0,0 +1,855 @@
+package com.kaolick.ioio_droid.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.kaolick.ioio_droid.database.IodDatabaseManager;
+import com.kaolick.ioio_droid.sensor.IodExpression;
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.stats.IodSamplingStats;
+
+/**
+ * The dedicated thread saving measured values. The measuring threads offer
+ * their samples to an {@link IodSampleRing} and return right away; the writer
+ * polls the ring and saves the samples in the database. This way a slow
+ * database write never delays reading the <code>IOIO</code>.
+ * <p>
+ * The samples are saved in batches, one transaction per batch. A batch is
+ * written once {@link #MAX_BATCH_SIZE} samples are waiting or the oldest
+ * waiting sample is {@link #MAX_BATCH_DELAY} milliseconds old, whichever
+ * comes first.
+ * <p>
+ * When nothing was saved for {@link #CHECKPOINT_DELAY} milliseconds, the
+ * writer runs a checkpoint of the database's WAL, so the WAL is copied back
+ * while the database is idle rather than in the middle of a batch.
+ * <p>
+ * Gaps, i.e. time windows in which a sensor could not be measured, are
+ * queued separately and saved in the gap table.
+ * <p>
+ * The writer also computes the derived sensors: every value a sensor saves,
+ * i.e. a sample that passed the sensor's threshold and deadband or, for a
+ * compressed sensor, a point its compressor released, updates the compiled
+ * {@link IodExpression}s referencing the sensor. Each of them that has all its
+ * inputs is evaluated and saved with the saved value's timestamp. Samples
+ * that were not saved and the points flushed from the compressors when
+ * measuring stops do not update the derived sensors.
+ * <p>
+ * The values of a snapshot group's sensors are saved as usual and collected
+ * in the group's row as well. The row is saved in the group's snapshot table
+ * when the end of the snapshot arrives, which the measuring thread offers
+ * right after the group's values, with the group's negative number as slot.
+ * <p>
+ * The sensors are passed at construction and addressed by their position in
+ * the list (their slot), so a sample needs no lookup by sensor ID. Sensors
+ * started while measuring get a slot from {@link #register(IodIOIOSensor)}.
+ * The slot of a stopped sensor is handed out again only after its compressor
+ * was flushed, i.e. after all its waiting samples were saved, so the slots
+ * do not grow with each configuration change. When the writer is stopped it
+ * saves the samples still waiting in the ring, then flushes the sensors'
+ * compressors.
+ *
+ * @author kaolick
+ */
+public class IodStorageWriter extends Thread
+{
+    // Logging tag
+    private static final String TAG = "IodStorageWriter";
+
+    // Default capacity of the ring
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // Maximum number of samples saved in one transaction
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    // Maximum time a sample waits for its batch (in milliseconds)
+    public static final long MAX_BATCH_DELAY = 250;
+
+    // Time to wait for more samples (in milliseconds)
+    private static final long IDLE_WAIT = 10;
+
+    // Idle time before a checkpoint (in milliseconds)
+    public static final long CHECKPOINT_DELAY = 1000;
+
+    // Maximum time to wait for the writer when it is stopped (in
+    // milliseconds)
+    public static final long SHUTDOWN_TIMEOUT = 5000;
+
+    // General attributes
+    private volatile IodIOIOSensor[] mSensors;
+    private IodDatabaseManager mDatabaseManager;
+    private IodSampleRing mRing;
+    private volatile boolean isStopped;
+
+    // The time of the last write; 0 if checkpointed since
+    private long mLastWrite;
+
+    // Gaps waiting to be saved
+    private final Queue<Gap> mGaps = new ConcurrentLinkedQueue<Gap>();
+
+    // Slots of stopped sensors whose compressors wait to be flushed
+    private final Queue<Integer> mRetiredSlots = new ConcurrentLinkedQueue<Integer>();
+
+    // Slots of retired sensors whose compressors were flushed; handed out
+    // again by register()
+    private final Queue<Integer> mFreeSlots = new ConcurrentLinkedQueue<Integer>();
+
+    // The slots of stopped sensors until they are handed out again; counts
+    // the changes of the slots
+    private final Set<Integer> mStoppedSlots = Collections
+	    .synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger mVersion = new AtomicInteger();
+
+    // The derived sensors' expressions by slot and, by source slot, the
+    // slots and inputs of the expressions referencing it; only used by the
+    // writer thread and updated when the slots changed
+    private int mDerivedVersion = -1;
+    private IodExpression[] mExpressions = new IodExpression[0];
+    private int[][] mDependentSlots = new int[0][];
+    private int[][] mDependentInputs = new int[0][];
+
+    // The snapshot rows by slot and by group and each slot's column in its
+    // row; only used by the writer thread and updated with the derived
+    // sensors
+    private SnapshotRow[] mSnapshotRows = new SnapshotRow[0];
+    private int[] mSnapshotColumns = new int[0];
+    private final Map<Integer, SnapshotRow> mSnapshotGroups = new HashMap<Integer, SnapshotRow>();
+
+    /**
+     * Class constructor.
+     *
+     * @param _sensors
+     *            The sensors; a sensor's slot is its position in the list
+     * @param _databaseManager
+     *            A {@link IodDatabaseManager} to save the measured values
+     * @param _capacity
+     *            The capacity of the ring
+     */
+    public IodStorageWriter(List<IodIOIOSensor> _sensors,
+			    IodDatabaseManager _databaseManager,
+			    int _capacity)
+    {
+	super("IodStorageWriter");
+
+	this.mSensors = _sensors.toArray(new IodIOIOSensor[_sensors.size()]);
+	this.mDatabaseManager = _databaseManager;
+	this.mRing = new IodSampleRing(_capacity);
+
+	IodSamplingStats.setStorageRing(mRing);
+    }
+
+    /**
+     * Adds a sensor started while measuring. The slot of a retired sensor is
+     * reused once all its samples were saved; otherwise a new slot is
+     * appended.
+     *
+     * @param _sensor
+     *            The {@link IodIOIOSensor}
+     * @return the sensor's slot.
+     */
+    public synchronized int register(IodIOIOSensor _sensor)
+    {
+	Integer freeSlot = mFreeSlots.poll();
+	IodIOIOSensor[] sensors;
+	int slot;
+
+	if (freeSlot != null)
+	{
+	    slot = freeSlot;
+	    sensors = mSensors.clone();
+	}
+	else
+	{
+	    slot = mSensors.length;
+	    sensors = new IodIOIOSensor[slot + 1];
+	    System.arraycopy(mSensors, 0, sensors, 0, slot);
+	}
+
+	sensors[slot] = _sensor;
+
+	// Publish the sensor before its slot is handed out
+	mSensors = sensors;
+	mStoppedSlots.remove(slot);
+	mVersion.incrementAndGet();
+
+	return slot;
+    }
+
+    /**
+     * Flushes the compressor of a stopped sensor. Must be called after the
+     * sensor's last sample was offered.
+     *
+     * @param _slot
+     *            The sensor's slot
+     */
+    public void retire(int _slot)
+    {
+	// A retired derived sensor is not computed any more; a slot is
+	// retired once, so it is not freed twice
+	if (!mStoppedSlots.add(_slot))
+	{
+	    return;
+	}
+	mVersion.incrementAndGet();
+
+	mRetiredSlots.add(_slot);
+    }
+
+    /**
+     * Hands a measured value off for saving. May be called from any thread.
+     *
+     * @param _slot
+     *            The sensor's position in the list passed at construction
+     * @param _timestamp
+     *            The time of the measurement (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
+     * @param _value
+     *            The measured value
+     * @return <code>true</code> if the value was queued, <code>false</code>
+     *         if the ring was full and the value was dropped.
+     */
+    public boolean offer(int _slot, long _timestamp, float _value)
+    {
+	return mRing.offer(_slot, _timestamp, _value);
+    }
+
+    /**
+     * Hands the end of a snapshot off for saving. Must be called by the thread
+     * that offered the snapshot's values, right after them.
+     *
+     * @param _group
+     *            The snapshot group
+     * @param _timestamp
+     *            The snapshot's timestamp, as offered with the values
+     * @return <code>true</code> if the snapshot was queued,
+     *         <code>false</code> if the ring was full and it was dropped.
+     */
+    public boolean offerSnapshot(int _group, long _timestamp)
+    {
+	return mRing.offer(-_group, _timestamp, 0);
+    }
+
+    /**
+     * Hands a gap off for saving. May be called from any thread.
+     *
+     * @param _slot
+     *            The sensor's position in the list passed at construction
+     * @param _start
+     *            The start of the gap (in milliseconds since January 1, 1970
+     *            00:00:00 UTC)
+     * @param _end
+     *            The end of the gap (in milliseconds since January 1, 1970
+     *            00:00:00 UTC)
+     */
+    public void saveGap(int _slot, long _start, long _end)
+    {
+	mGaps.add(new Gap(_slot, _start, _end));
+    }
+
+    public IodSampleRing getRing()
+    {
+	return mRing;
+    }
+
+    /**
+     * Stops the writer after it saved the samples still waiting in the ring
+     * and flushed the sensors' compressors, and waits up to
+     * {@link #SHUTDOWN_TIMEOUT} milliseconds for it. Everything measured is
+     * in the database afterwards unless the timeout passed.
+     * 
+     * @return <code>true</code> if the writer finished, <code>false</code> if
+     *         the timeout passed or the calling thread was interrupted.
+     */
+    public boolean shutdown()
+    {
+	isStopped = true;
+
+	try
+	{
+	    join(SHUTDOWN_TIMEOUT);
+	}
+	catch (InterruptedException _exception)
+	{
+	    // Let the caller see the interrupt
+	    Thread.currentThread().interrupt();
+	}
+
+	if (isAlive())
+	{
+	    Log.w(TAG, "Storage writer did not finish within "
+		    + SHUTDOWN_TIMEOUT + " ms");
+
+	    return false;
+	}
+
+	return true;
+    }
+
+    @Override
+    public void run()
+    {
+	// The time the oldest waiting sample was noticed; 0 if none is waiting
+	long waitingSince = 0;
+
+	while (true)
+	{
+	    // Read the flag first, so no sample offered before shutdown() is
+	    // left behind
+	    boolean stopping = isStopped;
+
+	    writeGaps();
+
+	    // Count the retired sensors first; their last samples are in the
+	    // ring then
+	    int retired = mRetiredSlots.size();
+	    int fillLevel = mRing.getFillLevel();
+
+	    if (fillLevel == 0)
+	    {
+		if (stopping)
+		{
+		    break;
+		}
+
+		if (retired > 0)
+		{
+		    mDatabaseManager.beginTransaction();
+		    try
+		    {
+			flushRetiredSlots(mSensors, retired);
+		    }
+		    finally
+		    {
+			mDatabaseManager.endTransaction(true);
+			mLastWrite = SystemClock.elapsedRealtime();
+		    }
+		}
+
+		waitingSince = 0;
+		checkpointIfIdle();
+		idle();
+		continue;
+	    }
+
+	    long now = SystemClock.elapsedRealtime();
+	    if (waitingSince == 0)
+	    {
+		waitingSince = now;
+	    }
+
+	    // Close the batch on its size or time limit
+	    if (stopping || fillLevel >= MAX_BATCH_SIZE
+		    || now - waitingSince >= MAX_BATCH_DELAY)
+	    {
+		writeBatch(retired);
+		waitingSince = 0;
+	    }
+	    else
+	    {
+		idle();
+	    }
+	}
+
+	// Save the points pending in the sensors' compressors
+	IodIOIOSensor[] sensors = mSensors;
+
+	mDatabaseManager.beginTransaction();
+	try
+	{
+	    for (int i = 0; i < sensors.length; i++)
+	    {
+		sensors[i].flushCompressor(mDatabaseManager);
+	    }
+	}
+	finally
+	{
+	    mDatabaseManager.endTransaction(true);
+	}
+
+	mDatabaseManager.checkpoint();
+    }
+
+    /**
+     * Runs a checkpoint if something was written since the last one and the
+     * writer has been idle for {@link #CHECKPOINT_DELAY} milliseconds.
+     */
+    private void checkpointIfIdle()
+    {
+	if (mLastWrite != 0
+		&& SystemClock.elapsedRealtime() - mLastWrite >= CHECKPOINT_DELAY)
+	{
+	    mDatabaseManager.checkpoint();
+	    mLastWrite = 0;
+	}
+    }
+
+    /**
+     * Waits for more samples.
+     */
+    private void idle()
+    {
+	try
+	{
+	    Thread.sleep(IDLE_WAIT);
+	}
+	catch (InterruptedException _exception)
+	{
+	    // Keep draining until stopped
+	}
+    }
+
+    /**
+     * Saves all waiting gaps in one transaction.
+     */
+    private void writeGaps()
+    {
+	if (mGaps.isEmpty())
+	{
+	    return;
+	}
+
+	IodIOIOSensor[] sensors = mSensors;
+
+	mDatabaseManager.beginTransaction();
+
+	try
+	{
+	    Gap gap;
+
+	    while ((gap = mGaps.poll()) != null)
+	    {
+		mDatabaseManager.saveGap(sensors[gap.slot].getSensorID(),
+			gap.start, gap.end);
+	    }
+	}
+	finally
+	{
+	    mDatabaseManager.endTransaction(true);
+	    mLastWrite = SystemClock.elapsedRealtime();
+	}
+    }
+
+    /**
+     * Saves up to {@link #MAX_BATCH_SIZE} waiting samples in one transaction.
+     * Flushes the compressors of the retired sensors if all waiting samples
+     * were saved.
+     *
+     * @param _retired
+     *            The number of sensors retired before the samples were
+     *            counted
+     */
+    private void writeBatch(int _retired)
+    {
+	IodIOIOSensor[] sensors = getSensors();
+
+	mDatabaseManager.beginTransaction();
+
+	try
+	{
+	    int count = 0;
+
+	    while (count < MAX_BATCH_SIZE && mRing.poll())
+	    {
+		int slot = mRing.getPolledSlot();
+		float value = mRing.getPolledValue();
+		long timestamp = mRing.getPolledTimestamp();
+		count++;
+
+		// The end of a snapshot
+		if (slot < 0)
+		{
+		    saveSnapshot(-slot, timestamp);
+		    continue;
+		}
+
+		// A sensor was registered after the batch started
+		if (sensors != mSensors)
+		{
+		    sensors = getSensors();
+		}
+
+		if (sensors[slot].saveValueInDatabase(value, timestamp,
+			mDatabaseManager))
+		{
+		    derive(sensors, slot, sensors[slot].getSavedValue(),
+			    sensors[slot].getSavedMillis());
+		}
+
+		collectSnapshot(sensors, slot, value, timestamp);
+	    }
+
+	    // The ring was drained, so the retired sensors' last samples are
+	    // saved
+	    if (count < MAX_BATCH_SIZE)
+	    {
+		flushRetiredSlots(sensors, _retired);
+	    }
+	}
+	finally
+	{
+	    mDatabaseManager.endTransaction(true);
+	    mLastWrite = SystemClock.elapsedRealtime();
+	}
+    }
+
+    /**
+     * Gets the current sensors by slot. Updates the derived sensors and the
+     * snapshot groups if sensors were added or retired since the last call.
+     *
+     * @return the sensors.
+     */
+    private IodIOIOSensor[] getSensors()
+    {
+	// Read the version first; the array may already be newer
+	int version = mVersion.get();
+	IodIOIOSensor[] sensors = mSensors;
+
+	if (version != mDerivedVersion
+		|| sensors.length != mDependentSlots.length)
+	{
+	    updateDerivedSensors(sensors);
+	    updateSnapshotGroups(sensors);
+	    mDerivedVersion = version;
+	}
+
+	return sensors;
+    }
+
+    /**
+     * Compiles the expressions of new derived sensors and finds the
+     * expressions referencing each sensor. Expressions compiled earlier keep
+     * their latest input values.
+     *
+     * @param _sensors
+     *            The sensors by slot
+     */
+    private void updateDerivedSensors(IodIOIOSensor[] _sensors)
+    {
+	IodExpression[] expressions = new IodExpression[_sensors.length];
+
+	for (int i = 0; i < _sensors.length; i++)
+	{
+	    if (!_sensors[i].isDerived() || mStoppedSlots.contains(i))
+	    {
+		continue;
+	    }
+
+	    if (i < mExpressions.length && mExpressions[i] != null)
+	    {
+		expressions[i] = mExpressions[i];
+		continue;
+	    }
+
+	    try
+	    {
+		expressions[i] = IodExpression.compile(_sensors[i]
+			.getExpression());
+	    }
+	    catch (IllegalArgumentException _exception)
+	    {
+		Log.w(TAG, "Sensor " + _sensors[i].getSensorID() + ": "
+			+ _exception.getMessage());
+	    }
+	}
+
+	int[][] dependentSlots = new int[_sensors.length][];
+	int[][] dependentInputs = new int[_sensors.length][];
+	List<int[]> dependents = new ArrayList<int[]>();
+
+	for (int i = 0; i < _sensors.length; i++)
+	{
+	    dependents.clear();
+
+	    // Derived sensors are not inputs of other derived sensors
+	    if (!_sensors[i].isDerived())
+	    {
+		int sensorID = _sensors[i].getSensorID();
+
+		for (int j = 0; j < expressions.length; j++)
+		{
+		    for (int k = 0; expressions[j] != null
+			    && k < expressions[j].getInputCount(); k++)
+		    {
+			if (expressions[j].getSensorID(k) == sensorID)
+			{
+			    dependents.add(new int[] { j, k });
+			}
+		    }
+		}
+	    }
+
+	    dependentSlots[i] = new int[dependents.size()];
+	    dependentInputs[i] = new int[dependents.size()];
+
+	    for (int j = 0; j < dependents.size(); j++)
+	    {
+		dependentSlots[i][j] = dependents.get(j)[0];
+		dependentInputs[i][j] = dependents.get(j)[1];
+	    }
+	}
+
+	mExpressions = expressions;
+	mDependentSlots = dependentSlots;
+	mDependentInputs = dependentInputs;
+    }
+
+    /**
+     * Passes a saved value to the derived sensors referencing its sensor and
+     * saves their new values.
+     *
+     * @param _sensors
+     *            The sensors by slot
+     * @param _slot
+     *            The slot of the value's sensor
+     * @param _value
+     *            The saved, calibrated value
+     * @param _timestamp
+     *            The saved value's timestamp (in milliseconds since January
+     *            1, 1970 00:00:00 UTC)
+     */
+    private void derive(IodIOIOSensor[] _sensors,
+			int _slot,
+			float _value,
+			long _timestamp)
+    {
+	int[] slots = mDependentSlots[_slot];
+
+	// No derived sensor references the sensor
+	if (slots.length == 0)
+	{
+	    return;
+	}
+
+	for (int i = 0; i < slots.length; i++)
+	{
+	    IodExpression expression = mExpressions[slots[i]];
+	    expression.setInput(mDependentInputs[_slot][i], _value);
+
+	    if (!expression.isComplete())
+	    {
+		continue;
+	    }
+
+	    double value = expression.evaluate();
+
+	    // Results like a division by zero are not saved
+	    if (!Double.isNaN(value) && !Double.isInfinite(value))
+	    {
+		_sensors[slots[i]].saveValueInDatabase((float) value,
+			_timestamp, mDatabaseManager);
+	    }
+	}
+    }
+
+    /**
+     * Finds the sensors of each snapshot group and creates or extends the
+     * groups' tables. Values collected for a snapshot that is not complete
+     * yet are dropped.
+     *
+     * @param _sensors
+     *            The sensors by slot
+     */
+    private void updateSnapshotGroups(IodIOIOSensor[] _sensors)
+    {
+	SnapshotRow[] rows = new SnapshotRow[_sensors.length];
+	int[] columns = new int[_sensors.length];
+	Map<Integer, List<Integer>> slotsByGroup = new HashMap<Integer, List<Integer>>();
+
+	for (int i = 0; i < _sensors.length; i++)
+	{
+	    int group = _sensors[i].getSnapshotGroup();
+
+	    if (group == IodIOIOSensor.SNAPSHOT_GROUP_NONE
+		    || _sensors[i].isDerived() || mStoppedSlots.contains(i))
+	    {
+		continue;
+	    }
+
+	    List<Integer> slots = slotsByGroup.get(group);
+	    if (slots == null)
+	    {
+		slots = new ArrayList<Integer>();
+		slotsByGroup.put(group, slots);
+	    }
+	    slots.add(i);
+	}
+
+	mSnapshotGroups.clear();
+
+	for (Map.Entry<Integer, List<Integer>> entry : slotsByGroup.entrySet())
+	{
+	    List<Integer> slots = entry.getValue();
+	    SnapshotRow row = new SnapshotRow(entry.getKey(), slots.size());
+
+	    for (int j = 0; j < slots.size(); j++)
+	    {
+		rows[slots.get(j)] = row;
+		columns[slots.get(j)] = j;
+		row.sensorIDs[j] = _sensors[slots.get(j)].getSensorID();
+	    }
+
+	    mDatabaseManager.createSnapshotTable(row.group, row.sensorIDs);
+	    mSnapshotGroups.put(row.group, row);
+	}
+
+	mSnapshotRows = rows;
+	mSnapshotColumns = columns;
+    }
+
+    /**
+     * Collects a saved sample in its snapshot group's row. A sample with a
+     * new timestamp starts a new snapshot.
+     *
+     * @param _sensors
+     *            The sensors by slot
+     * @param _slot
+     *            The slot of the sample's sensor
+     * @param _value
+     *            The sample's value, not calibrated yet
+     * @param _timestamp
+     *            The sample's timestamp (in milliseconds since January 1,
+     *            1970 00:00:00 UTC)
+     */
+    private void collectSnapshot(IodIOIOSensor[] _sensors,
+				 int _slot,
+				 float _value,
+				 long _timestamp)
+    {
+	SnapshotRow row = mSnapshotRows[_slot];
+
+	if (row == null || _value == -1)
+	{
+	    return;
+	}
+
+	if (row.timestamp != _timestamp)
+	{
+	    row.clear(_timestamp);
+	}
+
+	row.values[mSnapshotColumns[_slot]] = _sensors[_slot].calibrate(_value);
+    }
+
+    /**
+     * Saves the collected row of a snapshot group.
+     *
+     * @param _group
+     *            The snapshot group
+     * @param _timestamp
+     *            The snapshot's timestamp
+     */
+    private void saveSnapshot(int _group, long _timestamp)
+    {
+	SnapshotRow row = mSnapshotGroups.get(_group);
+
+	// The group changed or none of its values arrived
+	if (row == null || row.timestamp != _timestamp)
+	{
+	    return;
+	}
+
+	mDatabaseManager.saveSnapshot(_group, _timestamp, row.sensorIDs,
+		row.values);
+	row.clear(0);
+    }
+
+    /**
+     * Flushes the compressors of the oldest retired sensors and frees their
+     * slots.
+     *
+     * @param _sensors
+     *            The sensors by slot
+     * @param _count
+     *            The number of retired sensors to flush
+     */
+    private void flushRetiredSlots(IodIOIOSensor[] _sensors, int _count)
+    {
+	for (int i = 0; i < _count; i++)
+	{
+	    int slot = mRetiredSlots.poll();
+	    _sensors[slot].flushCompressor(mDatabaseManager);
+
+	    // The next sensor in the slot gets its own expression
+	    if (slot < mExpressions.length)
+	    {
+		mExpressions[slot] = null;
+	    }
+
+	    // All samples of the slot were saved
+	    mFreeSlots.add(slot);
+	}
+    }
+
+    // *************** SnapshotRow ***************
+
+    /**
+     * The values of a snapshot group's sensors collected for one snapshot.
+     *
+     * @author kaolick
+     */
+    private static class SnapshotRow
+    {
+	private final int group;
+	private final int[] sensorIDs;
+	private final float[] values;
+
+	// The snapshot's timestamp; 0 if nothing was collected
+	private long timestamp;
+
+	public SnapshotRow(int _group, int _size)
+	{
+	    this.group = _group;
+	    this.sensorIDs = new int[_size];
+	    this.values = new float[_size];
+
+	    clear(0);
+	}
+
+	/**
+	 * Starts a new snapshot without values.
+	 *
+	 * @param _timestamp
+	 *            The new snapshot's timestamp
+	 */
+	private void clear(long _timestamp)
+	{
+	    this.timestamp = _timestamp;
+
+	    for (int i = 0; i < values.length; i++)
+	    {
+		values[i] = Float.NaN;
+	    }
+	}
+    }
+
+    // *************** Gap ***************
+
+    /**
+     * A time window in which a sensor could not be measured.
+     *
+     * @author kaolick
+     */
+    private static class Gap
+    {
+	private final int slot;
+	private final long start;
+	private final long end;
+
+	public Gap(int _slot, long _start, long _end)
+	{
+	    this.slot = _slot;
+	    this.start = _start;
+	    this.end = _end;
+	}
+    }
+}
\ No newline at end of file
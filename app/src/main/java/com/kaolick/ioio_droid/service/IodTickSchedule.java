@@ -0,0 +1,167 @@
+package com.kaolick.ioio_droid.service;
+
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+
+/**
+ * The tick grid of a periodic measuring task. Tick <i>n</i> is due at
+ * <code>start + n * period</code> of a monotonic clock, so the schedule does
+ * not drift no matter how long the single runs take. The time unit is up to
+ * the caller.
+ * <p>
+ * When a run ends after the next tick was due, the task is overrun. What
+ * happens to the missed ticks depends on the sensor's overrun policy:
+ * <ul>
+ * <li><i>coalesce</i>: the missed ticks are merged into one run right away</li>
+ * <li><i>skip</i>: the missed ticks are dropped; the next run is on the next
+ * tick in the future</li>
+ * <li><i>catch up</i>: every missed tick is run, but at most at
+ * {@link #CATCH_UP_RATE} times the normal rate, and only the last
+ * {@link #MAX_CATCH_UP_TICKS} missed ticks</li>
+ * </ul>
+ *
+ * @author kaolick
+ */
+public class IodTickSchedule
+{
+    // Catch-up runs happen at up to this multiple of the normal rate
+    public static final int CATCH_UP_RATE = 4;
+
+    // Maximum number of missed ticks that are caught up; older ticks are
+    // skipped
+    public static final int MAX_CATCH_UP_TICKS = 16;
+
+    // The schedule
+    private final long mPeriod;
+    private final int mPolicy;
+
+    // The tick served by the next run and the time of the next run; both are
+    // equal unless a catch-up run is delayed
+    private long mNextDue;
+    private long mNextRun;
+
+    /**
+     * Class constructor. The first tick is due at the start time.
+     *
+     * @param _period
+     *            The period; at least 1
+     * @param _policy
+     *            The overrun policy; one of the
+     *            <code>IodIOIOSensor.OVERRUN_POLICY_*</code> values
+     * @param _start
+     *            The start time
+     */
+    public IodTickSchedule(long _period, int _policy, long _start)
+    {
+	this.mPeriod = Math.max(1, _period);
+	this.mPolicy = _policy;
+	this.mNextDue = _start;
+	this.mNextRun = _start;
+    }
+
+    /**
+     * Advances the schedule after a run and applies the overrun policy.
+     *
+     * @param _now
+     *            The time the run ended
+     * @return The number of ticks that were skipped or merged into the next
+     *         run; 0 if the run was not overrun.
+     */
+    public long advance(long _now)
+    {
+	mNextDue += mPeriod;
+	mNextRun = mNextDue;
+
+	// Not overrun
+	if (mNextDue > _now)
+	{
+	    return 0;
+	}
+
+	// The number of ticks due by now
+	long behind = (_now - mNextDue) / mPeriod + 1;
+	long skipped;
+
+	switch (mPolicy)
+	{
+	case IodIOIOSensor.OVERRUN_POLICY_SKIP:
+	    // Continue with the first tick in the future
+	    skipped = behind;
+	    break;
+	case IodIOIOSensor.OVERRUN_POLICY_CATCH_UP:
+	    // Drop the ticks beyond the catch-up limit
+	    skipped = Math.max(0, behind - MAX_CATCH_UP_TICKS);
+	    break;
+	default:
+	    // Run once right away for the latest due tick
+	    skipped = behind - 1;
+	    break;
+	}
+
+	mNextDue += skipped * mPeriod;
+	mNextRun = mNextDue;
+
+	// Space out the catch-up runs
+	if (mPolicy == IodIOIOSensor.OVERRUN_POLICY_CATCH_UP && mNextDue <= _now)
+	{
+	    mNextRun = _now + Math.max(1, mPeriod / CATCH_UP_RATE);
+	}
+
+	return skipped;
+    }
+
+    /**
+     * Resumes the schedule after a pause, f.e. a lost connection. The ticks
+     * missed while paused are dropped regardless of the overrun policy, and
+     * the next run is on the first tick at or after the given time, so the
+     * schedule keeps its original phase.
+     *
+     * @param _now
+     *            The time the pause ended
+     * @return The number of dropped ticks.
+     */
+    public long resume(long _now)
+    {
+	long dropped = 0;
+
+	if (mNextDue < _now)
+	{
+	    dropped = (_now - mNextDue + mPeriod - 1) / mPeriod;
+	    mNextDue += dropped * mPeriod;
+	}
+
+	mNextRun = mNextDue;
+
+	return dropped;
+    }
+
+    /**
+     * Gets the time the tick served by the next run is due at.
+     *
+     * @return the due time.
+     */
+    public long getNextDue()
+    {
+	return mNextDue;
+    }
+
+    /**
+     * Gets the time of the next run. Only later than the due time for
+     * delayed catch-up runs.
+     *
+     * @return the time of the next run.
+     */
+    public long getNextRun()
+    {
+	return mNextRun;
+    }
+
+    /**
+     * Gets the period.
+     *
+     * @return the period.
+     */
+    public long getPeriod()
+    {
+	return mPeriod;
+    }
+}
@@ -0,0 +1,141 @@
+package com.kaolick.ioio_droid.stats;
+
+/**
+ * A histogram of durations with a fixed memory footprint. The durations are
+ * counted in power-of-two buckets of microseconds: bucket 0 holds 0 us,
+ * bucket <i>i</i> holds the durations from 2^(i-1) up to 2^i - 1 us. The last
+ * bucket holds everything above.
+ *
+ * @author kaolick
+ */
+public class IodHistogram
+{
+    // Number of buckets; the last bucket starts at about 17 minutes
+    public static final int BUCKETS = 32;
+
+    // The bucket counts
+    private final long[] mBuckets = new long[BUCKETS];
+
+    // Summary values (in microseconds)
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    /**
+     * Records a duration. Negative durations are counted as 0.
+     *
+     * @param _micros
+     *            The duration in microseconds
+     */
+    public void record(long _micros)
+    {
+	if (_micros < 0)
+	{
+	    _micros = 0;
+	}
+
+	int bucket = 64 - Long.numberOfLeadingZeros(_micros);
+	mBuckets[Math.min(bucket, BUCKETS - 1)]++;
+
+	mCount++;
+	mSum += _micros;
+	mMax = Math.max(mMax, _micros);
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the count.
+     */
+    public long getCount()
+    {
+	return mCount;
+    }
+
+    /**
+     * Gets the mean of the recorded durations.
+     *
+     * @return the mean in microseconds; 0 if nothing was recorded.
+     */
+    public long getMean()
+    {
+	return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     *
+     * @return the maximum in microseconds.
+     */
+    public long getMax()
+    {
+	return mMax;
+    }
+
+    /**
+     * Gets an upper bound of a percentile, i.e. the upper end of the bucket
+     * the percentile falls into.
+     *
+     * @param _percentile
+     *            The percentile; between 0 and 100
+     * @return the upper bound in microseconds; 0 if nothing was recorded.
+     */
+    public long getPercentile(double _percentile)
+    {
+	long rank = (long) Math.ceil(mCount * _percentile / 100);
+	long cumulated = 0;
+
+	for (int i = 0; i < BUCKETS; i++)
+	{
+	    cumulated += mBuckets[i];
+
+	    if (cumulated >= rank && cumulated > 0)
+	    {
+		return Math.min(getUpperBound(i), mMax);
+	    }
+	}
+
+	return 0;
+    }
+
+    /**
+     * Appends a short summary and all non-empty buckets to a
+     * {@link StringBuilder}.
+     *
+     * @param _builder
+     *            The <code>StringBuilder</code>
+     */
+    public void appendTo(StringBuilder _builder)
+    {
+	_builder.append("mean ").append(getMean()).append(", p50 ")
+		.append(getPercentile(50)).append(", p99 ")
+		.append(getPercentile(99)).append(", max ").append(mMax)
+		.append('\n');
+
+	for (int i = 0; i < BUCKETS; i++)
+	{
+	    if (mBuckets[i] > 0)
+	    {
+		_builder.append("    <= ").append(getUpperBound(i))
+			.append(": ").append(mBuckets[i]).append('\n');
+	    }
+	}
+    }
+
+    /**
+     * Gets the largest duration counted in a bucket.
+     *
+     * @param _bucket
+     *            The bucket's index
+     * @return the upper bound in microseconds.
+     */
+    private static long getUpperBound(int _bucket)
+    {
+	if (_bucket == BUCKETS - 1)
+	{
+	    return Long.MAX_VALUE;
+	}
+
+	return (1L << _bucket) - 1;
+    }
+}
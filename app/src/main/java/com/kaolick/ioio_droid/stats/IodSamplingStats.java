@@ -0,0 +1,326 @@
+package com.kaolick.ioio_droid.stats;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Environment;
+
+import com.kaolick.ioio_droid.export.StorageHelper;
+import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
+import com.kaolick.ioio_droid.service.IodSampleRing;
+import com.kaolick.ioio_droid.store.Store;
+
+/**
+ * Timing statistics of one sensor's measuring process: how late each sample
+ * was taken compared to its scheduled time, how long reading the value took
+ * and how many deadlines were missed. A deadline counts as missed when a
+ * sample is a whole period or more late, i.e. it was taken in the slot of the
+ * next sample. Ticks that were skipped or merged by the sensor's overrun
+ * policy are counted separately, as are reconnects of the sensor's board and
+ * the time from each reconnect to the first sample.
+ * <p>
+ * A snapshot group has statistics of its own: they record the lateness and
+ * the read duration of the whole group.
+ * <p>
+ * The statistics of the running measuring process are kept in a process wide
+ * registry, so they can be viewed while measuring and dumped to a file. The
+ * report also shows the fill level of the ring buffer feeding the storage
+ * writer.
+ *
+ * @author kaolick
+ */
+public class IodSamplingStats
+{
+    // Name of the dump file
+    public static final String DUMP_FILE_NAME = "sampling_stats.txt";
+
+    // The statistics of the current measuring process by sensor ID; snapshot
+    // groups by their negative group number
+    private static final Map<Integer, IodSamplingStats> sRegistry = new LinkedHashMap<Integer, IodSamplingStats>();
+
+    // The ring buffer of the current measuring process
+    private static volatile IodSampleRing sStorageRing;
+
+    // The sensor or snapshot group
+    private final String mLabel;
+    private final long mPeriodMicros;
+
+    // The histograms
+    private final IodHistogram mLateness = new IodHistogram();
+    private final IodHistogram mReadDuration = new IodHistogram();
+
+    // The number of missed deadlines
+    private long mMissedDeadlines;
+
+    // The number of overruns and the ticks lost to them
+    private long mOverruns;
+    private long mSkippedTicks;
+
+    // The time from a reconnect to the first sample
+    private final IodHistogram mFirstSample = new IodHistogram();
+
+    /**
+     * Class constructor.
+     *
+     * @param _label
+     *            The sensor or snapshot group as shown in the report
+     * @param _periodMillis
+     *            The sampling period (in milliseconds)
+     */
+    private IodSamplingStats(String _label, long _periodMillis)
+    {
+	this.mLabel = _label;
+	this.mPeriodMicros = _periodMillis * 1000;
+    }
+
+    // *************** Registry ***************
+
+    /**
+     * Creates the statistics of a sensor and registers them. Statistics of an
+     * earlier measuring process of the same sensor are replaced.
+     *
+     * @param _sensor
+     *            The {@link IodIOIOSensor}
+     * @param _periodMillis
+     *            The sensor's sampling period (in milliseconds)
+     * @return the new <code>IodSamplingStats</code>.
+     */
+    public static IodSamplingStats register(IodIOIOSensor _sensor,
+					    long _periodMillis)
+    {
+	IodSamplingStats stats = new IodSamplingStats("Sensor "
+		+ _sensor.getSensorID() + " (" + _sensor.getName() + ")",
+		_periodMillis);
+
+	synchronized (sRegistry)
+	{
+	    sRegistry.put(_sensor.getSensorID(), stats);
+	}
+
+	return stats;
+    }
+
+    /**
+     * Creates the statistics of a snapshot group and registers them.
+     * Statistics of an earlier measuring process of the same group are
+     * replaced.
+     *
+     * @param _group
+     *            The snapshot group
+     * @param _periodMillis
+     *            The group's sampling period (in milliseconds)
+     * @return the new <code>IodSamplingStats</code>.
+     */
+    public static IodSamplingStats registerSnapshot(int _group,
+						    long _periodMillis)
+    {
+	IodSamplingStats stats = new IodSamplingStats("Snapshot group "
+		+ _group, _periodMillis);
+
+	synchronized (sRegistry)
+	{
+	    sRegistry.put(-_group, stats);
+	}
+
+	return stats;
+    }
+
+    /**
+     * Removes all registered statistics. Called when a new measuring process
+     * starts.
+     */
+    public static void clear()
+    {
+	synchronized (sRegistry)
+	{
+	    sRegistry.clear();
+	}
+    }
+
+    /**
+     * Sets the ring buffer whose fill level is shown in the report.
+     *
+     * @param _ring
+     *            The {@link IodSampleRing}
+     */
+    public static void setStorageRing(IodSampleRing _ring)
+    {
+	sStorageRing = _ring;
+    }
+
+    /**
+     * Creates a human readable report of all registered statistics.
+     *
+     * @return the report; empty if nothing is registered.
+     */
+    public static String getReport()
+    {
+	List<IodSamplingStats> allStats;
+
+	synchronized (sRegistry)
+	{
+	    allStats = new ArrayList<IodSamplingStats>(sRegistry.values());
+	}
+
+	StringBuilder builder = new StringBuilder();
+
+	for (IodSamplingStats stats : allStats)
+	{
+	    stats.appendTo(builder);
+	    builder.append('\n');
+	}
+
+	IodSampleRing ring = sStorageRing;
+	if (builder.length() > 0 && ring != null)
+	{
+	    builder.append("Storage buffer: ").append(ring.getFillLevel())
+		    .append(" of ").append(ring.getCapacity())
+		    .append(" (peak ").append(ring.getPeakFillLevel())
+		    .append("), dropped ").append(ring.getDroppedCount())
+		    .append('\n');
+	}
+
+	return builder.toString();
+    }
+
+    /**
+     * Writes the report of all registered statistics to the external storage.
+     *
+     * @return the written {@link File}; <code>null</code> if the external
+     *         storage is not available or writing failed.
+     */
+    public static File dumpToFile()
+    {
+	if (!new StorageHelper().isExternalStorageAvailableAndWriteable())
+	{
+	    return null;
+	}
+
+	// Directory on external storage
+	File dumpDir = new File(Environment.getExternalStorageDirectory(),
+		Store.FOLDER_FILE_PATH);
+
+	// In case the directory does not exist
+	if (!dumpDir.exists())
+	{
+	    dumpDir.mkdirs();
+	}
+
+	File file = new File(dumpDir, DUMP_FILE_NAME);
+
+	try
+	{
+	    FileWriter writer = new FileWriter(file);
+	    writer.write(Store.formatTimestamp(System.currentTimeMillis()) + "\n\n");
+	    writer.write(getReport());
+	    writer.close();
+
+	    return file;
+	}
+	catch (IOException _exception)
+	{
+	    _exception.printStackTrace();
+
+	    return null;
+	}
+    }
+
+    // *************** Recording ***************
+
+    /**
+     * Records one sample.
+     *
+     * @param _latenessMicros
+     *            The time between the sample's scheduled time and the start of
+     *            reading it (in microseconds)
+     * @param _readMicros
+     *            The time needed for reading the value (in microseconds)
+     */
+    public synchronized void record(long _latenessMicros, long _readMicros)
+    {
+	mLateness.record(_latenessMicros);
+	mReadDuration.record(_readMicros);
+
+	if (mPeriodMicros > 0 && _latenessMicros >= mPeriodMicros)
+	{
+	    mMissedDeadlines += _latenessMicros / mPeriodMicros;
+	}
+    }
+
+    /**
+     * Records an overrun, i.e. a read that ended after the next tick was due.
+     *
+     * @param _skippedTicks
+     *            The number of ticks that were skipped or merged into one read
+     */
+    public synchronized void recordOverrun(long _skippedTicks)
+    {
+	mOverruns++;
+	mSkippedTicks += _skippedTicks;
+    }
+
+    /**
+     * Records the first sample after the sensor's board reconnected.
+     *
+     * @param _firstSampleMicros
+     *            The time between the reconnect and the first sample (in
+     *            microseconds)
+     */
+    public synchronized void recordReconnect(long _firstSampleMicros)
+    {
+	mFirstSample.record(_firstSampleMicros);
+    }
+
+    /**
+     * Gets the number of overruns.
+     *
+     * @return the number of overruns.
+     */
+    public synchronized long getOverruns()
+    {
+	return mOverruns;
+    }
+
+    /**
+     * Gets the number of missed deadlines.
+     *
+     * @return the number of missed deadlines.
+     */
+    public synchronized long getMissedDeadlines()
+    {
+	return mMissedDeadlines;
+    }
+
+    /**
+     * Appends the statistics to a {@link StringBuilder}.
+     *
+     * @param _builder
+     *            The <code>StringBuilder</code>
+     */
+    private synchronized void appendTo(StringBuilder _builder)
+    {
+	_builder.append(mLabel).append(", period ")
+		.append(mPeriodMicros / 1000).append(" ms\n");
+	_builder.append("  samples ").append(mLateness.getCount())
+		.append(", missed deadlines ").append(mMissedDeadlines)
+		.append(", overruns ").append(mOverruns)
+		.append(" (").append(mSkippedTicks)
+		.append(" ticks skipped or merged)\n");
+	_builder.append("  lateness (us): ");
+	mLateness.appendTo(_builder);
+	_builder.append("  read (us): ");
+	mReadDuration.appendTo(_builder);
+
+	if (mFirstSample.getCount() > 0)
+	{
+	    _builder.append("  reconnects ").append(mFirstSample.getCount())
+		    .append(", first sample after reconnect (us): ");
+	    mFirstSample.appendTo(_builder);
+	}
+    }
+}
@@ -0,0 +1,53 @@
+package com.kaolick.ioio_droid.store;
+
+import android.os.SystemClock;
+
+/**
+ * The time source for measurement timestamps. Times are taken from the
+ * monotonic {@link SystemClock#elapsedRealtime()} and mapped to wall time
+ * (milliseconds since January 1, 1970 00:00:00 UTC) with an offset captured
+ * by {@link #sync()}. This way the timestamps of a measuring process never
+ * jump, even if the wall clock gets adjusted while measuring.
+ *
+ * @author kaolick
+ */
+public class IodClock
+{
+    // Wall time minus elapsed realtime (in milliseconds)
+    private static volatile long sOffset = System.currentTimeMillis()
+	    - SystemClock.elapsedRealtime();
+
+    /**
+     * Maps the monotonic clock to the current wall time. Called when a
+     * measuring process starts.
+     */
+    public static void sync()
+    {
+	sOffset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Gets the current time.
+     *
+     * @return the wall time in milliseconds since January 1, 1970 00:00:00
+     *         UTC.
+     */
+    public static long currentTimeMillis()
+    {
+	return SystemClock.elapsedRealtime() + sOffset;
+    }
+
+    /**
+     * Maps a time of the monotonic clock to wall time.
+     *
+     * @param _elapsedRealtime
+     *            The time as returned by
+     *            {@link SystemClock#elapsedRealtime()}
+     * @return the wall time in milliseconds since January 1, 1970 00:00:00
+     *         UTC.
+     */
+    public static long toWallTime(long _elapsedRealtime)
+    {
+	return _elapsedRealtime + sOffset;
+    }
+}
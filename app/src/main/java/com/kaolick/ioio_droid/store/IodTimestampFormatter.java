@@ -0,0 +1,139 @@
+package com.kaolick.ioio_droid.store;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Formats epoch milliseconds as ISO 8601 timestamps in local time as needed
+ * for Xively, f.e. 2013-07-24T13:11:25.042+0200.
+ * <p>
+ * Unlike a {@link java.text.SimpleDateFormat}, the formatter keeps the date,
+ * the hour and the zone offset of the last formatted local hour and only
+ * computes minutes, seconds and milliseconds for timestamps within that hour.
+ * {@link #appendTo(StringBuilder, long)} does not allocate at all within the
+ * cached hour. Zone offset changes are picked up at the next hour boundary,
+ * which is where they take effect in nearly all time zones.
+ *
+ * @author kaolick
+ */
+public class IodTimestampFormatter
+{
+    // Length of a formatted timestamp
+    public static final int LENGTH = 28;
+
+    // Milliseconds per hour
+    private static final long HOUR = 60 * 60 * 1000;
+
+    // The cached local hour
+    private long mHourStart = Long.MAX_VALUE;
+    private long mHourEnd = Long.MIN_VALUE;
+
+    // "yyyy-MM-ddTHH:" and "+hhmm" of the cached hour
+    private final char[] mPrefix = new char[14];
+    private final char[] mZone = new char[5];
+
+    // Used for filling the cache
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final StringBuilder mBuilder = new StringBuilder(LENGTH);
+
+    /**
+     * Formats a timestamp.
+     *
+     * @param _millis
+     *            The time in milliseconds since January 1, 1970 00:00:00 UTC
+     * @return the formatted timestamp.
+     */
+    public synchronized String format(long _millis)
+    {
+	mBuilder.setLength(0);
+	appendTo(mBuilder, _millis);
+
+	return mBuilder.toString();
+    }
+
+    /**
+     * Appends a formatted timestamp to a {@link StringBuilder}.
+     *
+     * @param _builder
+     *            The <code>StringBuilder</code>
+     * @param _millis
+     *            The time in milliseconds since January 1, 1970 00:00:00 UTC
+     */
+    public synchronized void appendTo(StringBuilder _builder, long _millis)
+    {
+	if (_millis < mHourStart || _millis >= mHourEnd)
+	{
+	    cacheHour(_millis);
+	}
+
+	long inHour = _millis - mHourStart;
+
+	_builder.append(mPrefix);
+	appendDigits(_builder, (int) (inHour / 60000), 2);
+	_builder.append(':');
+	appendDigits(_builder, (int) (inHour / 1000 % 60), 2);
+	_builder.append('.');
+	appendDigits(_builder, (int) (inHour % 1000), 3);
+	_builder.append(mZone);
+    }
+
+    /**
+     * Fills the cache with the local hour containing the given time.
+     *
+     * @param _millis
+     *            The time in milliseconds since January 1, 1970 00:00:00 UTC
+     */
+    private void cacheHour(long _millis)
+    {
+	mCalendar.setTimeZone(TimeZone.getDefault());
+	mCalendar.setTimeInMillis(_millis);
+
+	mHourStart = _millis - mCalendar.get(Calendar.MINUTE) * 60000L
+		- mCalendar.get(Calendar.SECOND) * 1000L
+		- mCalendar.get(Calendar.MILLISECOND);
+	mHourEnd = mHourStart + HOUR;
+
+	// Date and hour
+	setDigits(mPrefix, 0, mCalendar.get(Calendar.YEAR), 4);
+	mPrefix[4] = '-';
+	setDigits(mPrefix, 5, mCalendar.get(Calendar.MONTH) + 1, 2);
+	mPrefix[7] = '-';
+	setDigits(mPrefix, 8, mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+	mPrefix[10] = 'T';
+	setDigits(mPrefix, 11, mCalendar.get(Calendar.HOUR_OF_DAY), 2);
+	mPrefix[13] = ':';
+
+	// Zone offset
+	int offset = (mCalendar.get(Calendar.ZONE_OFFSET) + mCalendar
+		.get(Calendar.DST_OFFSET)) / 60000;
+	mZone[0] = offset < 0 ? '-' : '+';
+	offset = Math.abs(offset);
+	setDigits(mZone, 1, offset / 60, 2);
+	setDigits(mZone, 3, offset % 60, 2);
+    }
+
+    private static void appendDigits(StringBuilder _builder,
+				     int _value,
+				     int _digits)
+    {
+	if (_digits > 2)
+	{
+	    _builder.append((char) ('0' + _value / 100 % 10));
+	}
+
+	_builder.append((char) ('0' + _value / 10 % 10));
+	_builder.append((char) ('0' + _value % 10));
+    }
+
+    private static void setDigits(char[] _chars,
+				  int _offset,
+				  int _value,
+				  int _digits)
+    {
+	for (int i = _offset + _digits - 1; i >= _offset; i--)
+	{
+	    _chars[i] = (char) ('0' + _value % 10);
+	    _value /= 10;
+	}
+    }
+}
@@ -1,8 +1,5 @@
 package com.kaolick.ioio_droid.store;
 
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-
 /**
  * Stores global values and methods.
  * 
@@ -10,6 +7,12 @@ import java.util.Locale;
  */
 public class Store
 {
+    // *************** Broadcast actions ***************
+
+    // Sent when a sensor was added, changed or deleted; the sensor ID is
+    // passed as SENSOR_ID
+    public static final String ACTION_SENSOR_CHANGED = "com.kaolick.ioio_droid.SENSOR_CHANGED";
+
     // *************** Dialog keys ***************
 
     public static final int DELETE_ALL_SENSORS = 1;
@@ -40,17 +43,20 @@ public class Store
 
     // *************** Timestamp ***************
 
+    // Formats the timestamps shown to the user and sent to Xively
+    private static final IodTimestampFormatter sTimestampFormatter = new IodTimestampFormatter();
+
     /**
-     * Gets the current system time and returns it as a formatted timestamp as
-     * needed for Xively, f.e. 2013-07-24T13:11:25+0200
+     * Returns the given time as a formatted timestamp as needed for Xively,
+     * f.e. 2013-07-24T13:11:25.042+0200. Timestamps are saved as epoch
+     * milliseconds and only formatted for display, export and upload.
      * 
+     * @param _millis
+     *            The time in milliseconds since January 1, 1970 00:00:00 UTC
      * @return The timestamp as string
      */
-    public static String getTimestamp()
+    public static String formatTimestamp(long _millis)
     {
-	SimpleDateFormat simpleDateFormat = new SimpleDateFormat(
-		"yyyy-MM-dd'T'HH:mm:ssZ", Locale.getDefault());
-
-	return simpleDateFormat.format(System.currentTimeMillis());
+	return sTimestampFormatter.format(_millis);
     }
 }
\ No newline at end of file
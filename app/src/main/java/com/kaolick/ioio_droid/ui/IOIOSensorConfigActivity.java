@@ -37,14 +37,19 @@ public class IOIOSensorConfigActivity extends Activity
 
     // UI elements
     private EditText mNameEditText, mPinEditText, mFreqEditText,
-	    mThresholdEditText, mDatastreamEditText;
+	    mOversamplingEditText, mThresholdEditText, mDeadbandEditText,
+	    mHeartbeatEditText, mCompressionEditText, mDatastreamEditText,
+	    mBoardEditText, mSnapshotGroupEditText, mExpressionEditText,
+	    mCalibrationEditText;
     private Spinner mTimeUnitSpinner, mInputTypeSpinner,
-	    mMeasurementTypeSpinner, mThresholdTypeSpinner;
+	    mMeasurementTypeSpinner, mReducerSpinner, mThresholdTypeSpinner,
+	    mDeadbandTypeSpinner, mOverrunPolicySpinner, mCalibrationTypeSpinner;
     private Switch mXivelySwitch;
 
     // Entered values
     int enteredTimeUnit, enteredInputType, enteredMeasurementType,
-	    enteredThresholdType, enteredUseXively;
+	    enteredReducer, enteredThresholdType, enteredDeadbandType,
+	    enteredOverrunPolicy, enteredCalibrationType, enteredUseXively;
 
     // The sensor that gets configured
     private IodIOIOSensor mSensor;
@@ -78,7 +83,10 @@ public class IOIOSensorConfigActivity extends Activity
 	    enteredTimeUnit = IodIOIOSensor.TIME_UNIT_MILLISECONDS;
 	    enteredInputType = IodIOIOSensor.INPUT_TYPE_ANALOG;
 	    enteredMeasurementType = IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE;
+	    enteredReducer = IodIOIOSensor.REDUCER_MEAN;
 	    enteredThresholdType = IodIOIOSensor.THRESHOLD_TYPE_LOWER;
+	    enteredDeadbandType = IodIOIOSensor.DEADBAND_TYPE_OFF;
+	    enteredCalibrationType = IodIOIOSensor.CALIBRATION_TYPE_NONE;
 	    enteredUseXively = IodIOIOSensor.USE_XIVELY_FALSE;
 	}
 	// Get the selected sensor's configuration from the database and fill
@@ -92,7 +100,11 @@ public class IOIOSensorConfigActivity extends Activity
 	    enteredTimeUnit = mSensor.getTimeUnit();
 	    enteredInputType = mSensor.getInputType();
 	    enteredMeasurementType = mSensor.getMeasurementType();
+	    enteredReducer = mSensor.getOversamplingReducer();
 	    enteredThresholdType = mSensor.getThresholdType();
+	    enteredDeadbandType = mSensor.getDeadbandType();
+	    enteredOverrunPolicy = mSensor.getOverrunPolicy();
+	    enteredCalibrationType = mSensor.getCalibrationType();
 	    enteredUseXively = mSensor.getUseXively();
 
 	    // Fill the UI elements with the sensor's data.
@@ -109,18 +121,34 @@ public class IOIOSensorConfigActivity extends Activity
 	enteredTimeUnit = IodIOIOSensor.TIME_UNIT_MILLISECONDS;
 	enteredInputType = IodIOIOSensor.INPUT_TYPE_ANALOG;
 	enteredMeasurementType = IodIOIOSensor.MEASUREMENT_TYPE_ABSOLUTE;
+	enteredReducer = IodIOIOSensor.REDUCER_MEAN;
 	enteredThresholdType = IodIOIOSensor.THRESHOLD_TYPE_LOWER;
+	enteredDeadbandType = IodIOIOSensor.DEADBAND_TYPE_OFF;
+	enteredOverrunPolicy = IodIOIOSensor.OVERRUN_POLICY_COALESCE;
+	enteredCalibrationType = IodIOIOSensor.CALIBRATION_TYPE_NONE;
 	enteredUseXively = IodIOIOSensor.USE_XIVELY_FALSE;
 
 	// Reset UI elements
 	mNameEditText.setText("");
 	mPinEditText.setText("");
+	mBoardEditText.setText("");
+	mSnapshotGroupEditText.setText("");
+	mExpressionEditText.setText("");
 	mFreqEditText.setText("");
 	mTimeUnitSpinner.setSelection(0);
+	mOverrunPolicySpinner.setSelection(0);
 	mInputTypeSpinner.setSelection(0);
 	mMeasurementTypeSpinner.setSelection(0);
+	mOversamplingEditText.setText("");
+	mReducerSpinner.setSelection(0);
+	mCalibrationTypeSpinner.setSelection(0);
+	mCalibrationEditText.setText("");
 	mThresholdEditText.setText("");
 	mThresholdTypeSpinner.setSelection(0);
+	mDeadbandTypeSpinner.setSelection(0);
+	mDeadbandEditText.setText("");
+	mHeartbeatEditText.setText("");
+	mCompressionEditText.setText("");
 	mXivelySwitch.setChecked(false);
 	mDatastreamEditText.setText("");
 	useXively(false);
@@ -209,6 +237,14 @@ public class IOIOSensorConfigActivity extends Activity
 		    .toString());
 	}
 
+	// One sample per period if nothing was entered
+	int enteredOversamplingCount = 1;
+	if (!mOversamplingEditText.getText().toString().equals(""))
+	{
+	    enteredOversamplingCount = Integer.valueOf(mOversamplingEditText
+		    .getText().toString());
+	}
+
 	double enteredThreshold = 0;
 	if (!mThresholdEditText.getText().toString().equals(""))
 	{
@@ -216,7 +252,40 @@ public class IOIOSensorConfigActivity extends Activity
 		    .toString());
 	}
 
+	double enteredDeadband = 0;
+	if (!mDeadbandEditText.getText().toString().equals(""))
+	{
+	    enteredDeadband = Double.valueOf(mDeadbandEditText.getText()
+		    .toString());
+	}
+
+	int enteredHeartbeat = 0;
+	if (!mHeartbeatEditText.getText().toString().equals(""))
+	{
+	    enteredHeartbeat = Integer.valueOf(mHeartbeatEditText.getText()
+		    .toString());
+	}
+
+	int enteredSnapshotGroup = IodIOIOSensor.SNAPSHOT_GROUP_NONE;
+	if (!mSnapshotGroupEditText.getText().toString().equals(""))
+	{
+	    enteredSnapshotGroup = Integer.valueOf(mSnapshotGroupEditText
+		    .getText().toString());
+	}
+
+	double enteredCompressionDeviation = 0;
+	if (!mCompressionEditText.getText().toString().equals(""))
+	{
+	    enteredCompressionDeviation = Double.valueOf(mCompressionEditText
+		    .getText().toString());
+	}
+
 	String enteredDatastream = mDatastreamEditText.getText().toString();
+	String enteredBoard = mBoardEditText.getText().toString().trim();
+	String enteredExpression = mExpressionEditText.getText().toString()
+		.trim();
+	String enteredCalibration = mCalibrationEditText.getText().toString()
+		.trim();
 
 	// Create a new sensor with the entered values
 	if (isNewSensor)
@@ -229,10 +298,22 @@ public class IOIOSensorConfigActivity extends Activity
 	mSensor.setPinNumber(enteredPinNumber);
 	mSensor.setFrequency(enteredFrequency);
 	mSensor.setTimeUnit(enteredTimeUnit);
+	mSensor.setOverrunPolicy(enteredOverrunPolicy);
 	mSensor.setInputType(enteredInputType);
 	mSensor.setMeasurementType(enteredMeasurementType);
+	mSensor.setOversamplingCount(enteredOversamplingCount);
+	mSensor.setOversamplingReducer(enteredReducer);
+	mSensor.setCalibrationType(enteredCalibrationType);
+	mSensor.setCalibration(enteredCalibration);
 	mSensor.setThreshold(enteredThreshold);
 	mSensor.setThresholdType(enteredThresholdType);
+	mSensor.setDeadbandType(enteredDeadbandType);
+	mSensor.setDeadband(enteredDeadband);
+	mSensor.setHeartbeat(enteredHeartbeat);
+	mSensor.setCompressionDeviation(enteredCompressionDeviation);
+	mSensor.setBoard(enteredBoard);
+	mSensor.setSnapshotGroup(enteredSnapshotGroup);
+	mSensor.setExpression(enteredExpression);
 	mSensor.setUseXively(enteredUseXively);
 	mSensor.setDatastream(enteredDatastream);
 
@@ -334,9 +415,40 @@ public class IOIOSensorConfigActivity extends Activity
 			    case IodIOIOSensor.MEASUREMENT_TYPE_RELATIVE:
 				mMeasurementTypeSpinner.setSelection(1);
 				break;
+			    case IodIOIOSensor.MEASUREMENT_TYPE_BUFFERED:
+				mMeasurementTypeSpinner.setSelection(2);
+				break;
 			    }
 			}
-			// Input type = digital
+			// Input type = pulse
+			else if (_pos == IodIOIOSensor.INPUT_TYPE_PULSE)
+			{
+			    // Apply an adapter to the measurement spinner
+			    mMeasurementTypeSpinner
+				    .setAdapter(getArrayAdapter(R.array.measurementTypesPulse));
+
+			    switch (enteredMeasurementType)
+			    {
+			    case IodIOIOSensor.MEASUREMENT_TYPE_PULSE_WIDTH:
+				mMeasurementTypeSpinner.setSelection(0);
+				break;
+			    case IodIOIOSensor.MEASUREMENT_TYPE_FREQUENCY:
+				mMeasurementTypeSpinner.setSelection(1);
+				break;
+			    case IodIOIOSensor.MEASUREMENT_TYPE_COUNTER:
+				mMeasurementTypeSpinner.setSelection(2);
+				break;
+			    }
+			}
+			// Input type = derived
+			else if (_pos == IodIOIOSensor.INPUT_TYPE_DERIVED)
+			{
+			    // Apply an adapter to the measurement spinner
+			    mMeasurementTypeSpinner
+				    .setAdapter(getArrayAdapter(R.array.measurementTypesDerived));
+			    mMeasurementTypeSpinner.setSelection(0);
+			}
+			// Input type = digital or digital event
 			else
 			{
 			    // Apply an adapter to the measurement spinner
@@ -386,9 +498,29 @@ public class IOIOSensorConfigActivity extends Activity
 			// Input type analog
 			if (enteredInputType == IodIOIOSensor.INPUT_TYPE_ANALOG)
 			{
-			    enteredMeasurementType = _pos;
+			    // The buffered type follows absolute and relative
+			    if (_pos == 2)
+			    {
+				enteredMeasurementType = IodIOIOSensor.MEASUREMENT_TYPE_BUFFERED;
+			    }
+			    else
+			    {
+				enteredMeasurementType = _pos;
+			    }
+			}
+			// Input type pulse
+			else if (enteredInputType == IodIOIOSensor.INPUT_TYPE_PULSE)
+			{
+			    // Values for measurement types for pulse input type
+			    // start at 6; therefore add 6 to position
+			    enteredMeasurementType = _pos + 6;
+			}
+			// Input type derived
+			else if (enteredInputType == IodIOIOSensor.INPUT_TYPE_DERIVED)
+			{
+			    enteredMeasurementType = IodIOIOSensor.MEASUREMENT_TYPE_EXPRESSION;
 			}
-			// Input type digital
+			// Input type digital or digital event
 			else
 			{
 			    // Values for measurement types for digital input
@@ -405,6 +537,118 @@ public class IOIOSensorConfigActivity extends Activity
 		});
     }
 
+    /**
+     * Initializes the oversampling reducer {@link Spinner}.
+     */
+    private void initReducerSpinner()
+    {
+	mReducerSpinner.setAdapter(getArrayAdapter(R.array.reducers));
+
+	mReducerSpinner.setOnItemSelectedListener(new OnItemSelectedListener()
+	{
+	    @Override
+	    public void onItemSelected(AdapterView<?> _parent,
+				       View _view,
+				       int _pos,
+				       long _id)
+	    {
+		// The reducer values equal the spinner positions
+		enteredReducer = _pos;
+	    }
+
+	    @Override
+	    public void onNothingSelected(AdapterView<?> _parent)
+	    {
+		// Do nothing
+	    }
+	});
+    }
+
+    /**
+     * Initializes the calibration type {@link Spinner}.
+     */
+    private void initCalibrationTypeSpinner()
+    {
+	mCalibrationTypeSpinner.setAdapter(getArrayAdapter(R.array.calibrationTypes));
+
+	mCalibrationTypeSpinner
+		.setOnItemSelectedListener(new OnItemSelectedListener()
+		{
+		    @Override
+		    public void onItemSelected(AdapterView<?> _parent,
+					       View _view,
+					       int _pos,
+					       long _id)
+		    {
+			// The calibration types equal the spinner positions
+			enteredCalibrationType = _pos;
+		    }
+
+		    @Override
+		    public void onNothingSelected(AdapterView<?> _parent)
+		    {
+			// Do nothing
+		    }
+		});
+    }
+
+    /**
+     * Initializes the deadband type {@link Spinner}.
+     */
+    private void initDeadbandTypeSpinner()
+    {
+	mDeadbandTypeSpinner.setAdapter(getArrayAdapter(R.array.deadbandTypes));
+
+	mDeadbandTypeSpinner
+		.setOnItemSelectedListener(new OnItemSelectedListener()
+		{
+		    @Override
+		    public void onItemSelected(AdapterView<?> _parent,
+					       View _view,
+					       int _pos,
+					       long _id)
+		    {
+			// The deadband types equal the spinner positions
+			enteredDeadbandType = _pos;
+		    }
+
+		    @Override
+		    public void onNothingSelected(AdapterView<?> _parent)
+		    {
+			// Do nothing
+		    }
+		});
+    }
+
+    /**
+     * Initializes the overrun policy {@link Spinner}.
+     */
+    private void initOverrunPolicySpinner()
+    {
+	mOverrunPolicySpinner
+		.setAdapter(getArrayAdapter(R.array.overrunPolicies));
+
+	mOverrunPolicySpinner
+		.setOnItemSelectedListener(new OnItemSelectedListener()
+		{
+		    @Override
+		    public void onItemSelected(AdapterView<?> _parent,
+					       View _view,
+					       int _pos,
+					       long _id)
+		    {
+			// The overrun policies equal the spinner positions
+			enteredOverrunPolicy = _pos;
+		    }
+
+		    @Override
+		    public void onNothingSelected(AdapterView<?> _parent)
+		    {
+			// Do nothing
+		    }
+		});
+    }
+
     /**
      * Initializes the threshold type {@link Spinner}.
      */
@@ -536,6 +780,16 @@ public class IOIOSensorConfigActivity extends Activity
 
 	// Set pin number
 	mPinEditText.setText(String.valueOf(mSensor.getPinNumber()));
+	mBoardEditText.setText(mSensor.getBoard());
+
+	// Set snapshot group
+	if (mSensor.getSnapshotGroup() != IodIOIOSensor.SNAPSHOT_GROUP_NONE)
+	{
+	    mSnapshotGroupEditText.setText(String.valueOf(mSensor
+		    .getSnapshotGroup()));
+	}
+
+	mExpressionEditText.setText(mSensor.getExpression());
 
 	// Set frequency
 	mFreqEditText.setText(String.valueOf(mSensor.getFrequency()));
@@ -554,6 +808,9 @@ public class IOIOSensorConfigActivity extends Activity
 	    break;
 	}
 
+	// Set overrun policy
+	mOverrunPolicySpinner.setSelection(mSensor.getOverrunPolicy());
+
 	// Set input type
 	switch (mSensor.getInputType())
 	{
@@ -571,6 +828,27 @@ public class IOIOSensorConfigActivity extends Activity
 	    mMeasurementTypeSpinner
 		    .setAdapter(getArrayAdapter(R.array.measurementTypesDigital));
 	    break;
+	case IodIOIOSensor.INPUT_TYPE_DIGITAL_EVENT:
+	    mInputTypeSpinner.setSelection(2);
+
+	    // Set the measurement type spinner according to the input type
+	    mMeasurementTypeSpinner
+		    .setAdapter(getArrayAdapter(R.array.measurementTypesDigital));
+	    break;
+	case IodIOIOSensor.INPUT_TYPE_PULSE:
+	    mInputTypeSpinner.setSelection(3);
+
+	    // Set the measurement type spinner according to the input type
+	    mMeasurementTypeSpinner
+		    .setAdapter(getArrayAdapter(R.array.measurementTypesPulse));
+	    break;
+	case IodIOIOSensor.INPUT_TYPE_DERIVED:
+	    mInputTypeSpinner.setSelection(4);
+
+	    // Set the measurement type spinner according to the input type
+	    mMeasurementTypeSpinner
+		    .setAdapter(getArrayAdapter(R.array.measurementTypesDerived));
+	    break;
 	}
 
 	// Set measurement type
@@ -582,6 +860,9 @@ public class IOIOSensorConfigActivity extends Activity
 	case IodIOIOSensor.MEASUREMENT_TYPE_RELATIVE:
 	    mMeasurementTypeSpinner.setSelection(1);
 	    break;
+	case IodIOIOSensor.MEASUREMENT_TYPE_BUFFERED:
+	    mMeasurementTypeSpinner.setSelection(2);
+	    break;
 	case IodIOIOSensor.MEASUREMENT_TYPE_FLOATING:
 	    mMeasurementTypeSpinner.setSelection(0);
 	    break;
@@ -591,8 +872,29 @@ public class IOIOSensorConfigActivity extends Activity
 	case IodIOIOSensor.MEASUREMENT_TYPE_PULL_UP:
 	    mMeasurementTypeSpinner.setSelection(2);
 	    break;
+	case IodIOIOSensor.MEASUREMENT_TYPE_PULSE_WIDTH:
+	    mMeasurementTypeSpinner.setSelection(0);
+	    break;
+	case IodIOIOSensor.MEASUREMENT_TYPE_FREQUENCY:
+	    mMeasurementTypeSpinner.setSelection(1);
+	    break;
+	case IodIOIOSensor.MEASUREMENT_TYPE_COUNTER:
+	    mMeasurementTypeSpinner.setSelection(2);
+	    break;
+	case IodIOIOSensor.MEASUREMENT_TYPE_EXPRESSION:
+	    mMeasurementTypeSpinner.setSelection(0);
+	    break;
 	}
 
+	// Set oversampling
+	mOversamplingEditText.setText(String.valueOf(mSensor
+		.getOversamplingCount()));
+	mReducerSpinner.setSelection(mSensor.getOversamplingReducer());
+
+	// Set calibration
+	mCalibrationTypeSpinner.setSelection(mSensor.getCalibrationType());
+	mCalibrationEditText.setText(mSensor.getCalibration());
+
 	// Set threshold
 	mThresholdEditText.setText(String.valueOf(mSensor.getThreshold()));
 
@@ -607,6 +909,15 @@ public class IOIOSensorConfigActivity extends Activity
 	    break;
 	}
 
+	// Set deadband
+	mDeadbandTypeSpinner.setSelection(mSensor.getDeadbandType());
+	mDeadbandEditText.setText(String.valueOf(mSensor.getDeadband()));
+	mHeartbeatEditText.setText(String.valueOf(mSensor.getHeartbeat()));
+
+	// Set compression
+	mCompressionEditText.setText(String.valueOf(mSensor
+		.getCompressionDeviation()));
+
 	// Set Xively switch
 	switch (mSensor.getUseXively())
 	{
@@ -631,20 +942,36 @@ public class IOIOSensorConfigActivity extends Activity
 	// Find UI elements by ID
 	mNameEditText = (EditText) findViewById(R.id.sensorNameEditText);
 	mPinEditText = (EditText) findViewById(R.id.sensorPinEditText);
+	mBoardEditText = (EditText) findViewById(R.id.boardEditText);
+	mSnapshotGroupEditText = (EditText) findViewById(R.id.snapshotGroupEditText);
+	mExpressionEditText = (EditText) findViewById(R.id.expressionEditText);
 	mFreqEditText = (EditText) findViewById(R.id.sensorFreqEditText);
 	mTimeUnitSpinner = (Spinner) findViewById(R.id.timeUnitSpinner);
+	mOverrunPolicySpinner = (Spinner) findViewById(R.id.overrunPolicySpinner);
 	mInputTypeSpinner = (Spinner) findViewById(R.id.inputTypeSpinner);
 	mMeasurementTypeSpinner = (Spinner) findViewById(R.id.measurementTypeSpinner);
+	mOversamplingEditText = (EditText) findViewById(R.id.oversamplingEditText);
+	mReducerSpinner = (Spinner) findViewById(R.id.reducerSpinner);
+	mCalibrationTypeSpinner = (Spinner) findViewById(R.id.calibrationTypeSpinner);
+	mCalibrationEditText = (EditText) findViewById(R.id.calibrationEditText);
 	mThresholdEditText = (EditText) findViewById(R.id.thresholdEditText);
 	mThresholdTypeSpinner = (Spinner) findViewById(R.id.thresholdTypeSpinner);
+	mDeadbandTypeSpinner = (Spinner) findViewById(R.id.deadbandTypeSpinner);
+	mDeadbandEditText = (EditText) findViewById(R.id.deadbandEditText);
+	mHeartbeatEditText = (EditText) findViewById(R.id.heartbeatEditText);
+	mCompressionEditText = (EditText) findViewById(R.id.compressionEditText);
 	mXivelySwitch = (Switch) findViewById(R.id.xivelySwitch);
 	mDatastreamEditText = (EditText) findViewById(R.id.datastreamEditText);
 
 	// Initialize UI elements
 	initTimeUnitSpinner();
+	initOverrunPolicySpinner();
 	initInputTypeSpinner();
 	initMeasurementTypeSpinner();
+	initReducerSpinner();
+	initCalibrationTypeSpinner();
 	initThresholdTypeSpinner();
+	initDeadbandTypeSpinner();
 	mXivelySwitch.setSelected(false);
     }
 }
\ No newline at end of file
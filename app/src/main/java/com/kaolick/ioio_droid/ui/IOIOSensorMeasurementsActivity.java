@@ -23,7 +23,6 @@ import com.kaolick.ioio_droid.adapter.MeasurementsCursorActionModeAdapter;
 import com.kaolick.ioio_droid.adapter.MeasurementsCursorAdapter;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.database.MeasurementSchema;
-import com.kaolick.ioio_droid.database.MeasurementTable;
 import com.kaolick.ioio_droid.dialog.UniversalDialogFragment;
 import com.kaolick.ioio_droid.dialog.UniversalDialogFragment.UniversalDialogListener;
 import com.kaolick.ioio_droid.store.Store;
@@ -289,13 +288,12 @@ public class IOIOSensorMeasurementsActivity extends FragmentActivity implements
     // *************** Measurements ***************
 
     /**
-     * Deletes all measurements from the according database table.
+     * Deletes all measurements of the sensor.
      */
     public void deleteMeasurements()
     {
 	// Delete the measurements
-	mDatabaseManager.getDb().delete(
-		MeasurementTable.TABLE_NAME_PRE_TAG + mSensorID, null, null);
+	mDatabaseManager.deleteMeasurements(mSensorID);
 
 	// Refresh the ListView
 	mListViewCursor = mDatabaseManager.getMeasurementsCursor(mSensorID);
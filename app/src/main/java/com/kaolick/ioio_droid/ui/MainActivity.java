@@ -1,9 +1,12 @@
 package com.kaolick.ioio_droid.ui;
 
+import java.io.File;
+
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.app.DialogFragment;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
@@ -37,6 +40,7 @@ import com.kaolick.ioio_droid.dialog.UniversalDialogFragment.UniversalDialogList
 import com.kaolick.ioio_droid.export.CSVManager;
 import com.kaolick.ioio_droid.service.IodIOIOService;
 import com.kaolick.ioio_droid.service.IodIOIOSimulationService;
+import com.kaolick.ioio_droid.stats.IodSamplingStats;
 import com.kaolick.ioio_droid.store.Store;
 
 /**
@@ -419,6 +423,54 @@ public class MainActivity extends FragmentActivity implements
 	builder.create().show();
     }
 
+    // *************** Sampling statistics ***************
+
+    /**
+     * Shows the timing statistics of the current measuring process in an
+     * {@link AlertDialog}. The statistics can be saved to a file from there.
+     */
+    public void showSamplingStats()
+    {
+	String report = IodSamplingStats.getReport();
+
+	if (report.equals(""))
+	{
+	    report = getResources().getString(
+		    R.string.dialog_sampling_stats_empty);
+	}
+
+	AlertDialog.Builder builder = new AlertDialog.Builder(this);
+	builder.setTitle(R.string.menu_sampling_stats);
+	builder.setMessage(report);
+	builder.setPositiveButton(R.string.ok, null);
+	builder.setNeutralButton(R.string.dialog_sampling_stats_save,
+		new DialogInterface.OnClickListener()
+		{
+		    @Override
+		    public void onClick(DialogInterface _dialog, int _which)
+		    {
+			File file = IodSamplingStats.dumpToFile();
+
+			if (file != null)
+			{
+			    Toast.makeText(
+				    mContext,
+				    getResources().getString(
+					    R.string.toast_sampling_stats_saved)
+					    + " " + file.getPath(),
+				    Toast.LENGTH_LONG).show();
+			}
+			else
+			{
+			    Toast.makeText(mContext,
+				    R.string.toast_export_failed,
+				    Toast.LENGTH_SHORT).show();
+			}
+		    }
+		});
+	builder.create().show();
+    }
+
     // *************** Menu ***************
 
     @Override
@@ -446,6 +498,9 @@ public class MainActivity extends FragmentActivity implements
 	case R.id.menu_main_activity_export:
 	    exportSensorTable();
 	    return true;
+	case R.id.menu_main_activity_sampling_stats:
+	    showSamplingStats();
+	    return true;
 	case R.id.menu_main_activity_help:
 	    showHelp();
 	    return true;
@@ -474,16 +529,8 @@ public class MainActivity extends FragmentActivity implements
 						   int _position,
 						   long _id)
 		    {
-			if (isMeasuring())
-			{
-			    Toast.makeText(mContext,
-				    R.string.toast_is_measuring,
-				    Toast.LENGTH_SHORT).show();
-			}
-			else
-			{
-			    editExistingSensor(_id);
-			}
+			// A running measuring process applies the changes
+			editExistingSensor(_id);
 
 			return true;
 		    }
@@ -548,17 +595,9 @@ public class MainActivity extends FragmentActivity implements
      */
     private void addNewSensor()
     {
-	if (isMeasuring())
-	{
-	    Toast.makeText(mContext, R.string.toast_is_measuring,
-		    Toast.LENGTH_SHORT).show();
-	}
-	else
-	{
-	    Intent intent = new Intent(mContext, IOIOSensorConfigActivity.class);
-	    intent.putExtra(Store.IS_NEW_SENSOR, true);
-	    startActivity(intent);
-	}
+	Intent intent = new Intent(mContext, IOIOSensorConfigActivity.class);
+	intent.putExtra(Store.IS_NEW_SENSOR, true);
+	startActivity(intent);
     }
 
     /**
@@ -62,7 +62,7 @@ public class SettingsActivity extends Activity implements
 	switch (_dialog.getArguments().getInt(UniversalDialogFragment.KEY))
 	{
 	case Store.DELETE_ALL_DATABASE_TABLES:
-	    deleteDatabase(IodDatabase.DB_NAME);
+	    IodDatabase.delete(this);
 	    Toast.makeText(mContext, R.string.toast_database_deleted,
 		    Toast.LENGTH_SHORT).show();
 	    break;
@@ -1,13 +1,14 @@
 package com.kaolick.ioio_droid.ui;
 
-import java.util.List;
 import java.util.Locale;
 
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.Preference;
 import android.preference.Preference.OnPreferenceClickListener;
@@ -15,8 +16,9 @@ import android.preference.PreferenceFragment;
 import android.widget.Toast;
 
 import com.kaolick.ioio_droid.R;
-import com.kaolick.ioio_droid.database.IodDatabase;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
+import com.kaolick.ioio_droid.database.IodInsertBenchmark;
+import com.kaolick.ioio_droid.database.IodUploadQueryBenchmark;
 import com.kaolick.ioio_droid.database.LocationSchema;
 import com.kaolick.ioio_droid.database.LocationTable;
 import com.kaolick.ioio_droid.database.MeasurementTable;
@@ -40,7 +42,7 @@ public class SettingsFragment extends PreferenceFragment
     private UploadManager mUploadManager;
 
     // Preferences
-    private Preference mAboutPref, mDeleteDatabasePref, mDeleteLocationsPref,
+    private Preference mAboutPref, mBenchmarkPref, mUploadBenchmarkPref, mDeleteDatabasePref, mDeleteLocationsPref,
 	    mExportDatabasePref, mExportLocationsPref, mShowLocationPref,
 	    mUploadMeasurementsPref, mUploadLocationPref;
 
@@ -98,26 +100,17 @@ public class SettingsFragment extends PreferenceFragment
 	    return;
 	}
 
-	// Export each sensor's measurement table
-	List<Integer> sensorIDs = IodDatabase.getIOIOSensorIDs(mDatabaseManager
-		.getDb());
-	if (!sensorIDs.isEmpty())
-	{
-	    for (int i = 0; i < sensorIDs.size(); i++)
-	    {
-		exportSuccessful = mCSVManager.exportDatabaseTable(
-			MeasurementTable.TABLE_NAME_PRE_TAG + sensorIDs.get(i),
-			Store.FOLDER_FILE_PATH);
+	// Export the measurements table
+	exportSuccessful = mCSVManager.exportDatabaseTable(
+		MeasurementTable.TABLE_NAME, Store.FOLDER_FILE_PATH);
 
-		// If file export failed, inform the user and break
-		if (!exportSuccessful)
-		{
-		    Toast.makeText(mContext, R.string.toast_export_failed,
-			    Toast.LENGTH_SHORT).show();
+	// If file export failed, inform the user and break
+	if (!exportSuccessful)
+	{
+	    Toast.makeText(mContext, R.string.toast_export_failed,
+		    Toast.LENGTH_SHORT).show();
 
-		    return;
-		}
-	    }
+	    return;
 	}
 
 	// Export was successful, inform the user
@@ -140,6 +133,10 @@ public class SettingsFragment extends PreferenceFragment
 	// Find Preferences
 	mAboutPref = (Preference) findPreference(res
 		.getString(R.string.pref_general_about_key));
+	mBenchmarkPref = (Preference) findPreference(res
+		.getString(R.string.pref_database_benchmark_key));
+	mUploadBenchmarkPref = (Preference) findPreference(res
+		.getString(R.string.pref_database_upload_benchmark_key));
 	mDeleteDatabasePref = (Preference) findPreference(res
 		.getString(R.string.pref_database_delete_key));
 	mDeleteLocationsPref = (Preference) findPreference(res
@@ -166,6 +163,36 @@ public class SettingsFragment extends PreferenceFragment
 		return true;
 	    }
 	});
+	mBenchmarkPref
+		.setOnPreferenceClickListener(new OnPreferenceClickListener()
+		{
+		    @Override
+		    public boolean onPreferenceClick(Preference _preference)
+		    {
+			Toast.makeText(mContext,
+				R.string.toast_benchmark_started,
+				Toast.LENGTH_SHORT).show();
+
+			new BenchmarkTask(false).execute();
+
+			return true;
+		    }
+		});
+	mUploadBenchmarkPref
+		.setOnPreferenceClickListener(new OnPreferenceClickListener()
+		{
+		    @Override
+		    public boolean onPreferenceClick(Preference _preference)
+		    {
+			Toast.makeText(mContext,
+				R.string.toast_upload_benchmark_started,
+				Toast.LENGTH_SHORT).show();
+
+			new BenchmarkTask(true).execute();
+
+			return true;
+		    }
+		});
 	mDeleteDatabasePref
 		.setOnPreferenceClickListener(new OnPreferenceClickListener()
 		{
@@ -286,4 +313,59 @@ public class SettingsFragment extends PreferenceFragment
 		    }
 		});
     }
+
+    // *************** BenchmarkTask ***************
+
+    /**
+     * Runs the {@link IodInsertBenchmark} or the
+     * {@link IodUploadQueryBenchmark} in the background and shows the result.
+     * 
+     * @author kaolick
+     * @see AsyncTask
+     */
+    private class BenchmarkTask extends AsyncTask<Void, Void, String>
+    {
+	// Whether to run the IodUploadQueryBenchmark
+	private boolean isUploadQuery;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param _isUploadQuery
+	 *            <code>true</code> to run the {@link IodUploadQueryBenchmark},
+	 *            <code>false</code> to run the {@link IodInsertBenchmark}
+	 */
+	public BenchmarkTask(boolean _isUploadQuery)
+	{
+	    this.isUploadQuery = _isUploadQuery;
+	}
+
+	@Override
+	protected String doInBackground(Void... _params)
+	{
+	    if (isUploadQuery)
+	    {
+		return new IodUploadQueryBenchmark(mContext).run();
+	    }
+
+	    return new IodInsertBenchmark(mDatabaseManager).run();
+	}
+
+	@Override
+	protected void onPostExecute(String _report)
+	{
+	    // The user left the settings in the meantime
+	    if (!isAdded())
+	    {
+		return;
+	    }
+
+	    AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+	    builder.setTitle(isUploadQuery ? R.string.dialog_upload_benchmark_title
+		    : R.string.dialog_benchmark_title);
+	    builder.setMessage(_report);
+	    builder.setPositiveButton(R.string.ok, null);
+	    builder.show();
+	}
+    }
 }
\ No newline at end of file
@@ -3,7 +3,6 @@ package com.kaolick.ioio_droid.xively;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
-import java.util.List;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -28,6 +27,7 @@ import android.widget.Toast;
 import com.kaolick.ioio_droid.R;
 import com.kaolick.ioio_droid.database.IodDatabaseManager;
 import com.kaolick.ioio_droid.database.LocationSchema;
+import com.kaolick.ioio_droid.database.WatermarkTable;
 import com.kaolick.ioio_droid.sensor.IodIOIOSensor;
 import com.kaolick.ioio_droid.toast.ToastHandler;
 import com.kaolick.ioio_droid.ui.IOIOSensorMeasurementsActivity;
@@ -308,7 +308,7 @@ public class UploadManager
 
 	// Get the cursor with the measurements to upload
 	Cursor measurements = mDatabaseManager
-		.getMeasurementsForUpload(_sensorID);
+		.getMeasurementsForUpload(_sensorID, WatermarkTable.SINK_XIVELY);
 
 	// Get the according sensor
 	IodIOIOSensor sensor = mDatabaseManager
@@ -325,13 +325,15 @@ public class UploadManager
 	    return false;
 	}
 
-	// List with all row IDs of measurements that have not been uploaded yet
-	List<Integer> ids = mDatabaseManager
-		.getIDsOfNotYetUploadedMeasurements(measurements);
+	// The highest row ID of the measurements to upload
+	long highWaterMark = mDatabaseManager
+		.getUploadHighWaterMark(measurements);
 
 	// No values; no request necessary
-	if (ids.isEmpty())
+	if (highWaterMark == -1)
 	{
+	    measurements.close();
+
 	    mToastHandler.showToast(R.string.toast_upload_no_values,
 		    Toast.LENGTH_SHORT);
 
@@ -393,7 +395,8 @@ public class UploadManager
 		if (statusCode == HttpURLConnection.HTTP_OK)
 		{
 		    // Mark values as uploaded
-		    mDatabaseManager.markMeasurementsAsUploaded(ids, _sensorID);
+		    mDatabaseManager.markMeasurementsAsUploaded(_sensorID,
+			    WatermarkTable.SINK_XIVELY, highWaterMark);
 
 		    requestSuccessful = true;
 		}
@@ -0,0 +1,175 @@
+package com.kaolick.ioio_droid.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IodSwingingDoorCompressor}.
+ *
+ * @author kaolick
+ */
+public class IodSwingingDoorCompressorTest
+{
+    @Test
+    public void firstPointIsReleased()
+    {
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		0.1);
+
+	assertTrue(compressor.offer(1000, 5));
+	assertEquals(1000, compressor.getReleasedMillis());
+	assertEquals(5, compressor.getReleasedValue(), 0);
+
+	// Nothing is pending yet
+	assertFalse(compressor.flush());
+    }
+
+    @Test
+    public void straightLineKeepsOnlyItsEnds()
+    {
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		0.1);
+
+	assertTrue(compressor.offer(0, 0));
+	for (int i = 1; i <= 10; i++)
+	{
+	    assertFalse(compressor.offer(i * 1000, i * 2));
+	}
+
+	assertTrue(compressor.flush());
+	assertEquals(10000, compressor.getReleasedMillis());
+	assertEquals(20, compressor.getReleasedValue(), 0);
+
+	assertEquals(11, compressor.getOfferedCount());
+	assertEquals(2, compressor.getReleasedCount());
+	assertEquals(5.5, compressor.getCompressionRatio(), 1e-9);
+    }
+
+    @Test
+    public void noiseWithinTheDeviationIsDropped()
+    {
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		0.1);
+
+	compressor.offer(0, 5);
+	for (int i = 1; i <= 20; i++)
+	{
+	    assertFalse(compressor.offer(i * 1000, i % 2 == 0 ? 5.05f : 4.95f));
+	}
+    }
+
+    @Test
+    public void cornerIsReleasedWhenTheDoorsClose()
+    {
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		0.1);
+
+	// Rising by 1 per second up to 5, then flat
+	compressor.offer(0, 0);
+	for (int i = 1; i <= 5; i++)
+	{
+	    assertFalse(compressor.offer(i * 1000, i));
+	}
+
+	// The first flat point closes the doors; the point before is kept
+	assertTrue(compressor.offer(6000, 5));
+	assertEquals(5000, compressor.getReleasedMillis());
+	assertEquals(5, compressor.getReleasedValue(), 0);
+
+	for (int i = 7; i <= 10; i++)
+	{
+	    assertFalse(compressor.offer(i * 1000, 5));
+	}
+
+	assertTrue(compressor.flush());
+	assertEquals(10000, compressor.getReleasedMillis());
+    }
+
+    @Test
+    public void flushReleasesThePendingPointOnce()
+    {
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		1);
+
+	assertFalse(compressor.flush());
+
+	compressor.offer(0, 0);
+	compressor.offer(1000, 0.5f);
+
+	assertTrue(compressor.flush());
+	assertEquals(1000, compressor.getReleasedMillis());
+	assertFalse(compressor.flush());
+    }
+
+    @Test
+    public void compressionRatioIsOneBeforeTheFirstPoint()
+    {
+	assertEquals(1, new IodSwingingDoorCompressor(1).getCompressionRatio(),
+		0);
+    }
+
+    @Test
+    public void rebuiltSeriesStaysWithinTheDeviation()
+    {
+	double deviation = 0.5;
+	IodSwingingDoorCompressor compressor = new IodSwingingDoorCompressor(
+		deviation);
+	Random random = new Random(42);
+
+	// A random walk and the points kept of it
+	long[] millis = new long[2000];
+	float[] values = new float[millis.length];
+	List<long[]> keptMillis = new ArrayList<long[]>();
+	List<Float> keptValues = new ArrayList<Float>();
+	float value = 0;
+
+	for (int i = 0; i < millis.length; i++)
+	{
+	    value += (float) random.nextGaussian() * 0.3f;
+	    millis[i] = i * 100;
+	    values[i] = value;
+
+	    if (compressor.offer(millis[i], values[i]))
+	    {
+		keptMillis.add(new long[] { compressor.getReleasedMillis() });
+		keptValues.add(compressor.getReleasedValue());
+	    }
+	}
+
+	if (compressor.flush())
+	{
+	    keptMillis.add(new long[] { compressor.getReleasedMillis() });
+	    keptValues.add(compressor.getReleasedValue());
+	}
+
+	assertTrue(keptMillis.size() < millis.length / 2);
+	assertEquals(millis[millis.length - 1],
+		keptMillis.get(keptMillis.size() - 1)[0]);
+
+	// Interpolate each point between the kept points around it
+	int k = 0;
+	for (int i = 0; i < millis.length; i++)
+	{
+	    while (keptMillis.get(k + 1)[0] < millis[i])
+	    {
+		k++;
+	    }
+
+	    long t0 = keptMillis.get(k)[0];
+	    long t1 = keptMillis.get(k + 1)[0];
+	    float v0 = keptValues.get(k);
+	    float v1 = keptValues.get(k + 1);
+	    double rebuilt = v0 + (v1 - v0) * (double) (millis[i] - t0)
+		    / (t1 - t0);
+
+	    assertEquals("Point " + i, values[i], rebuilt, deviation + 1e-4);
+	}
+    }
+}
@@ -0,0 +1,339 @@
+package com.kaolick.ioio_droid.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Tests for {@link IodDatabase#onUpgrade(SQLiteDatabase, int, int)}. A
+ * database is created with the schema of an old version and opened with
+ * {@link IodDatabase}, which upgrades it to the current version. The old
+ * schemas are written out here, since the table classes only know the
+ * current one.
+ *
+ * @author kaolick
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class IodDatabaseUpgradeTest
+{
+    // The schema of database version 1; timestamps were formatted text
+    private static final String V1_SQL_CREATE_SENSORS = "CREATE TABLE "
+	    + "ioio_sensors (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+	    + "sensor_id INTEGER, name TEXT NOT NULL, pin_number INTEGER, "
+	    + "frequency INTEGER, time_unit INTEGER, input_type INTEGER, "
+	    + "measurement_type INTEGER, threshold REAL, "
+	    + "threshold_type INTEGER, state INTEGER, use_xively INTEGER, "
+	    + "datastream TEXT NOT NULL);";
+    private static final String V1_SQL_CREATE_LOCATION = "CREATE TABLE "
+	    + "location (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+	    + "timestamp TEXT NOT NULL, altitude REAL, latitude REAL, "
+	    + "longitude REAL, uploaded INTEGER);";
+
+    // The snapshot table of database version 14
+    private static final String V14_SQL_CREATE_SNAPSHOT = "CREATE TABLE "
+	    + "snapshot_3 (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+	    + "timestamp INTEGER NOT NULL, skew INTEGER);";
+
+    // 2013-07-24T13:11:25+0200 and 2013-01-05T01:00:00+0100
+    private static final long SUMMER_MILLIS = 1374664285000L;
+    private static final long WINTER_MILLIS = 1357344000000L;
+
+    private Context mContext;
+    private IodDatabase mDatabase;
+
+    @Before
+    public void setUp()
+    {
+	mContext = RuntimeEnvironment.application;
+	IodDatabase.delete(mContext);
+    }
+
+    @After
+    public void tearDown()
+    {
+	if (mDatabase != null)
+	{
+	    mDatabase.close();
+	}
+
+	IodDatabase.delete(mContext);
+    }
+
+    /**
+     * Creates the measurement table of a sensor in database version 1.
+     */
+    private static void createV1MeasurementTable(SQLiteDatabase _db,
+						 int _sensorID)
+    {
+	_db.execSQL("CREATE TABLE sensor_" + _sensorID + " (_id INTEGER "
+		+ "PRIMARY KEY AUTOINCREMENT, timestamp TEXT NOT NULL, "
+		+ "value REAL, uploaded INTEGER);");
+    }
+
+    private static void insertV1Measurement(SQLiteDatabase _db,
+					    int _sensorID,
+					    String _timestamp,
+					    double _value,
+					    int _uploaded)
+    {
+	_db.execSQL("INSERT INTO sensor_" + _sensorID
+		+ " (timestamp, value, uploaded) VALUES (?, ?, ?)",
+		new Object[] { _timestamp, _value, _uploaded });
+    }
+
+    /**
+     * Creates a database of version 1. Sensor 1 has uploaded its first
+     * value, sensor 2 all of its values and sensor 3, which was deleted but
+     * kept its table, none.
+     */
+    private void createV1Database()
+    {
+	SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+		mContext.getDatabasePath(IodDatabase.DB_NAME), null);
+
+	db.execSQL(V1_SQL_CREATE_SENSORS);
+	db.execSQL(V1_SQL_CREATE_LOCATION);
+
+	for (int sensorID = 1; sensorID <= 2; sensorID++)
+	{
+	    db.execSQL("INSERT INTO ioio_sensors (sensor_id, name, "
+		    + "pin_number, frequency, time_unit, input_type, "
+		    + "measurement_type, threshold, threshold_type, state, "
+		    + "use_xively, datastream) VALUES (?, ?, 31, 1, 0, 0, 0, "
+		    + "0, 0, 0, 1, ?)", new Object[] { sensorID,
+		    "Sensor " + sensorID, "stream" + sensorID });
+	}
+
+	createV1MeasurementTable(db, 1);
+	insertV1Measurement(db, 1, "2013-07-24T13:11:25+0200", 1.5, 1);
+	insertV1Measurement(db, 1, "2013-07-24T13:11:26+0200", 2.5, 0);
+	insertV1Measurement(db, 1, "2013-07-24T13:11:27+0200", 3.5, 0);
+
+	createV1MeasurementTable(db, 2);
+	insertV1Measurement(db, 2, "2013-01-05T01:00:00+0100", 7, 1);
+
+	createV1MeasurementTable(db, 3);
+	insertV1Measurement(db, 3, "2013-07-24T13:11:28+0200", 9, 0);
+
+	db.execSQL("INSERT INTO location (timestamp, altitude, latitude, "
+		+ "longitude, uploaded) VALUES (?, 34, 52.5, 13.4, 0)",
+		new Object[] { "2013-07-24T13:11:25+0200" });
+
+	db.setVersion(1);
+	db.close();
+    }
+
+    /**
+     * Opens the database with {@link IodDatabase}, which upgrades it.
+     */
+    private SQLiteDatabase upgrade()
+    {
+	mDatabase = new IodDatabase(mContext);
+
+	return mDatabase.getWritableDatabase();
+    }
+
+    private static long queryLong(SQLiteDatabase _db, String _sql)
+    {
+	Cursor result = _db.rawQuery(_sql, null);
+
+	try
+	{
+	    assertTrue(_sql, result.moveToFirst());
+
+	    return result.getLong(0);
+	}
+	finally
+	{
+	    result.close();
+	}
+    }
+
+    private static String queryString(SQLiteDatabase _db, String _sql)
+    {
+	Cursor result = _db.rawQuery(_sql, null);
+
+	try
+	{
+	    assertTrue(_sql, result.moveToFirst());
+
+	    return result.getString(0);
+	}
+	finally
+	{
+	    result.close();
+	}
+    }
+
+    private static boolean hasTable(SQLiteDatabase _db, String _name)
+    {
+	return queryLong(_db, "SELECT COUNT(*) FROM sqlite_master "
+		+ "WHERE name = '" + _name + "'") > 0;
+    }
+
+    private static Set<String> getColumns(SQLiteDatabase _db, String _table)
+    {
+	Set<String> columns = new HashSet<String>();
+	Cursor result = _db.rawQuery("PRAGMA table_info(" + _table + ")",
+		null);
+
+	try
+	{
+	    while (result.moveToNext())
+	    {
+		columns.add(result.getString(result.getColumnIndex("name")));
+	    }
+	}
+	finally
+	{
+	    result.close();
+	}
+
+	return columns;
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsTheSensors()
+    {
+	createV1Database();
+	SQLiteDatabase db = upgrade();
+
+	assertEquals(15, db.getVersion());
+	assertEquals(2, queryLong(db, "SELECT COUNT(*) FROM ioio_sensors"));
+	assertEquals("Sensor 2", queryString(db, "SELECT name FROM "
+		+ "ioio_sensors WHERE sensor_id = 2"));
+
+	// The columns added since have their defaults
+	assertEquals(1, queryLong(db, "SELECT oversampling_count FROM "
+		+ "ioio_sensors WHERE sensor_id = 1"));
+	assertEquals(0, queryLong(db, "SELECT snapshot_group FROM "
+		+ "ioio_sensors WHERE sensor_id = 1"));
+	assertEquals("", queryString(db, "SELECT board || expression || "
+		+ "calibration FROM ioio_sensors WHERE sensor_id = 1"));
+    }
+
+    @Test
+    public void upgradeFromVersion1MergesTheMeasurements()
+    {
+	createV1Database();
+	SQLiteDatabase db = upgrade();
+
+	// The legacy tables are gone, including the deleted sensor's one
+	assertFalse(hasTable(db, "sensor_1"));
+	assertFalse(hasTable(db, "sensor_2"));
+	assertFalse(hasTable(db, "sensor_3"));
+	assertFalse(hasTable(db, "outbox"));
+	assertTrue(hasTable(db, MeasurementTable.INDEX_NAME));
+	assertTrue(hasTable(db, MeasurementTable.ID_INDEX_NAME));
+	assertFalse(getColumns(db, MeasurementTable.TABLE_NAME).contains(
+		"uploaded"));
+
+	assertEquals(5, queryLong(db, "SELECT COUNT(*) FROM measurements"));
+
+	// The timestamps are epoch milliseconds
+	assertEquals(SUMMER_MILLIS, queryLong(db, "SELECT timestamp FROM "
+		+ "measurements WHERE sensor_id = 1 AND value = 1.5"));
+	assertEquals(SUMMER_MILLIS + 2000, queryLong(db, "SELECT timestamp "
+		+ "FROM measurements WHERE sensor_id = 1 AND value = 3.5"));
+	assertEquals(WINTER_MILLIS, queryLong(db, "SELECT timestamp FROM "
+		+ "measurements WHERE sensor_id = 2"));
+	assertEquals(SUMMER_MILLIS + 3000, queryLong(db, "SELECT timestamp "
+		+ "FROM measurements WHERE sensor_id = 3"));
+
+	// Each sensor's IDs ascend in time
+	assertEquals(0, queryLong(db, "SELECT COUNT(*) FROM measurements a, "
+		+ "measurements b WHERE a.sensor_id = b.sensor_id "
+		+ "AND a._id < b._id AND a.timestamp > b.timestamp"));
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsTheUploadState()
+    {
+	createV1Database();
+	SQLiteDatabase db = upgrade();
+
+	// Sensor 1 uploaded its first value
+	assertEquals(queryLong(db, "SELECT _id FROM measurements WHERE "
+		+ "sensor_id = 1 AND value = 1.5"), queryLong(db, "SELECT "
+		+ "last_id FROM watermarks WHERE sensor_id = 1 AND sink = '"
+		+ WatermarkTable.SINK_XIVELY + "'"));
+
+	// Sensor 2 uploaded all values
+	assertEquals(queryLong(db, "SELECT _id FROM measurements WHERE "
+		+ "sensor_id = 2"), queryLong(db, "SELECT last_id FROM "
+		+ "watermarks WHERE sensor_id = 2"));
+
+	// Sensor 3 uploaded none
+	assertEquals(queryLong(db, "SELECT _id FROM measurements WHERE "
+		+ "sensor_id = 3") - 1, queryLong(db, "SELECT last_id FROM "
+		+ "watermarks WHERE sensor_id = 3"));
+    }
+
+    @Test
+    public void upgradeFromVersion1ConvertsTheLocations()
+    {
+	createV1Database();
+	SQLiteDatabase db = upgrade();
+
+	assertEquals(SUMMER_MILLIS, queryLong(db, "SELECT timestamp FROM "
+		+ "location"));
+	assertEquals(34, queryLong(db, "SELECT altitude FROM location"));
+	assertTrue(hasTable(db, GapTable.TABLE_NAME));
+    }
+
+    @Test
+    public void upgradeFromVersion14DropsTheSkew()
+    {
+	SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(
+		mContext.getDatabasePath(IodDatabase.DB_NAME), null);
+
+	old.execSQL(V14_SQL_CREATE_SNAPSHOT);
+	old.execSQL("ALTER TABLE snapshot_3 ADD COLUMN sensor_5 REAL");
+	old.execSQL("ALTER TABLE snapshot_3 ADD COLUMN sensor_7 REAL");
+	for (int i = 1; i <= 3; i++)
+	{
+	    old.execSQL("INSERT INTO snapshot_3 (timestamp, skew, sensor_5, "
+		    + "sensor_7) VALUES (?, 120, ?, NULL)", new Object[] {
+		    SUMMER_MILLIS + i, i * 0.5 });
+	}
+	old.execSQL("DELETE FROM snapshot_3 WHERE _id = 3");
+	old.setVersion(14);
+	old.close();
+
+	SQLiteDatabase db = upgrade();
+
+	Set<String> columns = getColumns(db, "snapshot_3");
+	assertFalse(columns.contains("skew"));
+	assertTrue(columns.contains("sensor_5"));
+	assertTrue(columns.contains("sensor_7"));
+
+	// The rows keep their IDs and values
+	assertEquals(2, queryLong(db, "SELECT COUNT(*) FROM snapshot_3"));
+	assertEquals(SUMMER_MILLIS + 2, queryLong(db, "SELECT timestamp FROM "
+		+ "snapshot_3 WHERE _id = 2"));
+	assertEquals(1, queryLong(db, "SELECT sensor_5 * 1 FROM snapshot_3 "
+		+ "WHERE _id = 2"));
+	assertEquals(1, queryLong(db, "SELECT COUNT(*) FROM snapshot_3 "
+		+ "WHERE sensor_7 IS NULL AND _id = 1"));
+
+	// The deleted row's ID is not handed out again
+	db.execSQL("INSERT INTO snapshot_3 (timestamp) VALUES (0)");
+	assertEquals(4, queryLong(db, "SELECT MAX(_id) FROM snapshot_3"));
+    }
+}
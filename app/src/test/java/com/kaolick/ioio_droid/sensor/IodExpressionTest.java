@@ -0,0 +1,125 @@
+package com.kaolick.ioio_droid.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IodExpression}.
+ *
+ * @author kaolick
+ */
+public class IodExpressionTest
+{
+    private static double evaluate(String _expression)
+    {
+	return IodExpression.compile(_expression).evaluate();
+    }
+
+    @Test
+    public void operatorsHaveTheirPrecedence()
+    {
+	assertEquals(7, evaluate("1 + 2 * 3"), 0);
+	assertEquals(9, evaluate("(1 + 2) * 3"), 0);
+	assertEquals(3, evaluate("8 - 3 - 2"), 0);
+	assertEquals(2.5, evaluate("10 / 4"), 0);
+	assertEquals(1, evaluate("8 / 4 / 2"), 0);
+	assertEquals(18, evaluate("2 * 3 ^ 2"), 0);
+    }
+
+    @Test
+    public void powerIsRightAssociative()
+    {
+	assertEquals(512, evaluate("2^3^2"), 0);
+    }
+
+    @Test
+    public void negationBindsWeakerThanPower()
+    {
+	assertEquals(-4, evaluate("-2^2"), 0);
+	assertEquals(-6, evaluate("2 * -3"), 0);
+	assertEquals(0.25, evaluate("2^-2"), 0);
+	assertEquals(3, evaluate("--3"), 0);
+    }
+
+    @Test
+    public void functionsAreEvaluated()
+    {
+	assertEquals(3, evaluate("abs(-3)"), 0);
+	assertEquals(4, evaluate("sqrt(16)"), 0);
+	assertEquals(1, evaluate("exp(0)"), 0);
+	assertEquals(2, evaluate("ln(exp(2))"), 1e-12);
+	assertEquals(2, evaluate("SQRT(4)"), 0);
+    }
+
+    @Test
+    public void numbersMayHaveFractions()
+    {
+	assertEquals(0.5, evaluate(".5"), 0);
+	assertEquals(1.25, evaluate(" 1.25 "), 0);
+    }
+
+    @Test
+    public void inputsAreTheReferencedSensors()
+    {
+	IodExpression expression = IodExpression.compile("$12 * $34 + $12");
+
+	// A sensor referenced twice is one input
+	assertEquals(2, expression.getInputCount());
+	assertEquals(12, expression.getSensorID(0));
+	assertEquals(34, expression.getSensorID(1));
+
+	assertFalse(expression.isComplete());
+	expression.setInput(0, 2);
+	assertFalse(expression.isComplete());
+	expression.setInput(1, 5);
+	assertTrue(expression.isComplete());
+	assertEquals(12, expression.evaluate(), 0);
+
+	// The latest value of an input counts
+	expression.setInput(0, 3);
+	assertTrue(expression.isComplete());
+	assertEquals(18, expression.evaluate(), 0);
+    }
+
+    @Test
+    public void constantExpressionIsComplete()
+    {
+	IodExpression expression = IodExpression.compile("42");
+
+	assertEquals(0, expression.getInputCount());
+	assertTrue(expression.isComplete());
+    }
+
+    @Test
+    public void invalidResultsAreNotCaught()
+    {
+	assertTrue(Double.isInfinite(evaluate("1 / 0")));
+	assertTrue(Double.isNaN(evaluate("0 / 0")));
+	assertTrue(Double.isNaN(evaluate("sqrt(-1)")));
+	assertTrue(Double.isNaN(evaluate("ln(-1)")));
+    }
+
+    @Test
+    public void invalidExpressionsAreRejected()
+    {
+	String[] expressions = { "", "1 +", "(1", "1)", "1 2", "foo(1)",
+		"sqrt 4", "$", "$x", "$99999999999", "1..2", "*2", "2 % 3" };
+
+	for (String expression : expressions)
+	{
+	    try
+	    {
+		IodExpression.compile(expression);
+		fail("Accepted \"" + expression + "\"");
+	    }
+	    catch (IllegalArgumentException _exception)
+	    {
+		// Expected
+	    }
+	}
+    }
+}
@@ -0,0 +1,179 @@
+package com.kaolick.ioio_droid.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IodSampleRing}.
+ *
+ * @author kaolick
+ */
+public class IodSampleRingTest
+{
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo()
+    {
+	assertEquals(2, new IodSampleRing(1).getCapacity());
+	assertEquals(1024, new IodSampleRing(1000).getCapacity());
+	assertEquals(1024, new IodSampleRing(1024).getCapacity());
+	assertEquals(2048, new IodSampleRing(1025).getCapacity());
+    }
+
+    @Test
+    public void emptyRingPollsNothing()
+    {
+	IodSampleRing ring = new IodSampleRing(4);
+
+	assertFalse(ring.poll());
+	assertEquals(0, ring.getFillLevel());
+    }
+
+    @Test
+    public void samplesArePolledInOfferOrder()
+    {
+	IodSampleRing ring = new IodSampleRing(8);
+
+	for (int i = 0; i < 5; i++)
+	{
+	    assertTrue(ring.offer(i, 1000 + i, i * 0.5f));
+	}
+
+	for (int i = 0; i < 5; i++)
+	{
+	    assertTrue(ring.poll());
+	    assertEquals(i, ring.getPolledSlot());
+	    assertEquals(1000 + i, ring.getPolledTimestamp());
+	    assertEquals(i * 0.5f, ring.getPolledValue(), 0);
+	}
+
+	assertFalse(ring.poll());
+    }
+
+    @Test
+    public void fullRingDropsAndCountsSamples()
+    {
+	IodSampleRing ring = new IodSampleRing(4);
+
+	for (int i = 0; i < 4; i++)
+	{
+	    assertTrue(ring.offer(0, i, i));
+	}
+
+	assertFalse(ring.offer(0, 4, 4));
+	assertFalse(ring.offer(0, 5, 5));
+	assertEquals(2, ring.getDroppedCount());
+	assertEquals(4, ring.getFillLevel());
+
+	// A polled cell is free again
+	assertTrue(ring.poll());
+	assertEquals(0, ring.getPolledTimestamp());
+	assertTrue(ring.offer(0, 6, 6));
+	assertEquals(2, ring.getDroppedCount());
+    }
+
+    @Test
+    public void cellsAreReusedAcrossRounds()
+    {
+	IodSampleRing ring = new IodSampleRing(4);
+
+	for (int i = 0; i < 100; i++)
+	{
+	    assertTrue(ring.offer(i % 3, i, i));
+	    assertTrue(ring.offer(-1, i, 0));
+
+	    assertTrue(ring.poll());
+	    assertEquals(i % 3, ring.getPolledSlot());
+	    assertEquals(i, ring.getPolledTimestamp());
+	    assertTrue(ring.poll());
+	    assertEquals(-1, ring.getPolledSlot());
+	}
+
+	assertEquals(0, ring.getFillLevel());
+	assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void peakFillLevelIsKept()
+    {
+	IodSampleRing ring = new IodSampleRing(8);
+
+	for (int i = 0; i < 6; i++)
+	{
+	    ring.offer(0, i, i);
+	}
+	assertEquals(6, ring.getFillLevel());
+
+	while (ring.poll())
+	{
+	    // Drain the ring
+	}
+
+	assertEquals(0, ring.getFillLevel());
+	assertEquals(6, ring.getPeakFillLevel());
+    }
+
+    @Test
+    public void concurrentProducersLoseNoSamples() throws InterruptedException
+    {
+	final int producers = 4;
+	final int samples = 20000;
+	final IodSampleRing ring = new IodSampleRing(64);
+	Thread[] threads = new Thread[producers];
+
+	for (int p = 0; p < producers; p++)
+	{
+	    final int slot = p;
+
+	    threads[p] = new Thread()
+	    {
+		@Override
+		public void run()
+		{
+		    for (int i = 0; i < samples; i++)
+		    {
+			// Retry while the ring is full
+			while (!ring.offer(slot, i, i))
+			{
+			    Thread.yield();
+			}
+		    }
+		}
+	    };
+	    threads[p].start();
+	}
+
+	// Each producer's samples arrive complete and in order
+	int[] next = new int[producers];
+	int polled = 0;
+
+	while (polled < producers * samples)
+	{
+	    if (!ring.poll())
+	    {
+		Thread.yield();
+		continue;
+	    }
+
+	    int slot = ring.getPolledSlot();
+	    assertEquals(next[slot], ring.getPolledTimestamp());
+	    assertEquals(next[slot], ring.getPolledValue(), 0);
+	    next[slot]++;
+	    polled++;
+	}
+
+	for (Thread thread : threads)
+	{
+	    thread.join();
+	}
+
+	assertFalse(ring.poll());
+
+	for (int p = 0; p < producers; p++)
+	{
+	    assertEquals(samples, next[p]);
+	}
+    }
+}
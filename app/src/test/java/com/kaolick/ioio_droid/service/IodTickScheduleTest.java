@@ -0,0 +1,188 @@
+package com.kaolick.ioio_droid.service;
+
+import static com.kaolick.ioio_droid.sensor.IodIOIOSensor.OVERRUN_POLICY_CATCH_UP;
+import static com.kaolick.ioio_droid.sensor.IodIOIOSensor.OVERRUN_POLICY_COALESCE;
+import static com.kaolick.ioio_droid.sensor.IodIOIOSensor.OVERRUN_POLICY_SKIP;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IodTickSchedule}. The schedules start at 1000 with a
+ * period of 100.
+ *
+ * @author kaolick
+ */
+public class IodTickScheduleTest
+{
+    private static IodTickSchedule create(int _policy)
+    {
+	return new IodTickSchedule(100, _policy, 1000);
+    }
+
+    @Test
+    public void firstTickIsDueAtTheStart()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_COALESCE);
+
+	assertEquals(1000, schedule.getNextDue());
+	assertEquals(1000, schedule.getNextRun());
+    }
+
+    @Test
+    public void periodIsAtLeastOne()
+    {
+	assertEquals(1, new IodTickSchedule(0, OVERRUN_POLICY_COALESCE, 0)
+		.getPeriod());
+    }
+
+    @Test
+    public void advanceKeepsTheGridWithoutDrift()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_COALESCE);
+
+	// Runs taking a varying part of the period
+	assertEquals(0, schedule.advance(1050));
+	assertEquals(1100, schedule.getNextDue());
+	assertEquals(0, schedule.advance(1199));
+	assertEquals(1200, schedule.getNextDue());
+	assertEquals(0, schedule.advance(1201));
+	assertEquals(1300, schedule.getNextDue());
+	assertEquals(1300, schedule.getNextRun());
+    }
+
+    @Test
+    public void coalesceMergesTheMissedTicksIntoOneRun()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_COALESCE);
+
+	// The ticks at 1100, 1200 and 1300 are due; one run serves them
+	assertEquals(2, schedule.advance(1350));
+	assertEquals(1300, schedule.getNextDue());
+	assertEquals(1300, schedule.getNextRun());
+
+	// Back on the grid
+	assertEquals(0, schedule.advance(1310));
+	assertEquals(1400, schedule.getNextDue());
+    }
+
+    @Test
+    public void coalesceRunsRightAwayWhenTheRunEndsOnTheNextTick()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_COALESCE);
+
+	assertEquals(0, schedule.advance(1100));
+	assertEquals(1100, schedule.getNextRun());
+    }
+
+    @Test
+    public void skipContinuesWithTheFirstTickInTheFuture()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_SKIP);
+
+	assertEquals(3, schedule.advance(1350));
+	assertEquals(1400, schedule.getNextDue());
+	assertEquals(1400, schedule.getNextRun());
+    }
+
+    @Test
+    public void skipDropsATickThatIsDueWhenTheRunEnds()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_SKIP);
+
+	assertEquals(1, schedule.advance(1100));
+	assertEquals(1200, schedule.getNextDue());
+    }
+
+    @Test
+    public void catchUpRunsEveryMissedTickAtAHigherRate()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_CATCH_UP);
+	long spacing = 100 / IodTickSchedule.CATCH_UP_RATE;
+
+	// The ticks at 1100, 1200 and 1300 are run one by one
+	assertEquals(0, schedule.advance(1350));
+	assertEquals(1100, schedule.getNextDue());
+	assertEquals(1350 + spacing, schedule.getNextRun());
+
+	assertEquals(0, schedule.advance(1375));
+	assertEquals(1200, schedule.getNextDue());
+	assertEquals(1375 + spacing, schedule.getNextRun());
+
+	assertEquals(0, schedule.advance(1400));
+	assertEquals(1300, schedule.getNextDue());
+	assertEquals(1400 + spacing, schedule.getNextRun());
+
+	// The tick at 1400 is due by now, so it is caught up as well
+	assertEquals(0, schedule.advance(1425));
+	assertEquals(1400, schedule.getNextDue());
+	assertEquals(1425 + spacing, schedule.getNextRun());
+
+	// Caught up; back on the grid
+	assertEquals(0, schedule.advance(1450));
+	assertEquals(1500, schedule.getNextDue());
+	assertEquals(1500, schedule.getNextRun());
+    }
+
+    @Test
+    public void catchUpSkipsTheTicksBeyondTheLimit()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_CATCH_UP);
+
+	// 100 ticks are due; only the last MAX_CATCH_UP_TICKS are run
+	long skipped = schedule.advance(11000);
+
+	assertEquals(100 - IodTickSchedule.MAX_CATCH_UP_TICKS, skipped);
+	assertEquals(11000 - (IodTickSchedule.MAX_CATCH_UP_TICKS - 1) * 100,
+		schedule.getNextDue());
+    }
+
+    @Test
+    public void catchUpSpacingIsAtLeastOne()
+    {
+	IodTickSchedule schedule = new IodTickSchedule(2,
+		OVERRUN_POLICY_CATCH_UP, 0);
+
+	schedule.advance(10);
+	assertEquals(11, schedule.getNextRun());
+    }
+
+    @Test
+    public void resumeBeforeTheNextTickDropsNothing()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_SKIP);
+
+	assertEquals(0, schedule.resume(900));
+	assertEquals(1000, schedule.getNextDue());
+	assertEquals(0, schedule.resume(1000));
+	assertEquals(1000, schedule.getNextDue());
+    }
+
+    @Test
+    public void resumeKeepsThePhase()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_COALESCE);
+
+	// The ticks at 1000, 1100 and 1200 were missed while paused
+	assertEquals(3, schedule.resume(1250));
+	assertEquals(1300, schedule.getNextDue());
+	assertEquals(1300, schedule.getNextRun());
+
+	// A resume on a tick runs that tick
+	schedule = create(OVERRUN_POLICY_COALESCE);
+	assertEquals(3, schedule.resume(1300));
+	assertEquals(1300, schedule.getNextDue());
+    }
+
+    @Test
+    public void resumeDropsTheMissedTicksRegardlessOfThePolicy()
+    {
+	IodTickSchedule schedule = create(OVERRUN_POLICY_CATCH_UP);
+
+	// A delayed catch-up run is replaced by the next tick
+	schedule.advance(1350);
+	assertEquals(3, schedule.resume(1360));
+	assertEquals(1400, schedule.getNextDue());
+	assertEquals(1400, schedule.getNextRun());
+    }
+}
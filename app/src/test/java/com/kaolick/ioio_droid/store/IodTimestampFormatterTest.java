@@ -0,0 +1,145 @@
+package com.kaolick.ioio_droid.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link IodTimestampFormatter}. The formatter is checked against
+ * a {@link SimpleDateFormat}, in particular around the changes to and from
+ * daylight saving time.
+ *
+ * @author kaolick
+ */
+public class IodTimestampFormatterTest
+{
+    // Milliseconds per minute
+    private static final long MINUTE = 60 * 1000;
+
+    // 2013-03-31 00:00:00 UTC and 2013-10-27 00:00:00 UTC, the days Central
+    // European Summer Time started and ended
+    private static final long SPRING_FORWARD_DAY = 1364688000000L;
+    private static final long FALL_BACK_DAY = 1382832000000L;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp()
+    {
+	mDefaultTimeZone = TimeZone.getDefault();
+	TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+    }
+
+    @After
+    public void tearDown()
+    {
+	TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    /**
+     * Formats every minute of a range with one formatter, so the cached hour
+     * is carried across the hour boundaries, and compares the results with a
+     * <code>SimpleDateFormat</code>.
+     */
+    private static void assertFormatsLikeSimpleDateFormat(long _from,
+							  long _to,
+							  long _step)
+    {
+	IodTimestampFormatter formatter = new IodTimestampFormatter();
+	SimpleDateFormat format = new SimpleDateFormat(
+		"yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+
+	for (long millis = _from; millis < _to; millis += _step)
+	{
+	    assertEquals(format.format(millis), formatter.format(millis));
+	}
+    }
+
+    @Test
+    public void formatsLocalTimeWithTheZoneOffset()
+    {
+	IodTimestampFormatter formatter = new IodTimestampFormatter();
+
+	// 2013-07-24 11:11:25.042 UTC
+	assertEquals("2013-07-24T13:11:25.042+0200",
+		formatter.format(1374664285042L));
+	assertEquals(IodTimestampFormatter.LENGTH,
+		formatter.format(1374664285042L).length());
+
+	// 2013-01-05 00:00:00.007 UTC
+	assertEquals("2013-01-05T01:00:00.007+0100",
+		formatter.format(1357344000007L));
+    }
+
+    @Test
+    public void appendToAppends()
+    {
+	IodTimestampFormatter formatter = new IodTimestampFormatter();
+	StringBuilder builder = new StringBuilder("t=");
+
+	formatter.appendTo(builder, 1374664285042L);
+
+	assertEquals("t=2013-07-24T13:11:25.042+0200", builder.toString());
+    }
+
+    @Test
+    public void skippedHourIsNotFormatted()
+    {
+	IodTimestampFormatter formatter = new IodTimestampFormatter();
+
+	// 02:00 CET does not exist; 01:00 UTC is 03:00 CEST
+	assertEquals("2013-03-31T01:59:59.999+0100",
+		formatter.format(SPRING_FORWARD_DAY + 60 * MINUTE - 1));
+	assertEquals("2013-03-31T03:00:00.000+0200",
+		formatter.format(SPRING_FORWARD_DAY + 60 * MINUTE));
+    }
+
+    @Test
+    public void repeatedHourHasBothOffsets()
+    {
+	IodTimestampFormatter formatter = new IodTimestampFormatter();
+
+	// 02:30 local time occurs once in summer time and once in winter time
+	assertEquals("2013-10-27T02:30:00.000+0200",
+		formatter.format(FALL_BACK_DAY + 30 * MINUTE));
+	assertEquals("2013-10-27T02:59:59.999+0200",
+		formatter.format(FALL_BACK_DAY + 60 * MINUTE - 1));
+	assertEquals("2013-10-27T02:00:00.000+0100",
+		formatter.format(FALL_BACK_DAY + 60 * MINUTE));
+	assertEquals("2013-10-27T02:30:00.000+0100",
+		formatter.format(FALL_BACK_DAY + 90 * MINUTE));
+
+	// Back to the summer time hour
+	assertEquals("2013-10-27T02:30:00.000+0200",
+		formatter.format(FALL_BACK_DAY + 30 * MINUTE));
+    }
+
+    @Test
+    public void daylightSavingTimeChangesMatchSimpleDateFormat()
+    {
+	assertFormatsLikeSimpleDateFormat(SPRING_FORWARD_DAY,
+		SPRING_FORWARD_DAY + 4 * 60 * MINUTE, MINUTE - 7);
+	assertFormatsLikeSimpleDateFormat(FALL_BACK_DAY, FALL_BACK_DAY + 4 * 60
+		* MINUTE, MINUTE - 7);
+    }
+
+    @Test
+    public void zonesWithPartialHourOffsetsMatchSimpleDateFormat()
+    {
+	// -0230 until 2013-11-03 04:30 UTC, -0330 afterwards
+	TimeZone.setDefault(TimeZone.getTimeZone("America/St_Johns"));
+	assertFormatsLikeSimpleDateFormat(1383451200000L,
+		1383451200000L + 6 * 60 * MINUTE, MINUTE + 13);
+
+	// +0545
+	TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kathmandu"));
+	assertFormatsLikeSimpleDateFormat(FALL_BACK_DAY, FALL_BACK_DAY + 3 * 60
+		* MINUTE, MINUTE + 13);
+    }
+}